@@ -0,0 +1,109 @@
+package com.nikhilm.hourglass.goal.model;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes and reads a GET /goals response and an output-goals event as JSON and as CBOR.
+ * The encoded and gzipped sizes of each are printed once per trial, next to the timings.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GoalPayloadFormatBenchmark {
+
+    @Param({"json", "cbor"})
+    String format;
+
+    @Param({"5", "50"})
+    int pageSize;
+
+    ObjectMapper objectMapper;
+    GoalResponse goalResponse;
+    Event<String, Goal> event;
+    byte[] goalResponseBytes;
+    byte[] eventBytes;
+
+    @Setup
+    public void setup() throws IOException {
+        objectMapper = "cbor".equals(format)
+                ? Jackson2ObjectMapperBuilder.json().factory(new CBORFactory()).build()
+                : Jackson2ObjectMapperBuilder.json().build();
+
+        List<Goal> goals = new ArrayList<>(pageSize);
+        for (int i = 0; i < pageSize; i++) {
+            Goal goal = new Goal();
+            goal.setId("5f9a1c2e8b3e4a1d2c3b" + String.format("%04d", i));
+            goal.setUserId("abc");
+            goal.setName("goal " + i);
+            goal.setDescription("description of goal " + i);
+            goal.setNotes(List.of("first note", "second note"));
+            goal.setLevel(GoalLevel.values()[i % GoalLevel.values().length]);
+            goal.setStatus(GoalStatus.values()[i % GoalStatus.values().length]);
+            goal.setDueDate(LocalDate.of(2021, 1, 1).plusDays(i));
+            goal.setVersion((long) i);
+            goals.add(goal);
+        }
+        goalResponse = new GoalResponse(goals, 1000L);
+        event = new Event<>(Event.Type.GOAL_ADDED, goals.get(0).getId(), goals.get(0),
+                LocalDateTime.of(2021, 1, 1, 12, 0));
+
+        goalResponseBytes = objectMapper.writeValueAsBytes(goalResponse);
+        eventBytes = objectMapper.writeValueAsBytes(event);
+        System.out.printf("%n%s: %d goals %d bytes, gzipped %d; event %d bytes, gzipped %d%n", format, pageSize,
+                goalResponseBytes.length, gzip(goalResponseBytes).length, eventBytes.length, gzip(eventBytes).length);
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(bytes);
+        }
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] writeGoalResponse() throws IOException {
+        return objectMapper.writeValueAsBytes(goalResponse);
+    }
+
+    @Benchmark
+    public GoalResponse readGoalResponse() throws IOException {
+        return objectMapper.readValue(goalResponseBytes, GoalResponse.class);
+    }
+
+    @Benchmark
+    public byte[] writeEvent() throws IOException {
+        return objectMapper.writeValueAsBytes(event);
+    }
+
+    @Benchmark
+    public Event<String, Goal> readEvent() throws IOException {
+        return objectMapper.readValue(eventBytes, new TypeReference<Event<String, Goal>>() {});
+    }
+}
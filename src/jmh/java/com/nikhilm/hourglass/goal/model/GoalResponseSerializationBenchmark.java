@@ -0,0 +1,63 @@
+package com.nikhilm.hourglass.goal.model;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serializes one GET /goals response with the object mapper settings Spring uses for the endpoint.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GoalResponseSerializationBenchmark {
+
+    @Param({"5", "50", "500"})
+    int pageSize;
+
+    ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+    GoalResponse goalResponse;
+
+    @Setup
+    public void setup() {
+        List<Goal> goals = new ArrayList<>(pageSize);
+        for (int i = 0; i < pageSize; i++) {
+            Goal goal = new Goal();
+            goal.setId("5f9a1c2e8b3e4a1d2c3b" + String.format("%04d", i));
+            goal.setUserId("abc");
+            goal.setName("goal " + i);
+            goal.setDescription("description of goal " + i);
+            goal.setNotes(List.of("first note", "second note"));
+            goal.setLevel(GoalLevel.values()[i % GoalLevel.values().length]);
+            goal.setStatus(GoalStatus.values()[i % GoalStatus.values().length]);
+            goal.setDueDate(LocalDate.of(2021, 1, 1).plusDays(i));
+            goal.setVersion((long) i);
+            goals.add(goal);
+        }
+        goalResponse = new GoalResponse(goals, 1000L);
+    }
+
+    @Benchmark
+    public byte[] writeGoalResponse() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(goalResponse);
+    }
+}
@@ -0,0 +1,42 @@
+package com.nikhilm.hourglass.goal.resources;
+
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.cloud.circuitbreaker.resilience4j.ReactiveResilience4JCircuitBreakerFactory;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GoalResourceBenchmark {
+
+    @Param({"A", "A,C,D", "A,C,D,X"})
+    String status;
+
+    GoalResource goalResource = new GoalResource(new ReactiveResilience4JCircuitBreakerFactory(),
+            BulkheadRegistry.ofDefaults());
+
+    @Benchmark
+    public List<String> parseStatusFilter() {
+        return goalResource.parseStatusFilter(status, ",");
+    }
+
+    @Benchmark
+    public boolean parseAndValidateStatusFilter() {
+        return goalResource.isStatusInvalid(goalResource.parseStatusFilter(status, ","));
+    }
+}
@@ -0,0 +1,125 @@
+package com.nikhilm.hourglass.goal.services;
+
+import com.mongodb.reactivestreams.client.MongoClient;
+import com.mongodb.reactivestreams.client.MongoClients;
+import com.nikhilm.hourglass.goal.model.CountMode;
+import com.nikhilm.hourglass.goal.model.Goal;
+import com.nikhilm.hourglass.goal.model.GoalResponse;
+import com.nikhilm.hourglass.goal.model.GoalStatus;
+import com.nikhilm.hourglass.goal.repositories.GoalReadRouting;
+import com.nikhilm.hourglass.goal.repositories.GoalRepository;
+import com.nikhilm.hourglass.goal.repositories.GoalRepositoryImpl;
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.SimpleReactiveMongoDatabaseFactory;
+import org.springframework.data.mongodb.repository.support.ReactiveMongoRepositoryFactory;
+import org.springframework.data.repository.core.support.RepositoryComposition.RepositoryFragments;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Flux;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The goal list over in-memory goals. appSidePaging is the filter/skip/take/reduce the service ran
+ * over all of a user's goals before paging moved into the query; fetchGoalPage is the current path,
+ * through the goal repository to a MongoDB server in the benchmark JVM, so it includes building the
+ * aggregation, the wire round trip and mapping the page back. It does not include network or disk time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FetchGoalsBenchmark {
+
+    private static final int PAGE_SIZE = 5;
+
+    @Param({"100", "1000", "10000"})
+    int totalGoals;
+
+    @Param({"1", "10"})
+    int page;
+
+    List<Goal> goals;
+    GoalService goalService;
+    MongoServer mongoServer;
+    MongoClient mongoClient;
+
+    @Setup
+    public void setup() {
+        goals = new ArrayList<>(totalGoals);
+        for (int i = 0; i < totalGoals; i++) {
+            Goal goal = new Goal();
+            goal.setUserId("abc");
+            goal.setName("goal " + i);
+            goal.setStatus(GoalStatus.values()[i % GoalStatus.values().length]);
+            goal.setDueDate(LocalDate.of(2021, 1, 1).plusDays(i));
+            goals.add(goal);
+        }
+
+        mongoServer = new MongoServer(new MemoryBackend());
+        InetSocketAddress address = mongoServer.bind();
+        mongoClient = MongoClients.create("mongodb://" + address.getHostString() + ":" + address.getPort());
+        SimpleReactiveMongoDatabaseFactory databaseFactory = new SimpleReactiveMongoDatabaseFactory(mongoClient,
+                "goals_benchmark");
+        ReactiveMongoTemplate mongoTemplate = new ReactiveMongoTemplate(databaseFactory);
+        mongoTemplate.insertAll(goals).blockLast();
+
+        GoalRepositoryImpl goalRepositoryImpl = new GoalRepositoryImpl();
+        ReflectionTestUtils.setField(goalRepositoryImpl, "mongoTemplate", mongoTemplate);
+        ReflectionTestUtils.setField(goalRepositoryImpl, "readRouting", new GoalReadRouting(mongoTemplate,
+                databaseFactory, new SimpleMeterRegistry(), false, Duration.ZERO, Duration.ZERO));
+        goalService = new GoalService();
+        goalService.goalRepository = new ReactiveMongoRepositoryFactory(mongoTemplate)
+                .getRepository(GoalRepository.class, RepositoryFragments.just(goalRepositoryImpl));
+        goalService.goalQueryCache = new NoOpGoalQueryCache();
+        goalService.setPageSize(PAGE_SIZE);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mongoClient.close();
+        mongoServer.shutdownNow();
+    }
+
+    @Benchmark
+    public GoalResponse appSidePaging() {
+        List<String> inclusions = List.of();
+        return Flux.fromIterable(goals)
+                .filter(goal -> inclusions.isEmpty() || inclusions.contains(goal.getStatus().getValue()))
+                .skip((long) (page - 1) * PAGE_SIZE)
+                .take(PAGE_SIZE)
+                .reduce(new GoalResponse(), (goalResponse, goal) -> {
+                    goalResponse.getGoals().add(goal);
+                    return goalResponse;
+                })
+                .block();
+    }
+
+    @Benchmark
+    public GoalResponse fetchGoalPage() {
+        return goalService.fetchGoalPage(Optional.empty(), Optional.of(page), Optional.empty(), List.of(), "abc",
+                CountMode.EXACT, false, 0L).block();
+    }
+}
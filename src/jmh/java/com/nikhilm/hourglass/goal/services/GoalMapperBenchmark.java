@@ -0,0 +1,50 @@
+package com.nikhilm.hourglass.goal.services;
+
+import com.nikhilm.hourglass.goal.model.Goal;
+import com.nikhilm.hourglass.goal.model.GoalDTO;
+import com.nikhilm.hourglass.goal.model.GoalLevel;
+import com.nikhilm.hourglass.goal.model.GoalStatus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GoalMapperBenchmark {
+
+    GoalMapper goalMapper = new GoalMapperImpl();
+    GoalDTO goalDTO;
+
+    @Setup
+    public void setup() {
+        goalDTO = new GoalDTO();
+        goalDTO.setUserId("abc");
+        goalDTO.setName("first goal");
+        goalDTO.setDescription("a new goal");
+        goalDTO.setNotes(List.of("first note", "second note"));
+        goalDTO.setLevel(GoalLevel.EXTREME);
+        goalDTO.setStatus(GoalStatus.ACTIVE);
+        goalDTO.setDueDate(LocalDate.now().plusDays(10L));
+        goalDTO.setVersion(3L);
+    }
+
+    @Benchmark
+    public Goal goalDTOtoGoal() {
+        return goalMapper.goalDTOtoGoal(goalDTO);
+    }
+}
@@ -1,15 +1,44 @@
 package com.nikhilm.hourglass.goal;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.nikhilm.hourglass.goal.resources.GoalResource;
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadConfig;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
 import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
 import io.github.resilience4j.timelimiter.TimeLimiterConfig;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.reactivestreams.Publisher;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.web.codec.CodecCustomizer;
 import org.springframework.cloud.circuitbreaker.resilience4j.ReactiveResilience4JCircuitBreakerFactory;
 import org.springframework.cloud.circuitbreaker.resilience4j.Resilience4JConfigBuilder;
 import org.springframework.cloud.client.circuitbreaker.ReactiveCircuitBreakerFactory;
 import org.springframework.context.annotation.Bean;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.cbor.Jackson2CborDecoder;
+import org.springframework.http.codec.cbor.Jackson2CborEncoder;
+import org.springframework.http.codec.json.Jackson2JsonDecoder;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.converter.MessageConverter;
+import org.springframework.util.MimeType;
+import reactor.core.publisher.Flux;
 
 import java.time.Duration;
+import java.util.List;
+import java.util.Map;
 
 @SpringBootApplication
 public class GoalApplication {
@@ -19,13 +48,111 @@ public class GoalApplication {
 	}
 
 	@Bean
-	ReactiveCircuitBreakerFactory circuitBreakerFactory()	{
+	ReactiveCircuitBreakerFactory circuitBreakerFactory(ObjectProvider<MeterRegistry> meterRegistry)	{
 		var factory = new ReactiveResilience4JCircuitBreakerFactory();
 		factory.configureDefault(s -> new Resilience4JConfigBuilder(s)
 				.timeLimiterConfig(TimeLimiterConfig.custom().timeoutDuration(Duration.ofSeconds(5L)).build())
 				.circuitBreakerConfig(CircuitBreakerConfig.ofDefaults())
 				.build());
+		CircuitBreakerRegistry circuitBreakerRegistry = CircuitBreakerRegistry.ofDefaults();
+		meterRegistry.ifAvailable(registry -> circuitBreakerRegistry.getEventPublisher()
+				.onEntryAdded(event -> bindCircuitBreakerMetrics(event.getAddedEntry(), registry)));
+		factory.configureCircuitBreakerRegistry(circuitBreakerRegistry);
 		return factory;
 	}
 
+	// one bulkhead per GoalResource operation, so slow reads cannot take the permits writes need
+	@Bean
+	BulkheadRegistry bulkheadRegistry(ObjectProvider<MeterRegistry> meterRegistry,
+									  @Value("${goal.bulkhead.max-concurrent-calls:50}") int maxConcurrentCalls) {
+		BulkheadRegistry bulkheadRegistry = BulkheadRegistry.of(BulkheadConfig.custom()
+				.maxConcurrentCalls(maxConcurrentCalls)
+				// never wait for a permit on the event loop
+				.maxWaitDuration(Duration.ZERO)
+				.build());
+		meterRegistry.ifAvailable(registry -> bulkheadRegistry.getEventPublisher()
+				.onEntryAdded(event -> bindBulkheadMetrics(event.getAddedEntry(), registry)));
+		return bulkheadRegistry;
+	}
+
+	// Jackson only streams element by element for the media types it knows as streaming
+	@Bean
+	CodecCustomizer ndjsonCodecCustomizer(ObjectMapper objectMapper, Jackson2ObjectMapperBuilder objectMapperBuilder) {
+		MimeType[] mimeTypes = {MediaType.APPLICATION_JSON, new MediaType("application", "*+json"),
+				GoalResource.APPLICATION_NDJSON};
+		Jackson2JsonEncoder encoder = new Jackson2JsonEncoder(objectMapper, mimeTypes);
+		encoder.setStreamingMediaTypes(List.of(GoalResource.APPLICATION_NDJSON, MediaType.APPLICATION_STREAM_JSON));
+		// CBOR for clients asking for application/cbor, with the same date formats and modules as JSON
+		ObjectMapper cborMapper = objectMapperBuilder.factory(new CBORFactory()).build();
+		return configurer -> {
+			configurer.defaultCodecs().jackson2JsonEncoder(encoder);
+			configurer.defaultCodecs().jackson2JsonDecoder(new Jackson2JsonDecoder(objectMapper, mimeTypes));
+			configurer.customCodecs().register(new CborEncoder(cborMapper));
+			configurer.customCodecs().register(new Jackson2CborDecoder(cborMapper, MediaType.APPLICATION_CBOR));
+		};
+	}
+
+	// lets goal.events.content-type be application/cbor for the output-goals binding
+	@Bean
+	MessageConverter cborMessageConverter(Jackson2ObjectMapperBuilder objectMapperBuilder) {
+		return new CborMessageConverter(objectMapperBuilder.factory(new CBORFactory()).build());
+	}
+
+	// Spring Cloud Stream adds MessageConverter beans to its bindings, but skips those of Spring's own classes
+	static class CborMessageConverter extends MappingJackson2MessageConverter {
+
+		CborMessageConverter(ObjectMapper objectMapper) {
+			super(MediaType.APPLICATION_CBOR);
+			setObjectMapper(objectMapper);
+		}
+	}
+
+	// The CBOR encoder of Spring 5.2 rejects every publisher, though all it is given here are single values.
+	// It must also leave writes without a media type, such as error bodies, to the JSON encoder.
+	static class CborEncoder extends Jackson2CborEncoder {
+
+		CborEncoder(ObjectMapper objectMapper) {
+			super(objectMapper, MediaType.APPLICATION_CBOR);
+		}
+
+		@Override
+		public boolean canEncode(ResolvableType elementType, MimeType mimeType) {
+			return mimeType != null && super.canEncode(elementType, mimeType);
+		}
+
+		@Override
+		public Flux<DataBuffer> encode(Publisher<?> inputStream, DataBufferFactory bufferFactory,
+									   ResolvableType elementType, MimeType mimeType, Map<String, Object> hints) {
+			return Flux.from(inputStream)
+					.map(value -> encodeValue(value, bufferFactory, elementType, mimeType, hints));
+		}
+	}
+
+	// goal.circuitbreaker.calls by outcome and goal.circuitbreaker.transitions by from and to state
+	static void bindCircuitBreakerMetrics(CircuitBreaker circuitBreaker, MeterRegistry registry) {
+		String name = circuitBreaker.getName();
+		circuitBreaker.getEventPublisher()
+				.onSuccess(event -> registry.counter("goal.circuitbreaker.calls",
+						"name", name, "outcome", "success").increment())
+				.onError(event -> registry.counter("goal.circuitbreaker.calls",
+						"name", name, "outcome", "error").increment())
+				.onCallNotPermitted(event -> registry.counter("goal.circuitbreaker.calls",
+						"name", name, "outcome", "not_permitted").increment())
+				.onStateTransition(event -> registry.counter("goal.circuitbreaker.transitions",
+						"name", name,
+						"from", event.getStateTransition().getFromState().name(),
+						"to", event.getStateTransition().getToState().name()).increment());
+		registry.gauge("goal.circuitbreaker.state", Tags.of("name", name),
+				circuitBreaker, breaker -> breaker.getState().getOrder());
+	}
+
+	// goal.bulkhead.rejected and goal.bulkhead.available by bulkhead name
+	static void bindBulkheadMetrics(Bulkhead bulkhead, MeterRegistry registry) {
+		String name = bulkhead.getName();
+		bulkhead.getEventPublisher()
+				.onCallRejected(event -> registry.counter("goal.bulkhead.rejected", "name", name).increment());
+		registry.gauge("goal.bulkhead.available", Tags.of("name", name),
+				bulkhead, b -> b.getMetrics().getAvailableConcurrentCalls());
+	}
+
 }
@@ -0,0 +1,109 @@
+package com.nikhilm.hourglass.goal.logging;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.event.Level;
+import reactor.core.publisher.Signal;
+import reactor.util.context.Context;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntSupplier;
+
+/**
+ * Structured key=value logger for request paths. Nothing is formatted or allocated unless the level
+ * is enabled, and at most max-per-second lines are written per logger; lines over that budget are
+ * counted and the count is added to the next line that gets through. Every line carries the
+ * correlation id of the request taken from the Reactor Context.
+ * <p>
+ * The budget is goal.log.max-per-second, 100 by default, set by {@link SampledLoggerConfigurer} for every
+ * logger, including those created before the context started.
+ */
+public class SampledLogger {
+
+    public static final String CORRELATION_ID = "correlationId";
+
+    private static volatile int configuredMaxPerSecond = 100;
+
+    private final Logger logger;
+    private final IntSupplier maxPerSecond;
+    private final AtomicLong window = new AtomicLong();
+    private final AtomicInteger written = new AtomicInteger();
+    private final AtomicLong suppressed = new AtomicLong();
+
+    SampledLogger(Logger logger, int maxPerSecond) {
+        this(logger, () -> maxPerSecond);
+    }
+
+    private SampledLogger(Logger logger, IntSupplier maxPerSecond) {
+        this.logger = logger;
+        this.maxPerSecond = maxPerSecond;
+    }
+
+    public static SampledLogger getLogger(Class<?> type) {
+        return new SampledLogger(LoggerFactory.getLogger(type), () -> configuredMaxPerSecond);
+    }
+
+    static void setMaxPerSecond(int maxPerSecond) {
+        configuredMaxPerSecond = maxPerSecond;
+    }
+
+    public void warn(Context context, String event, String key, Object value) {
+        if (logger.isWarnEnabled() && sample()) {
+            write(Level.WARN, context, event, key, value);
+        }
+    }
+
+    public void error(Context context, String event, String key, Object value) {
+        if (logger.isErrorEnabled() && sample()) {
+            write(Level.ERROR, context, event, key, value);
+        }
+    }
+
+    /**
+     * For doOnEach: logs the value of every element at debug, with the correlation id of the subscriber.
+     */
+    public <T> Consumer<Signal<T>> debugOnNext(String event, String key, Function<? super T, ?> value) {
+        return signal -> {
+            if (signal.isOnNext() && logger.isDebugEnabled() && sample()) {
+                write(Level.DEBUG, signal.getContext(), event, key, value.apply(signal.get()));
+            }
+        };
+    }
+
+    private boolean sample() {
+        long second = System.nanoTime() / 1_000_000_000L;
+        long current = window.get();
+        if (second != current && window.compareAndSet(current, second)) {
+            written.set(0);
+        }
+        if (written.incrementAndGet() <= maxPerSecond.getAsInt()) {
+            return true;
+        }
+        suppressed.incrementAndGet();
+        return false;
+    }
+
+    private void write(Level level, Context context, String event, String key, Object value) {
+        StringBuilder line = new StringBuilder(96)
+                .append("event=").append(event)
+                .append(' ').append(CORRELATION_ID).append('=').append(context.getOrDefault(CORRELATION_ID, "-"))
+                .append(' ').append(key).append('=').append(value);
+        long dropped = suppressed.getAndSet(0L);
+        if (dropped > 0) {
+            line.append(" suppressed=").append(dropped);
+        }
+        switch (level) {
+            case ERROR:
+                logger.error(line.toString());
+                break;
+            case WARN:
+                logger.warn(line.toString());
+                break;
+            default:
+                logger.debug(line.toString());
+        }
+    }
+}
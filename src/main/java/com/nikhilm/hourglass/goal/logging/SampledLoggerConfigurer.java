@@ -0,0 +1,15 @@
+package com.nikhilm.hourglass.goal.logging;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Applies goal.log.max-per-second to the {@link SampledLogger}s, which are created in static fields.
+ */
+@Component
+public class SampledLoggerConfigurer {
+
+    public SampledLoggerConfigurer(@Value("${goal.log.max-per-second:100}") int maxPerSecond) {
+        SampledLogger.setMaxPerSecond(maxPerSecond);
+    }
+}
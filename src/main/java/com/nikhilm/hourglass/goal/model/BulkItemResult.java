@@ -0,0 +1,42 @@
+package com.nikhilm.hourglass.goal.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * Outcome of one item of a bulk request; index is the position of the item in the request.
+ */
+@NoArgsConstructor
+@AllArgsConstructor
+@Getter
+@Setter
+@ToString
+public class BulkItemResult {
+
+    private long index;
+    private String name;
+    private String id;
+    private BulkOutcome outcome;
+    // the goal as written, for the events of a successful item
+    @JsonIgnore
+    private Goal goal;
+    // the goal before an update, for the stats
+    @JsonIgnore
+    private Goal previous;
+
+    public static BulkItemResult of(String name, BulkOutcome outcome) {
+        return new BulkItemResult(0L, name, null, outcome, null, null);
+    }
+
+    public static BulkItemResult of(Goal goal, BulkOutcome outcome) {
+        return new BulkItemResult(0L, goal.getName(), goal.getId(), outcome, goal, null);
+    }
+
+    public static BulkItemResult updated(Goal previous, Goal goal) {
+        return new BulkItemResult(0L, goal.getName(), goal.getId(), BulkOutcome.UPDATED, goal, previous);
+    }
+}
@@ -0,0 +1,19 @@
+package com.nikhilm.hourglass.goal.model;
+
+import com.fasterxml.jackson.annotation.JsonValue;
+
+public enum BulkOutcome {
+    CREATED("created"), UPDATED("updated"), CONFLICT("conflict"), NOT_FOUND("not_found"),
+    INVALID("invalid"), FAILED("failed");
+
+    private String value;
+
+    BulkOutcome(String value)  {
+        this.value = value;
+    }
+
+    @JsonValue
+    public String getValue()  {
+        return this.value;
+    }
+}
@@ -0,0 +1,24 @@
+package com.nikhilm.hourglass.goal.model;
+
+public enum CountMode {
+    EXACT("exact"), ESTIMATED("estimated"), NONE("none");
+
+    private String value;
+
+    CountMode(String value)  {
+        this.value = value;
+    }
+
+    public String getValue()  {
+        return this.value;
+    }
+
+    public static CountMode fromValue(String value)  {
+        for (CountMode mode : CountMode.values()) {
+            if (mode.value.equalsIgnoreCase(value)) {
+                return mode;
+            }
+        }
+        throw new IllegalArgumentException("Unknown count mode " + value);
+    }
+}
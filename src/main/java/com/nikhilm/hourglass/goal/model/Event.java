@@ -21,10 +21,14 @@ public class Event<K, T> {
     }
 
     public Event(Type eventType, K key, T data) {
+        this(eventType, key, data, now());
+    }
+
+    public Event(Type eventType, K key, T data, LocalDateTime eventCreatedAt) {
         this.eventType = eventType;
         this.key = key;
         this.data = data;
-        this.eventCreatedAt = now();
+        this.eventCreatedAt = eventCreatedAt;
     }
 
     public Type getEventType() {
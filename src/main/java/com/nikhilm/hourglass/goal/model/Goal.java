@@ -4,7 +4,9 @@ import com.fasterxml.jackson.annotation.JsonFormat;
 import lombok.*;
 import org.springframework.context.annotation.EnableMBeanExport;
 import org.springframework.data.annotation.Id;
-import org.springframework.data.mongodb.core.index.TextIndexed;
+import org.springframework.data.annotation.Version;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.time.LocalDate;
@@ -18,17 +20,32 @@ import java.util.List;
 @ToString
 
 @Document(collection = "goals")
+@CompoundIndexes({
+        @CompoundIndex(name = "userId_name", def = "{'userId': 1, 'name': 1}", unique = true, background = true),
+        @CompoundIndex(name = "userId_status_dueDate", def = "{'userId': 1, 'status': 1, 'dueDate': 1}",
+                background = true),
+        @CompoundIndex(name = "userId_dueDate_id", def = "{'userId': 1, 'dueDate': 1, '_id': 1}", background = true),
+        @CompoundIndex(name = "userId_text", def = "{'userId': 1, 'name': 'text', 'description': 'text'}",
+                background = true),
+        @CompoundIndex(name = "status_completedOn", def = "{'status': 1, 'completedOn': 1}", background = true)
+})
 public class Goal {
 
+    // goals completed long ago are moved here, with the time they were moved as archivedAt; the unique
+    // (userId, name) index is on goals only, so the name of an archived goal can be used again
+    public static final String ARCHIVE_COLLECTION = "goals_archive";
+    public static final String ARCHIVED_AT = "archivedAt";
+
     @Id
     private String id;
     private String userId;
 
-    @TextIndexed
     @NonNull
     private String name;
-    @TextIndexed
+    // free text of any length; logged goals are identified by their other fields
+    @ToString.Exclude
     private String description;
+    @ToString.Exclude
     private List<String> notes;
     private GoalLevel level;
     private LocalDate completedOn;
@@ -37,5 +54,7 @@ public class Goal {
     @JsonFormat(pattern="yyyy-MM-dd")
     private LocalDate dueDate;
     private int votes;
+    @Version
+    private Long version;
 }
 
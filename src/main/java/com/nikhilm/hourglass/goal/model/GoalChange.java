@@ -0,0 +1,30 @@
+package com.nikhilm.hourglass.goal.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * One change of a goal on the change feed. id is the change stream resume token, type is the
+ * change stream operation (insert, update or replace) or reset when the client must refetch its goals.
+ */
+@NoArgsConstructor
+@AllArgsConstructor
+@Getter
+@Setter
+@ToString
+public class GoalChange {
+
+    public static final String RESET = "reset";
+
+    private String id;
+    private String type;
+    private Goal goal;
+
+    // an empty id makes an EventSource forget the last event id, so the next reconnect starts afresh
+    public static GoalChange reset() {
+        return new GoalChange("", RESET, null);
+    }
+}
@@ -0,0 +1,56 @@
+package com.nikhilm.hourglass.goal.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+
+/**
+ * Position in the (dueDate, id) ordering of a user's goals. Clients only see the opaque encoded form.
+ */
+@AllArgsConstructor
+@Getter
+@ToString
+public class GoalCursor {
+
+    private static final String SEPARATOR = "|";
+
+    private LocalDate dueDate;
+    private String id;
+
+    public static GoalCursor after(Goal goal)  {
+        return new GoalCursor(goal.getDueDate(), goal.getId());
+    }
+
+    public static GoalCursor after(GoalSummary goal)  {
+        return new GoalCursor(goal.getDueDate(), goal.getId());
+    }
+
+    public String encode()  {
+        String position = (dueDate == null ? "" : dueDate.toString()) + SEPARATOR + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(position.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static GoalCursor decode(String cursor)  {
+        String position;
+        try {
+            position = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Malformed cursor " + cursor, e);
+        }
+        int separator = position.indexOf(SEPARATOR);
+        if (separator < 0 || separator == position.length() - 1) {
+            throw new IllegalArgumentException("Malformed cursor " + cursor);
+        }
+        try {
+            LocalDate dueDate = separator == 0 ? null : LocalDate.parse(position.substring(0, separator));
+            return new GoalCursor(dueDate, position.substring(separator + 1));
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Malformed cursor " + cursor, e);
+        }
+    }
+}
@@ -23,7 +23,10 @@ public class GoalDTO {
 
     @NonNull
     private String name;
+    // free text of any length; logged goals are identified by their other fields
+    @ToString.Exclude
     private String description;
+    @ToString.Exclude
     private List<String> notes;
     private GoalLevel level;
     private LocalDate completedOn;
@@ -32,5 +35,7 @@ public class GoalDTO {
     @JsonFormat(pattern="yyyy-MM-dd")
     private LocalDate dueDate;
     private int votes;
+    // version the client last read, to detect concurrent updates
+    private Long version;
 }
 
@@ -0,0 +1,26 @@
+package com.nikhilm.hourglass.goal.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@NoArgsConstructor
+@AllArgsConstructor
+@Getter
+@Setter
+@ToString
+public class GoalQuery {
+    private String userId;
+    // full-text search terms, null when the list is not searched
+    private String text;
+    private List<GoalStatus> statuses = new ArrayList<>();
+    // keyset position to continue after, null for offset paging
+    private GoalCursor cursor;
+    // also read goals_archive, merged into the (dueDate, id) order
+    private boolean includeArchived;
+}
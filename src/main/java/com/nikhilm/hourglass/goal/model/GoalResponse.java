@@ -15,4 +15,11 @@ import java.util.List;
 public class GoalResponse {
     private List<Goal> goals = new ArrayList<>();
     private Long totalgoals = 0L;
+    // set when more goals follow in (dueDate, id) order
+    private String nextCursor;
+
+    public GoalResponse(List<Goal> goals, Long totalgoals) {
+        this.goals = goals;
+        this.totalgoals = totalgoals;
+    }
 }
@@ -0,0 +1,63 @@
+package com.nikhilm.hourglass.goal.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Counts of one user's goals, kept up to date with $inc on every goal write and rebuilt from the goals
+ * now and then to repair drift. Counts are keyed by enum name, open goals by ISO due date so the overdue
+ * count can be summed for any day. version grows with every change of the document.
+ */
+@NoArgsConstructor
+@AllArgsConstructor
+@Getter
+@Setter
+@ToString
+
+@Document(collection = "goal_stats")
+public class GoalStats {
+
+    public static final String TOTAL = "total";
+    public static final String BY_STATUS = "byStatus";
+    public static final String BY_LEVEL = "byLevel";
+    public static final String OPEN_BY_DUE_DATE = "openByDueDate";
+    public static final String VERSION = "version";
+
+    @Id
+    private String userId;
+    private long total;
+    private Map<String, Long> byStatus = new HashMap<>();
+    private Map<String, Long> byLevel = new HashMap<>();
+    private Map<String, Long> openByDueDate = new HashMap<>();
+    private long version;
+    // null until the first rebuild; counts before that only cover goals written since the document was created
+    private LocalDateTime rebuiltAt;
+
+    public boolean sameCounts(GoalStats other) {
+        return total == other.total
+                && withoutZeros(byStatus).equals(withoutZeros(other.byStatus))
+                && withoutZeros(byLevel).equals(withoutZeros(other.byLevel))
+                && withoutZeros(openByDueDate).equals(withoutZeros(other.openByDueDate));
+    }
+
+    private static Map<String, Long> withoutZeros(Map<String, Long> counts) {
+        Map<String, Long> nonZero = new HashMap<>();
+        if (counts != null) {
+            counts.forEach((key, count) -> {
+                if (count != null && count != 0L) {
+                    nonZero.put(key, count);
+                }
+            });
+        }
+        return nonZero;
+    }
+}
@@ -0,0 +1,48 @@
+package com.nikhilm.hourglass.goal.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@NoArgsConstructor
+@AllArgsConstructor
+@Getter
+@Setter
+public class GoalStatsResponse {
+    private long totalgoals;
+    // keyed by status value (A, D, C) and level (Easy, Moderate, Extreme), every one present
+    private Map<String, Long> byStatus = new LinkedHashMap<>();
+    private Map<String, Long> byLevel = new LinkedHashMap<>();
+    private double completionRate;
+    // goals not completed whose due date has passed
+    private long overdue;
+
+    public static GoalStatsResponse of(GoalStats stats, LocalDate today) {
+        GoalStatsResponse response = new GoalStatsResponse();
+        response.setTotalgoals(stats.getTotal());
+        for (GoalStatus status : GoalStatus.values()) {
+            response.getByStatus().put(status.getValue(), count(stats.getByStatus(), status.name()));
+        }
+        for (GoalLevel level : GoalLevel.values()) {
+            response.getByLevel().put(level.getLevel(), count(stats.getByLevel(), level.name()));
+        }
+        long completed = count(stats.getByStatus(), GoalStatus.COMPLETED.name());
+        response.setCompletionRate(stats.getTotal() == 0L ? 0.0 : (double) completed / stats.getTotal());
+        if (stats.getOpenByDueDate() != null) {
+            response.setOverdue(stats.getOpenByDueDate().entrySet().stream()
+                    .filter(entry -> LocalDate.parse(entry.getKey()).isBefore(today))
+                    .mapToLong(Map.Entry::getValue)
+                    .sum());
+        }
+        return response;
+    }
+
+    private static long count(Map<String, Long> counts, String key) {
+        return counts == null ? 0L : Math.max(0L, counts.getOrDefault(key, 0L));
+    }
+}
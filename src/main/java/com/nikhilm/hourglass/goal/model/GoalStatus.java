@@ -14,4 +14,13 @@ public enum GoalStatus {
     public String getValue()  {
         return this.value;
     }
+
+    public static GoalStatus fromValue(String value)  {
+        for (GoalStatus status : GoalStatus.values()) {
+            if (status.value.equalsIgnoreCase(value)) {
+                return status;
+            }
+        }
+        throw new IllegalArgumentException("Unknown goal status " + value);
+    }
 }
@@ -0,0 +1,33 @@
+package com.nikhilm.hourglass.goal.model;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * The fields of a goal the dashboard list renders, read with a projection so description and notes
+ * never leave the database.
+ */
+@NoArgsConstructor
+@AllArgsConstructor
+@Getter
+@Setter
+@ToString
+public class GoalSummary {
+
+    // _id is always returned, and with dueDate it positions the next cursor
+    public static final List<String> FIELDS = List.of("name", "status", "level", "dueDate");
+
+    private String id;
+    private String name;
+    private GoalStatus status;
+    private GoalLevel level;
+    @JsonFormat(pattern="yyyy-MM-dd")
+    private LocalDate dueDate;
+}
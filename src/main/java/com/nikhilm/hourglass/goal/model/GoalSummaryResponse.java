@@ -0,0 +1,20 @@
+package com.nikhilm.hourglass.goal.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@NoArgsConstructor
+@AllArgsConstructor
+@Getter
+@Setter
+public class GoalSummaryResponse {
+    private List<GoalSummary> goals = new ArrayList<>();
+    private Long totalgoals = 0L;
+    // set when more goals follow in (dueDate, id) order
+    private String nextCursor;
+}
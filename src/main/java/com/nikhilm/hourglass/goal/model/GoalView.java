@@ -0,0 +1,15 @@
+package com.nikhilm.hourglass.goal.model;
+
+public enum GoalView {
+    FULL("full"), SUMMARY("summary");
+
+    private String value;
+
+    GoalView(String value)  {
+        this.value = value;
+    }
+
+    public String getValue()  {
+        return this.value;
+    }
+}
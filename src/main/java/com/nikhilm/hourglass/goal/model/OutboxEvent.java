@@ -0,0 +1,40 @@
+package com.nikhilm.hourglass.goal.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+
+/**
+ * A goal event waiting to be relayed to the output-goals binding. It is written together with
+ * the goal change and removed once the binder has accepted it.
+ */
+@NoArgsConstructor
+@AllArgsConstructor
+@Getter
+@Setter
+@ToString
+
+@Document(collection = "goal_outbox")
+public class OutboxEvent {
+
+    @Id
+    private String id;
+    private Event.Type eventType;
+    private String key;
+    private Goal goal;
+    private LocalDateTime eventCreatedAt;
+
+    public static OutboxEvent of(Event<String, Goal> event) {
+        return new OutboxEvent(null, event.getEventType(), event.getKey(), event.getData(), event.getEventCreatedAt());
+    }
+
+    public Event<String, Goal> toEvent() {
+        return new Event<>(eventType, key, goal, eventCreatedAt);
+    }
+}
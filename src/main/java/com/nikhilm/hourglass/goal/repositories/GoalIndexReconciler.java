@@ -0,0 +1,277 @@
+package com.nikhilm.hourglass.goal.repositories;
+
+import com.mongodb.reactivestreams.client.MongoClient;
+import com.nikhilm.hourglass.goal.model.Goal;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mapping.context.MappingContext;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexDefinition;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver.IndexDefinitionHolder;
+import org.springframework.data.mongodb.core.index.ReactiveIndexOperations;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentProperty;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.group;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.match;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.sort;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+/**
+ * Creates the indexes declared on {@link Goal} that are missing from the goals collection, and those of the
+ * goals_archive collection. Spring Data does not create them automatically, so without this every user query
+ * would scan the collection. Everything is built in the background once the application started, the unique
+ * indexes first; until userId_name exists, addGoal does not reject a duplicate name.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "goal.indexes.reconcile", havingValue = "true", matchIfMissing = true)
+public class GoalIndexReconciler {
+
+    private static final String TEXT = "$text:";
+
+    @Autowired
+    ReactiveMongoTemplate mongoTemplate;
+
+    @Autowired
+    MongoClient mongoClient;
+
+    private Duration progressInterval = Duration.ofSeconds(10L);
+
+    private Duration archiveTtl = Duration.ZERO;
+
+    @Value("${goal.indexes.progress-interval:10s}")
+    public void setProgressInterval(Duration progressInterval) {
+        this.progressInterval = progressInterval;
+    }
+
+    @Value("${goal.archive.ttl:0d}")
+    public void setArchiveTtl(Duration archiveTtl) {
+        this.archiveTtl = archiveTtl;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void reconcileOnStartup() {
+        Disposable progress = Flux.interval(progressInterval)
+                .concatMap(tick -> indexBuildsInProgress())
+                .subscribe(this::reportProgress);
+
+        createUniqueIndexes()
+                .then(reconcile())
+                .doFinally(signal -> progress.dispose())
+                .subscribe(created -> log.info("Goal indexes reconciled, created {}", created),
+                        throwable -> log.error("Goal index reconciliation failed {}", throwable.getMessage()));
+    }
+
+    /**
+     * Builds the missing unique indexes. Goals stored with a duplicate name, from before userId_name existed,
+     * would fail the build: all but the newest of each name are renamed to "name (2)", "name (3)", ... first.
+     * A build that fails anyway is logged and the application keeps serving without the index.
+     */
+    public Mono<List<String>> createUniqueIndexes() {
+        List<IndexDefinition> unique = declaredIndexes().stream()
+                .filter(index -> Boolean.TRUE.equals(index.getIndexOptions().get("unique")))
+                .collect(Collectors.toList());
+        String collection = mongoTemplate.getCollectionName(Goal.class);
+        return existingKeys(collection)
+                .flatMap(existing -> unique.stream().allMatch(index -> existing.contains(keySpec(index)))
+                        ? Mono.just(List.<String>of())
+                        : renameDuplicateNames()
+                                .thenMany(createMissing(mongoTemplate.indexOps(Goal.class), unique, collection, true))
+                                .collectList())
+                .doOnNext(created -> log.info("Unique goal indexes in place, created {}", created))
+                .onErrorResume(throwable -> {
+                    log.error("Could not create the unique goal indexes, duplicate names are accepted until they "
+                            + "are built {}", throwable.getMessage());
+                    return Mono.just(List.of());
+                });
+    }
+
+    // Only read while the unique index is missing. The newest goal of a name keeps it, by _id; the others get a
+    // suffix and a new version, so a client holding the old one gets a conflict.
+    private Mono<Void> renameDuplicateNames() {
+        Aggregation duplicates = Aggregation.newAggregation(
+                sort(Sort.Direction.DESC, "_id"),
+                group("userId", "name").push("_id").as("ids").count().as("count"),
+                match(where("count").gt(1)));
+        return mongoTemplate.aggregate(duplicates, mongoTemplate.getCollectionName(Goal.class), Document.class)
+                .concatMap(duplicate -> {
+                    Document key = duplicate.get("_id", Document.class);
+                    List<Object> ids = duplicate.getList("ids", Object.class);
+                    return Flux.range(1, ids.size() - 1)
+                            .concatMap(i -> {
+                                String renamed = key.getString("name") + " (" + (i + 1) + ")";
+                                log.warn("Renaming goal {} of user {} to {}", ids.get(i), key.getString("userId"),
+                                        renamed);
+                                return mongoTemplate.updateFirst(new Query(where("_id").is(ids.get(i))),
+                                        new Update().set("name", renamed).inc("version", 1), Goal.class);
+                            });
+                })
+                .then();
+    }
+
+    public Mono<List<String>> reconcile() {
+        return Flux.concat(createMissing(mongoTemplate.indexOps(Goal.class), declaredIndexes(),
+                        mongoTemplate.getCollectionName(Goal.class), false),
+                createMissing(mongoTemplate.indexOps(Goal.ARCHIVE_COLLECTION), archiveIndexes(),
+                        Goal.ARCHIVE_COLLECTION, false))
+                .collectList();
+    }
+
+    private List<IndexDefinition> declaredIndexes() {
+        MappingContext<? extends MongoPersistentEntity<?>, MongoPersistentProperty> mappingContext =
+                mongoTemplate.getConverter().getMappingContext();
+        return new MongoPersistentEntityIndexResolver(mappingContext)
+                .resolveIndexForEntity(mappingContext.getRequiredPersistentEntity(Goal.class)).stream()
+                .map(IndexDefinitionHolder::getIndexDefinition)
+                .collect(Collectors.toList());
+    }
+
+    // The archive is only listed per user. With a ttl, MongoDB deletes archived goals that long after they were
+    // moved; a changed ttl conflicts with the existing index, which has to be dropped first.
+    private List<IndexDefinition> archiveIndexes() {
+        List<IndexDefinition> indexes = new ArrayList<>();
+        indexes.add(new Index().on("userId", Sort.Direction.ASC).on("dueDate", Sort.Direction.ASC)
+                .on("_id", Sort.Direction.ASC).named("userId_dueDate_id"));
+        if (!archiveTtl.isZero()) {
+            indexes.add(new Index().on(Goal.ARCHIVED_AT, Sort.Direction.ASC).expire(archiveTtl)
+                    .named("archivedAt_ttl"));
+        }
+        return indexes;
+    }
+
+    private Mono<Set<List<String>>> existingKeys(String collection) {
+        return mongoTemplate.getCollection(collection)
+                .flatMapMany(existing -> Flux.from(existing.listIndexes()))
+                .map(index -> keySpec(index.get("key", Document.class), index.get("weights", Document.class)))
+                .collect(Collectors.toSet());
+    }
+
+    // Indexes are matched by their keys, so one created under another name is not built twice. MongoDB allows one
+    // text index per collection: an existing one over other keys, like the single-field text index of earlier
+    // versions, is dropped before the declared one is built. A failed build of a required index ends the flux.
+    private Flux<String> createMissing(ReactiveIndexOperations indexOps, List<IndexDefinition> indexes,
+                                       String collection, boolean required) {
+        return mongoTemplate.getCollection(collection)
+                .flatMapMany(existing -> Flux.from(existing.listIndexes()))
+                .collectList()
+                .flatMapMany(existing -> {
+                    Set<List<String>> existingKeys = existing.stream()
+                            .map(index -> keySpec(index.get("key", Document.class), index.get("weights", Document.class)))
+                            .collect(Collectors.toSet());
+                    List<IndexDefinition> missing = indexes.stream()
+                            .filter(index -> !existingKeys.contains(keySpec(index)))
+                            .collect(Collectors.toList());
+                    List<String> replacedTextIndexes = missing.stream().anyMatch(index -> isText(keySpec(index)))
+                            ? existing.stream()
+                                    .filter(index -> isText(keySpec(index.get("key", Document.class),
+                                            index.get("weights", Document.class))))
+                                    .map(index -> index.getString("name"))
+                                    .collect(Collectors.toList())
+                            : List.of();
+                    return Flux.fromIterable(replacedTextIndexes)
+                            .concatMap(name -> {
+                                log.info("Dropping text index {} on {}", name, collection);
+                                return indexOps.dropIndex(name)
+                                        .onErrorResume(throwable -> {
+                                            log.error("Could not drop index {} {}", name, throwable.getMessage());
+                                            return Mono.empty();
+                                        });
+                            })
+                            .thenMany(Flux.fromIterable(missing));
+                })
+                // one build at a time so a deployment does not saturate the database
+                .concatMap(index -> {
+                    log.info("Creating missing index {} on {}", indexName(index), collection);
+                    return indexOps.ensureIndex(index)
+                            .onErrorResume(throwable -> !required, throwable -> {
+                                log.error("Could not create index {} {}", indexName(index), throwable.getMessage());
+                                return Mono.empty();
+                            });
+                });
+    }
+
+    private static List<String> keySpec(IndexDefinition index) {
+        return keySpec(index.getIndexKeys(), index.getIndexOptions().get("weights", Document.class));
+    }
+
+    // Fields in index order, with the text fields of a text index as one sorted entry: MongoDB lists a text index
+    // with _fts and _ftsx keys and the fields in weights, while it is declared with the fields as keys
+    static List<String> keySpec(Document keys, Document weights) {
+        List<String> spec = new ArrayList<>();
+        SortedSet<String> textFields = new TreeSet<>();
+        int textPosition = -1;
+        for (Map.Entry<String, Object> key : keys.entrySet()) {
+            boolean listedText = "_fts".equals(key.getKey()) || "_ftsx".equals(key.getKey());
+            if (listedText || "text".equals(key.getValue())) {
+                textPosition = textPosition < 0 ? spec.size() : textPosition;
+                if (!listedText) {
+                    textFields.add(key.getKey());
+                }
+            } else if (key.getValue() instanceof Number) {
+                spec.add(key.getKey() + ":" + (((Number) key.getValue()).doubleValue() < 0 ? -1 : 1));
+            } else {
+                spec.add(key.getKey() + ":" + key.getValue());
+            }
+        }
+        if (weights != null) {
+            textFields.addAll(weights.keySet());
+        }
+        if (textPosition >= 0) {
+            spec.add(textPosition, TEXT + textFields);
+        }
+        return spec;
+    }
+
+    private static boolean isText(List<String> keySpec) {
+        return keySpec.stream().anyMatch(key -> key.startsWith(TEXT));
+    }
+
+    private Flux<Document> indexBuildsInProgress() {
+        Document currentOp = new Document("currentOp", true)
+                .append("command.createIndexes", mongoTemplate.getCollectionName(Goal.class));
+        return Mono.from(mongoClient.getDatabase("admin").runCommand(currentOp))
+                .flatMapIterable(result -> result.getList("inprog", Document.class))
+                .onErrorResume(throwable -> {
+                    log.debug("Index build progress is not available {}", throwable.getMessage());
+                    return Flux.empty();
+                });
+    }
+
+    private void reportProgress(Document operation) {
+        Document progress = operation.get("progress", Document.class);
+        if (progress != null) {
+            log.info("Index build {} {}/{}", operation.getString("msg"), progress.get("done"), progress.get("total"));
+        } else {
+            log.info("Index build {}", operation.getString("msg"));
+        }
+    }
+
+    private String indexName(IndexDefinition index) {
+        return index.getIndexOptions().getString("name");
+    }
+}
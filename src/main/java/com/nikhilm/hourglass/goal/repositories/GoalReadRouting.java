@@ -0,0 +1,66 @@
+package com.nikhilm.hourglass.goal.repositories;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.mongodb.ReadPreference;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.ReactiveMongoDatabaseFactory;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Picks the template a read of one user's goals goes to. Writes always use the primary template;
+ * list, search, count, version and stats reads go to a template reading secondaryPreferred, bounded by
+ * max-staleness, unless the user wrote within read-your-writes-window, so users always see their own writes.
+ * Writes are remembered per instance: a user whose requests move between instances can read a stale page there.
+ */
+@Component
+public class GoalReadRouting {
+
+    private final ReactiveMongoTemplate primary;
+    private final ReactiveMongoTemplate secondary;
+    private final Cache<String, Boolean> recentWriters;
+
+    private final Counter primaryReads;
+    private final Counter secondaryReads;
+
+    public GoalReadRouting(ReactiveMongoTemplate mongoTemplate, ReactiveMongoDatabaseFactory mongoDatabaseFactory,
+                           MeterRegistry meterRegistry,
+                           @Value("${goal.reads.secondary.enabled:false}") boolean secondaryEnabled,
+                           @Value("${goal.reads.max-staleness:90s}") Duration maxStaleness,
+                           @Value("${goal.reads.read-your-writes-window:90s}") Duration readYourWritesWindow) {
+        this.primary = mongoTemplate;
+        if (secondaryEnabled) {
+            // the same database and mapping as the primary template, only the read preference differs
+            this.secondary = new ReactiveMongoTemplate(mongoDatabaseFactory, mongoTemplate.getConverter());
+            this.secondary.setReadPreference(
+                    ReadPreference.secondaryPreferred(maxStaleness.getSeconds(), TimeUnit.SECONDS));
+        } else {
+            this.secondary = mongoTemplate;
+        }
+        this.recentWriters = Caffeine.newBuilder()
+                .expireAfterWrite(readYourWritesWindow.toNanos(), TimeUnit.NANOSECONDS)
+                .build();
+        this.primaryReads = meterRegistry.counter("goal.reads", "target", "primary");
+        this.secondaryReads = meterRegistry.counter("goal.reads", "target", "secondary");
+    }
+
+    public ReactiveMongoTemplate forReads(String userId) {
+        if (secondary == primary || recentWriters.getIfPresent(userId) != null) {
+            primaryReads.increment();
+            return primary;
+        }
+        secondaryReads.increment();
+        return secondary;
+    }
+
+    // Sends the user's reads to the primary for the next read-your-writes-window
+    public void recordWrite(String userId) {
+        recentWriters.put(userId, Boolean.TRUE);
+    }
+}
@@ -0,0 +1,49 @@
+package com.nikhilm.hourglass.goal.repositories;
+
+import com.nikhilm.hourglass.goal.model.BulkItemResult;
+import com.nikhilm.hourglass.goal.model.CountMode;
+import com.nikhilm.hourglass.goal.model.Goal;
+import com.nikhilm.hourglass.goal.model.GoalQuery;
+import com.nikhilm.hourglass.goal.model.GoalResponse;
+import com.nikhilm.hourglass.goal.model.GoalSummaryResponse;
+import com.nikhilm.hourglass.goal.model.GoalUpdate;
+import org.bson.BsonValue;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.core.ChangeStreamEvent;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDate;
+import java.util.List;
+
+public interface GoalRepositoryCustom {
+
+    // One page of goals and the count of all goals matching the same filter, in a single round trip
+    Mono<GoalResponse> findGoalPage(GoalQuery query, Pageable pageable, CountMode countMode);
+
+    // The same page with only the fields of GoalSummary read from MongoDB
+    Mono<GoalSummaryResponse> findGoalSummaryPage(GoalQuery query, Pageable pageable, CountMode countMode);
+
+    // Every goal matching the query, read from a cursor as the subscriber requests them
+    Flux<Goal> streamGoals(GoalQuery query);
+
+    // One unordered bulk insert; the results follow the order of the goals, with index left at 0
+    Mono<List<BulkItemResult>> insertGoals(List<Goal> goals);
+
+    // Sets status, completedOn and votes of the named goals of one user with one unordered bulk update
+    Mono<List<BulkItemResult>> updateStatuses(String userId, List<Goal> goals);
+
+    // Moves up to limit goals completed before the given day to goals_archive with bulk writes and returns them;
+    // a goal changed while it is moved stays in goals
+    Mono<List<Goal>> archiveCompleted(LocalDate completedBefore, int limit);
+
+    // Whether a goal of the user with this name was archived; read through the userId prefix of the archive index
+    Mono<Boolean> existsArchived(String userId, String name);
+
+    // Inserts, updates and replacements of goals with the full goal after the change, resumed after the token if given
+    Flux<ChangeStreamEvent<Goal>> watchGoals(BsonValue resumeToken);
+
+    // Sets status, notes, completedOn and votes with one findAndModify and returns the goal before and after,
+    // with the values as stored; empty when no goal matches name, user and version
+    Mono<GoalUpdate> updateProgress(Goal goal);
+}
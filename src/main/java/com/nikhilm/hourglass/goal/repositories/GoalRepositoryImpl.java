@@ -0,0 +1,493 @@
+package com.nikhilm.hourglass.goal.repositories;
+
+import com.nikhilm.hourglass.goal.model.BulkItemResult;
+import com.nikhilm.hourglass.goal.model.BulkOutcome;
+import com.nikhilm.hourglass.goal.model.CountMode;
+import com.nikhilm.hourglass.goal.model.Goal;
+import com.nikhilm.hourglass.goal.model.GoalCursor;
+import com.nikhilm.hourglass.goal.model.GoalQuery;
+import com.nikhilm.hourglass.goal.model.GoalResponse;
+import com.nikhilm.hourglass.goal.model.GoalStatus;
+import com.nikhilm.hourglass.goal.model.GoalSummary;
+import com.nikhilm.hourglass.goal.model.GoalSummaryResponse;
+import com.nikhilm.hourglass.goal.model.GoalUpdate;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.DeleteOneModel;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ChangeStreamEvent;
+import org.springframework.data.mongodb.core.ChangeStreamOptions;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.FacetOperation;
+import org.springframework.data.mongodb.core.convert.QueryMapper;
+import org.springframework.data.mongodb.core.convert.UpdateMapper;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.CriteriaDefinition;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.TextCriteria;
+import org.springframework.data.mongodb.core.query.TextQuery;
+import org.springframework.data.mongodb.core.query.Update;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.count;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.facet;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.limit;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.match;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.project;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.skip;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.sort;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+public class GoalRepositoryImpl implements GoalRepositoryCustom {
+
+    private static final Sort KEYSET_ORDER = Sort.by("dueDate", "id");
+    private static final int DUPLICATE_KEY = 11000;
+
+    @Autowired
+    ReactiveMongoTemplate mongoTemplate;
+
+    @Autowired
+    GoalReadRouting readRouting;
+
+    private long estimateLimit = 1000L;
+
+    private int streamBatchSize = 100;
+
+    @Value("${goal.count.estimate-limit:1000}")
+    public void setEstimateLimit(long estimateLimit) {
+        this.estimateLimit = estimateLimit;
+    }
+
+    @Value("${goal.stream.batch-size:100}")
+    public void setStreamBatchSize(int streamBatchSize) {
+        this.streamBatchSize = streamBatchSize;
+    }
+
+    @Override
+    public Mono<GoalResponse> findGoalPage(GoalQuery query, Pageable pageable, CountMode countMode) {
+        return findPage(query, pageable, countMode, Goal.class, List.of(), GoalCursor::after)
+                .map(page -> {
+                    GoalResponse response = new GoalResponse(page.goals, page.total);
+                    response.setNextCursor(page.nextCursor);
+                    return response;
+                });
+    }
+
+    @Override
+    public Mono<GoalSummaryResponse> findGoalSummaryPage(GoalQuery query, Pageable pageable, CountMode countMode) {
+        return findPage(query, pageable, countMode, GoalSummary.class, GoalSummary.FIELDS, GoalCursor::after)
+                .map(page -> new GoalSummaryResponse(page.goals, page.total, page.nextCursor));
+    }
+
+    // fields empty reads whole goals, otherwise only those fields and _id
+    private <T> Mono<GoalPage<T>> findPage(GoalQuery query, Pageable pageable, CountMode countMode, Class<T> type,
+                                           List<String> fields, Function<T, GoalCursor> position) {
+        if (query.isIncludeArchived()) {
+            return findMergedPage(query, pageable, countMode, type, fields, position);
+        }
+        if (query.getCursor() != null) {
+            return findGoalsAfter(query, pageable.getPageSize(), countMode, type, fields, position);
+        }
+        ReactiveMongoTemplate reads = readRouting.forReads(query.getUserId());
+        List<AggregationOperation> operations = new ArrayList<>();
+        operations.add(match(matching(query)));
+        if (query.getText() != null) {
+            operations.add(context -> new Document("$sort", new Document("score", new Document("$meta", "textScore"))));
+        } else {
+            operations.add(sort(KEYSET_ORDER));
+        }
+        if (!fields.isEmpty()) {
+            operations.add(project(fields.toArray(new String[0])));
+        }
+
+        // one goal past the page tells whether a next cursor is needed
+        if (countMode == CountMode.NONE) {
+            operations.add(skip(pageable.getOffset()));
+            operations.add(limit(pageable.getPageSize() + 1L));
+            return reads.aggregate(Aggregation.newAggregation(Goal.class, operations), type)
+                    .collectList()
+                    .map(goals -> toGoalPage(query, goals, pageable.getPageSize(), null, position));
+        }
+        if (countMode == CountMode.ESTIMATED) {
+            // stop reading matches once the requested page and the estimate bound are covered
+            operations.add(limit(Math.max(estimateLimit, pageable.getOffset() + pageable.getPageSize() + 1L)));
+        }
+        FacetOperation page = facet(skip(pageable.getOffset()), limit(pageable.getPageSize() + 1L)).as("goals")
+                .and(count().as("total")).as("count");
+        operations.add(page);
+
+        return reads.aggregate(Aggregation.newAggregation(Goal.class, operations), Document.class)
+                .next()
+                .map(result -> {
+                    List<T> goals = result.getList("goals", Document.class).stream()
+                            .map(document -> mongoTemplate.getConverter().read(type, document))
+                            .collect(Collectors.toList());
+                    List<Document> count = result.getList("count", Document.class);
+                    long total = count.isEmpty() ? 0L : count.get(0).get("total", Number.class).longValue();
+                    return toGoalPage(query, goals, pageable.getPageSize(), total, position);
+                });
+    }
+
+    @Override
+    public Flux<Goal> streamGoals(GoalQuery query) {
+        Query goals;
+        if (query.getText() != null) {
+            // no score sort: it would need every match in memory before the first one is sent
+            goals = TextQuery.queryText(TextCriteria.forDefaultLanguage().matchingAny(query.getText()))
+                    .addCriteria(filter(query));
+        } else {
+            goals = new Query(filter(query)).with(KEYSET_ORDER);
+        }
+        ReactiveMongoTemplate reads = readRouting.forReads(query.getUserId());
+        goals.cursorBatchSize(streamBatchSize);
+        if (!query.isIncludeArchived()) {
+            return reads.find(goals, Goal.class);
+        }
+        // both cursors are read as the subscriber requests goals
+        return mergeSources(reads.find(goals, Goal.class), reads.find(goals, Goal.class, Goal.ARCHIVE_COLLECTION),
+                GoalCursor::after);
+    }
+
+    @Override
+    public Mono<List<Goal>> archiveCompleted(LocalDate completedBefore, int limit) {
+        Query completed = new Query(where("status").is(GoalStatus.COMPLETED).and("completedOn").lt(completedBefore))
+                .limit(limit);
+        return mongoTemplate.find(completed, Goal.class)
+                .collectList()
+                .flatMap(goals -> goals.isEmpty() ? Mono.just(goals) : archive(goals));
+    }
+
+    @Override
+    public Mono<Boolean> existsArchived(String userId, String name) {
+        return mongoTemplate.exists(new Query(where("userId").is(userId).and("name").is(name)), Goal.class,
+                Goal.ARCHIVE_COLLECTION);
+    }
+
+    // Copies the goals to the archive, then deletes each from goals unless its version moved on meanwhile.
+    // Replacing by id makes a retry after a failed delete overwrite the copy it left behind.
+    private Mono<List<Goal>> archive(List<Goal> goals) {
+        Date archivedAt = new Date();
+        List<WriteModel<Document>> copies = new ArrayList<>(goals.size());
+        List<WriteModel<Document>> deletes = new ArrayList<>(goals.size());
+        for (Goal goal : goals) {
+            Document document = new Document();
+            mongoTemplate.getConverter().write(goal, document);
+            document.put(Goal.ARCHIVED_AT, archivedAt);
+            copies.add(new ReplaceOneModel<>(new Document("_id", document.get("_id")), document,
+                    new ReplaceOptions().upsert(true)));
+            deletes.add(new DeleteOneModel<>(mapped(new Query(where("id").is(goal.getId())
+                    .and("version").is(goal.getVersion())))));
+        }
+        List<String> ids = goals.stream().map(Goal::getId).collect(Collectors.toList());
+        Query byIds = new Query(where("id").in(ids));
+        byIds.fields().include("id");
+        return mongoTemplate.getCollection(Goal.ARCHIVE_COLLECTION)
+                .flatMap(archive -> Mono.from(archive.bulkWrite(copies, new BulkWriteOptions().ordered(false))))
+                .then(mongoTemplate.getCollection(mongoTemplate.getCollectionName(Goal.class)))
+                .flatMap(collection -> Mono.from(collection.bulkWrite(deletes, new BulkWriteOptions().ordered(false))))
+                // goals still here were changed after they were read; their copies would be stale
+                .then(mongoTemplate.find(byIds, Goal.class).map(Goal::getId).collect(Collectors.toSet()))
+                .flatMap(kept -> kept.isEmpty() ? Mono.just(goals)
+                        : mongoTemplate.remove(new Query(where("id").in(kept)), Goal.class, Goal.ARCHIVE_COLLECTION)
+                                .thenReturn(goals.stream()
+                                        .filter(goal -> !kept.contains(goal.getId()))
+                                        .collect(Collectors.toList())));
+    }
+
+    @Override
+    public Flux<ChangeStreamEvent<Goal>> watchGoals(BsonValue resumeToken) {
+        // deletes carry no document, so there is no user to route them to
+        ChangeStreamOptions.ChangeStreamOptionsBuilder options = ChangeStreamOptions.builder()
+                .filter(Aggregation.newAggregation(match(where("operationType").in("insert", "update", "replace"))))
+                .returnFullDocumentOnUpdate();
+        if (resumeToken != null) {
+            options.resumeAfter(resumeToken);
+        }
+        return mongoTemplate.changeStream(mongoTemplate.getCollectionName(Goal.class), options.build(), Goal.class);
+    }
+
+    @Override
+    public Mono<GoalUpdate> updateProgress(Goal goal) {
+        Query query = new Query(where("userId").is(goal.getUserId()).and("name").is(goal.getName()));
+        if (goal.getVersion() != null) {
+            query.addCriteria(where("version").is(goal.getVersion()));
+        }
+        Update update = new Update()
+                .set("status", goal.getStatus())
+                .set("notes", goal.getNotes())
+                .set("completedOn", goal.getCompletedOn())
+                .set("votes", goal.getVotes())
+                .inc("version", 1);
+        // one round trip: the goal before the update comes back, and the mapped $set is applied to it, so the
+        // goal after the update holds the values as stored
+        return mongoTemplate.findAndModify(query, update, FindAndModifyOptions.options().returnNew(false), Goal.class)
+                .map(previous -> new GoalUpdate(previous, applied(previous, update)));
+    }
+
+    private Goal applied(Goal previous, Update update) {
+        Document document = new Document();
+        mongoTemplate.getConverter().write(previous, document);
+        Document mapped = new UpdateMapper(mongoTemplate.getConverter()).getMappedObject(update.getUpdateObject(),
+                mongoTemplate.getConverter().getMappingContext().getRequiredPersistentEntity(Goal.class));
+        document.putAll(mapped.get("$set", Document.class));
+        // $inc on a goal stored without a version starts it at 1
+        document.put("version", previous.getVersion() == null ? 1L : previous.getVersion() + 1);
+        return mongoTemplate.getConverter().read(Goal.class, document);
+    }
+
+    @Override
+    public Mono<List<BulkItemResult>> insertGoals(List<Goal> goals) {
+        List<WriteModel<Document>> inserts = new ArrayList<>(goals.size());
+        for (Goal goal : goals) {
+            // ids are assigned here so every created goal can be reported with its id
+            goal.setId(new ObjectId().toHexString());
+            goal.setVersion(0L);
+            Document document = new Document();
+            mongoTemplate.getConverter().write(goal, document);
+            inserts.add(new InsertOneModel<>(document));
+        }
+        return bulkWrite(inserts)
+                .map(errors -> {
+                    List<BulkItemResult> results = new ArrayList<>(goals.size());
+                    for (int i = 0; i < goals.size(); i++) {
+                        Integer error = errors.get(i);
+                        results.add(error == null ? BulkItemResult.of(goals.get(i), BulkOutcome.CREATED)
+                                : BulkItemResult.of(goals.get(i).getName(),
+                                        error == DUPLICATE_KEY ? BulkOutcome.CONFLICT : BulkOutcome.FAILED));
+                    }
+                    return results;
+                });
+    }
+
+    @Override
+    public Mono<List<BulkItemResult>> updateStatuses(String userId, List<Goal> goals) {
+        List<String> names = goals.stream().map(Goal::getName).collect(Collectors.toList());
+        Query current = new Query(where("userId").is(userId).and("name").in(names));
+
+        return mongoTemplate.find(current, Goal.class)
+                .collectMap(Goal::getName)
+                .flatMap(existing -> {
+                    BulkItemResult[] results = new BulkItemResult[goals.size()];
+                    Map<String, Long> expectedVersions = new HashMap<>();
+                    List<WriteModel<Document>> updates = new ArrayList<>();
+                    for (int i = 0; i < goals.size(); i++) {
+                        Goal goal = goals.get(i);
+                        Goal found = existing.get(goal.getName());
+                        if (found == null) {
+                            results[i] = BulkItemResult.of(goal.getName(), BulkOutcome.NOT_FOUND);
+                        } else if (expectedVersions.containsKey(goal.getName()) || (goal.getVersion() != null
+                                && !goal.getVersion().equals(found.getVersion()))) {
+                            // a stale version, or the same goal twice in one chunk
+                            results[i] = BulkItemResult.of(goal.getName(), BulkOutcome.CONFLICT);
+                        } else {
+                            long version = found.getVersion() == null ? 0L : found.getVersion();
+                            expectedVersions.put(goal.getName(), version + 1);
+                            updates.add(statusUpdate(userId, goal, found.getVersion()));
+                        }
+                    }
+                    if (updates.isEmpty()) {
+                        return Mono.just(Arrays.asList(results));
+                    }
+                    // the write result has no per-item match counts: read back which goals got our version
+                    return bulkWrite(updates)
+                            .then(mongoTemplate.find(new Query(where("userId").is(userId).and("name")
+                                    .in(expectedVersions.keySet())), Goal.class).collectMap(Goal::getName))
+                            .map(updated -> {
+                                for (int i = 0; i < goals.size(); i++) {
+                                    if (results[i] == null) {
+                                        Goal goal = updated.get(goals.get(i).getName());
+                                        results[i] = goal != null && expectedVersions.get(goal.getName())
+                                                .equals(goal.getVersion())
+                                                ? BulkItemResult.updated(existing.get(goal.getName()), goal)
+                                                : BulkItemResult.of(goals.get(i).getName(), BulkOutcome.CONFLICT);
+                                    }
+                                }
+                                return Arrays.asList(results);
+                            });
+                });
+    }
+
+    private WriteModel<Document> statusUpdate(String userId, Goal goal, Long version) {
+        MongoPersistentEntity<?> entity = mongoTemplate.getConverter().getMappingContext()
+                .getRequiredPersistentEntity(Goal.class);
+        Query query = new Query(where("userId").is(userId).and("name").is(goal.getName()).and("version").is(version));
+        Update update = new Update()
+                .set("status", goal.getStatus())
+                .set("completedOn", goal.getCompletedOn())
+                .set("votes", goal.getVotes())
+                .inc("version", 1);
+        return new UpdateOneModel<>(
+                new QueryMapper(mongoTemplate.getConverter()).getMappedObject(query.getQueryObject(), entity),
+                new UpdateMapper(mongoTemplate.getConverter()).getMappedObject(update.getUpdateObject(), entity));
+    }
+
+    // write error codes by the index of the failed model; empty when every write succeeded
+    private Mono<Map<Integer, Integer>> bulkWrite(List<WriteModel<Document>> writes) {
+        return mongoTemplate.getCollection(mongoTemplate.getCollectionName(Goal.class))
+                .flatMap(collection -> Mono.from(collection.bulkWrite(writes, new BulkWriteOptions().ordered(false))))
+                .map(result -> Collections.<Integer, Integer>emptyMap())
+                .onErrorResume(MongoBulkWriteException.class, e -> Mono.just(e.getWriteErrors().stream()
+                        .collect(Collectors.toMap(BulkWriteError::getIndex, BulkWriteError::getCode))));
+    }
+
+    // Reads offset + page size + 1 goals from each collection in (dueDate, id) order and merges them;
+    // the count is the sum of both counts, capped at the estimate limit when estimated
+    private <T> Mono<GoalPage<T>> findMergedPage(GoalQuery query, Pageable pageable, CountMode countMode,
+                                                 Class<T> type, List<String> fields, Function<T, GoalCursor> position) {
+        ReactiveMongoTemplate reads = readRouting.forReads(query.getUserId());
+        long offset = query.getCursor() == null ? pageable.getOffset() : 0L;
+        Criteria criteria = query.getCursor() == null ? filter(query)
+                : filter(query).andOperator(after(query.getCursor()));
+        Query page = new Query(criteria)
+                .with(KEYSET_ORDER)
+                .limit((int) (offset + pageable.getPageSize() + 1L));
+        fields.forEach(field -> page.fields().include(field));
+
+        Mono<List<T>> goals = mergeSources(reads.query(Goal.class).as(type).matching(page).all(),
+                reads.query(Goal.class).inCollection(Goal.ARCHIVE_COLLECTION).as(type).matching(page).all(), position)
+                .skip(offset)
+                .take(pageable.getPageSize() + 1L)
+                .collectList();
+        if (countMode == CountMode.NONE) {
+            return goals.map(found -> toGoalPage(query, found, pageable.getPageSize(), null, position));
+        }
+        Query countQuery = new Query(filter(query));
+        if (countMode == CountMode.ESTIMATED) {
+            countQuery.limit((int) estimateLimit);
+        }
+        Mono<Long> total = Mono.zip(reads.count(countQuery, Goal.class),
+                reads.count(countQuery, Goal.class, Goal.ARCHIVE_COLLECTION), Long::sum)
+                .map(sum -> countMode == CountMode.ESTIMATED ? Math.min(sum, estimateLimit) : sum);
+        return Mono.zip(goals, total, (found, count) -> toGoalPage(query, found, pageable.getPageSize(), count,
+                position));
+    }
+
+    // A goal being archived can be in both collections for a moment; its two copies come out next to each other
+    private <T> Flux<T> mergeSources(Flux<T> goals, Flux<T> archived, Function<T, GoalCursor> position) {
+        Comparator<GoalCursor> order = Comparator.comparing(GoalCursor::getDueDate,
+                Comparator.nullsFirst(Comparator.naturalOrder()))
+                .thenComparing(GoalCursor::getId);
+        return Flux.mergeOrdered((first, second) -> order.compare(position.apply(first), position.apply(second)),
+                goals, archived)
+                .distinctUntilChanged(goal -> position.apply(goal).getId());
+    }
+
+    private Document mapped(Query query) {
+        return new QueryMapper(mongoTemplate.getConverter()).getMappedObject(query.getQueryObject(),
+                mongoTemplate.getConverter().getMappingContext().getRequiredPersistentEntity(Goal.class));
+    }
+
+    // Range query on (userId, dueDate, _id): a deep page costs the same as the first one
+    private <T> Mono<GoalPage<T>> findGoalsAfter(GoalQuery query, int pageSize, CountMode countMode, Class<T> type,
+                                                 List<String> fields, Function<T, GoalCursor> position) {
+        ReactiveMongoTemplate reads = readRouting.forReads(query.getUserId());
+        Query page = new Query(filter(query).andOperator(after(query.getCursor())))
+                .with(KEYSET_ORDER)
+                .limit(pageSize + 1);
+        fields.forEach(field -> page.fields().include(field));
+        Mono<List<T>> goals = reads.query(Goal.class).as(type).matching(page).all().collectList();
+        if (countMode == CountMode.NONE) {
+            return goals.map(found -> toGoalPage(query, found, pageSize, null, position));
+        }
+        Query countQuery = new Query(filter(query));
+        if (countMode == CountMode.ESTIMATED) {
+            countQuery.limit((int) estimateLimit);
+        }
+        return Mono.zip(goals, reads.count(countQuery, Goal.class),
+                (found, total) -> toGoalPage(query, found, pageSize, total, position));
+    }
+
+    private <T> GoalPage<T> toGoalPage(GoalQuery query, List<T> goals, int pageSize, Long total,
+                                       Function<T, GoalCursor> position) {
+        if (goals.size() <= pageSize) {
+            return new GoalPage<>(goals, total, null);
+        }
+        // text results are ordered by score, which a (dueDate, id) cursor cannot continue
+        String nextCursor = query.getText() == null ? position.apply(goals.get(pageSize - 1)).encode() : null;
+        return new GoalPage<>(new ArrayList<>(goals.subList(0, pageSize)), total, nextCursor);
+    }
+
+    private Criteria after(GoalCursor cursor) {
+        // the mapper converts ids compared for equality only; against a string $gt matches no ObjectId
+        Object id = ObjectId.isValid(cursor.getId()) ? new ObjectId(cursor.getId()) : cursor.getId();
+        if (cursor.getDueDate() == null) {
+            // goals without a due date sort first
+            return new Criteria().orOperator(
+                    where("dueDate").is(null).and("id").gt(id),
+                    where("dueDate").ne(null));
+        }
+        return new Criteria().orOperator(
+                where("dueDate").gt(cursor.getDueDate()),
+                where("dueDate").is(cursor.getDueDate()).and("id").gt(id));
+    }
+
+    private Criteria filter(GoalQuery query) {
+        Criteria criteria = where("userId").is(query.getUserId());
+        if (!query.getStatuses().isEmpty()) {
+            criteria.and("status").in(query.getStatuses());
+        }
+        return criteria;
+    }
+
+    private CriteriaDefinition matching(GoalQuery query) {
+        Criteria criteria = filter(query);
+        if (query.getText() == null) {
+            return criteria;
+        }
+        // $text has to sit in the same $match as the userId equality to use the userId-prefixed text index
+        Document document = new Document(criteria.getCriteriaObject());
+        document.putAll(TextCriteria.forDefaultLanguage().matchingAny(query.getText()).getCriteriaObject());
+        return new CriteriaDefinition() {
+            @Override
+            public Document getCriteriaObject() {
+                return document;
+            }
+
+            @Override
+            public String getKey() {
+                return "$text";
+            }
+        };
+    }
+
+    private static class GoalPage<T> {
+        final List<T> goals;
+        final Long total;
+        final String nextCursor;
+
+        GoalPage(List<T> goals, Long total, String nextCursor) {
+            this.goals = goals;
+            this.total = total;
+            this.nextCursor = nextCursor;
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package com.nikhilm.hourglass.goal.repositories;
+
+import com.nikhilm.hourglass.goal.model.GoalStats;
+import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
+
+// the id of a stats document is the userId
+public interface GoalStatsRepository extends ReactiveMongoRepository<GoalStats, String>, GoalStatsRepositoryCustom {
+}
@@ -0,0 +1,25 @@
+package com.nikhilm.hourglass.goal.repositories;
+
+import com.nikhilm.hourglass.goal.model.GoalStats;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Map;
+
+public interface GoalStatsRepositoryCustom {
+
+    // One upsert adding each increment to its field, keyed by field path (total, byStatus.ACTIVE, ...)
+    Mono<Void> increment(String userId, Map<String, Long> increments);
+
+    // The user's stats document
+    Mono<GoalStats> findStats(String userId);
+
+    // Only the version of the user's stats document, which every increment and rebuild bumps
+    Mono<Long> findVersion(String userId);
+
+    // Recounts the user's goals with one aggregation and overwrites the counts
+    Mono<GoalStats> rebuild(String userId);
+
+    // Every user that has goals, archived ones included, in userId order
+    Flux<String> findUserIds();
+}
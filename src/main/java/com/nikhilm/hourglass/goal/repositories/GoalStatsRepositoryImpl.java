@@ -0,0 +1,123 @@
+package com.nikhilm.hourglass.goal.repositories;
+
+import com.nikhilm.hourglass.goal.model.Goal;
+import com.nikhilm.hourglass.goal.model.GoalStats;
+import com.nikhilm.hourglass.goal.model.GoalStatus;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOptions;
+import org.springframework.data.mongodb.core.aggregation.TypedAggregation;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.facet;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.group;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.match;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.sort;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+public class GoalStatsRepositoryImpl implements GoalStatsRepositoryCustom {
+
+    @Autowired
+    ReactiveMongoTemplate mongoTemplate;
+
+    @Autowired
+    GoalReadRouting readRouting;
+
+    @Override
+    public Mono<Void> increment(String userId, Map<String, Long> increments) {
+        Update update = new Update().inc(GoalStats.VERSION, 1);
+        increments.forEach(update::inc);
+        return mongoTemplate.upsert(new Query(where("userId").is(userId)), update, GoalStats.class).then();
+    }
+
+    @Override
+    public Mono<GoalStats> findStats(String userId) {
+        return readRouting.forReads(userId).findOne(new Query(where("userId").is(userId)), GoalStats.class);
+    }
+
+    @Override
+    public Mono<Long> findVersion(String userId) {
+        Query query = new Query(where("userId").is(userId));
+        query.fields().include(GoalStats.VERSION);
+        return readRouting.forReads(userId).findOne(query, GoalStats.class).map(GoalStats::getVersion);
+    }
+
+    @Override
+    public Mono<GoalStats> rebuild(String userId) {
+        // LocalDate due dates are stored as the start of the day in the server's zone
+        AggregationOperation openByDueDate = context -> new Document("$group",
+                new Document("_id", new Document("$dateToString", new Document("format", "%Y-%m-%d")
+                        .append("date", "$dueDate")
+                        .append("timezone", ZoneId.systemDefault().getId())))
+                        .append("count", new Document("$sum", 1)));
+        TypedAggregation<Goal> counts = Aggregation.newAggregation(Goal.class,
+                match(where("userId").is(userId)),
+                facet(group("status").count().as("count")).as(GoalStats.BY_STATUS)
+                        .and(match(where("level").ne(null)), group("level").count().as("count"))
+                        .as(GoalStats.BY_LEVEL)
+                        .and(match(where("status").ne(GoalStatus.COMPLETED).and("dueDate").ne(null)), openByDueDate)
+                        .as(GoalStats.OPEN_BY_DUE_DATE));
+
+        // archived goals still count, so archiving a goal leaves the counts as they are
+        return Flux.concat(mongoTemplate.aggregate(counts, Document.class),
+                mongoTemplate.aggregate(counts, Goal.ARCHIVE_COLLECTION, Document.class))
+                .collectList()
+                .flatMap(results -> {
+                    Map<String, Long> byStatus = toCounts(results, GoalStats.BY_STATUS);
+                    Update update = new Update()
+                            .set(GoalStats.TOTAL, byStatus.values().stream().mapToLong(Long::longValue).sum())
+                            .set(GoalStats.BY_STATUS, byStatus)
+                            .set(GoalStats.BY_LEVEL, toCounts(results, GoalStats.BY_LEVEL))
+                            .set(GoalStats.OPEN_BY_DUE_DATE, toCounts(results, GoalStats.OPEN_BY_DUE_DATE))
+                            .set("rebuiltAt", LocalDateTime.now())
+                            .inc(GoalStats.VERSION, 1);
+                    return mongoTemplate.findAndModify(new Query(where("userId").is(userId)), update,
+                            FindAndModifyOptions.options().upsert(true).returnNew(true), GoalStats.class);
+                });
+    }
+
+    @Override
+    public Flux<String> findUserIds() {
+        // grouped and read through a cursor rather than with distinct, whose single result document is limited
+        // to 16MB; both collections come back in userId order, so a user in both is emitted once
+        Aggregation userIds = Aggregation.newAggregation(
+                match(where("userId").ne(null)),
+                group("userId"),
+                sort(Sort.Direction.ASC, "_id"))
+                .withOptions(AggregationOptions.builder().allowDiskUse(true).build());
+        return Flux.mergeOrdered(Comparator.<String>naturalOrder(),
+                mongoTemplate.aggregate(userIds, Goal.class, Document.class).map(group -> group.getString("_id")),
+                mongoTemplate.aggregate(userIds, Goal.ARCHIVE_COLLECTION, Document.class)
+                        .map(group -> group.getString("_id")))
+                .distinctUntilChanged();
+    }
+
+    // the groups of one facet, summed over the results
+    private Map<String, Long> toCounts(List<Document> results, String facet) {
+        Map<String, Long> counts = new HashMap<>();
+        for (Document result : results) {
+            for (Document group : result.getList(facet, Document.class)) {
+                if (group.get("_id") != null) {
+                    counts.merge(group.get("_id").toString(), group.get("count", Number.class).longValue(),
+                            Long::sum);
+                }
+            }
+        }
+        return counts;
+    }
+}
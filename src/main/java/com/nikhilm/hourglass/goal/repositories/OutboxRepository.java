@@ -0,0 +1,17 @@
+package com.nikhilm.hourglass.goal.repositories;
+
+import com.nikhilm.hourglass.goal.model.OutboxEvent;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Collection;
+
+public interface OutboxRepository extends ReactiveMongoRepository<OutboxEvent, String>, OutboxRepositoryCustom {
+
+    // oldest first; _id is always indexed so no extra index is needed
+    Flux<OutboxEvent> findAllByOrderByIdAsc(Pageable pageable);
+
+    Mono<Long> deleteByIdIn(Collection<String> ids);
+}
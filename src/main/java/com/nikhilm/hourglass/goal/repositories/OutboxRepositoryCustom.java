@@ -0,0 +1,11 @@
+package com.nikhilm.hourglass.goal.repositories;
+
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+
+public interface OutboxRepositoryCustom {
+
+    // Takes or renews the relay lease for the holder; false while another holder's lease has not expired
+    Mono<Boolean> acquireRelayLease(String holder, Duration lease);
+}
@@ -0,0 +1,34 @@
+package com.nikhilm.hourglass.goal.repositories;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Date;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+public class OutboxRepositoryImpl implements OutboxRepositoryCustom {
+
+    public static final String LEASE_COLLECTION = "goal_outbox_lease";
+    private static final String RELAY_LEASE = "relay";
+
+    @Autowired
+    ReactiveMongoTemplate mongoTemplate;
+
+    @Override
+    public Mono<Boolean> acquireRelayLease(String holder, Duration lease) {
+        Date now = new Date();
+        // the upsert inserts the lease the first time; while another holder has it, the insert hits its _id
+        Query free = new Query(where("_id").is(RELAY_LEASE)
+                .orOperator(where("holder").is(holder), where("expiresAt").lt(now)));
+        Update take = new Update().set("holder", holder).set("expiresAt", new Date(now.getTime() + lease.toMillis()));
+        return mongoTemplate.upsert(free, take, LEASE_COLLECTION)
+                .map(result -> true)
+                .onErrorResume(DuplicateKeyException.class, e -> Mono.just(false));
+    }
+}
@@ -0,0 +1,91 @@
+package com.nikhilm.hourglass.goal.repositories;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times every call of the goal repositories as goal.repository, tagged with the repository, the method
+ * and the outcome (success, error or cancelled). The clock starts when the query is subscribed to,
+ * not when the method is called, so it measures the round trip to MongoDB.
+ */
+@Component
+public class RepositoryMetricsPostProcessor implements BeanPostProcessor {
+
+    static final List<Class<?>> INSTRUMENTED = List.of(GoalRepository.class, OutboxRepository.class,
+            GoalStatsRepository.class);
+
+    // looked up lazily; a post processor must not pull the registry in before it is configured
+    private final ObjectProvider<MeterRegistry> meterRegistry;
+
+    public RepositoryMetricsPostProcessor(ObjectProvider<MeterRegistry> meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        for (Class<?> repository : INSTRUMENTED) {
+            if (repository.isInstance(bean)) {
+                return instrument(bean, repository);
+            }
+        }
+        return bean;
+    }
+
+    Object instrument(Object bean, Class<?> repository) {
+        ProxyFactory proxyFactory = new ProxyFactory(bean);
+        proxyFactory.setInterfaces(repository);
+        proxyFactory.addAdvice((MethodInterceptor) invocation -> {
+            Object result = invocation.proceed();
+            String method = invocation.getMethod().getName();
+            if (result instanceof Mono) {
+                return Mono.defer(() -> {
+                    long start = System.nanoTime();
+                    return ((Mono<?>) result).doFinally(signal -> record(repository, method, signal, start));
+                });
+            }
+            if (result instanceof Flux) {
+                return Flux.defer(() -> {
+                    long start = System.nanoTime();
+                    return ((Flux<?>) result).doFinally(signal -> record(repository, method, signal, start));
+                });
+            }
+            return result;
+        });
+        return proxyFactory.getProxy(repository.getClassLoader());
+    }
+
+    private void record(Class<?> repository, String method, SignalType signal, long start) {
+        MeterRegistry registry = meterRegistry.getIfAvailable();
+        if (registry == null) {
+            return;
+        }
+        Timer.builder("goal.repository")
+                .tag("repository", repository.getSimpleName())
+                .tag("method", method)
+                .tag("outcome", outcome(signal))
+                .register(registry)
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    private String outcome(SignalType signal) {
+        switch (signal) {
+            case ON_COMPLETE:
+                return "success";
+            case ON_ERROR:
+                return "error";
+            default:
+                return "cancelled";
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.nikhilm.hourglass.goal.resources;
+
+import com.nikhilm.hourglass.goal.logging.SampledLogger;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Pattern;
+
+/**
+ * Puts the X-Correlation-Id of the request, or a new one, into the Reactor Context for
+ * {@link SampledLogger} and echoes it in the response.
+ * Runs first so that requests shed by {@link UserRateLimitFilter} carry the id as well.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class CorrelationIdFilter implements WebFilter {
+
+    public static final String CORRELATION_ID_HEADER = "X-Correlation-Id";
+
+    private static final Pattern VALID = Pattern.compile("[A-Za-z0-9._-]{1,64}");
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        String header = exchange.getRequest().getHeaders().getFirst(CORRELATION_ID_HEADER);
+        String correlationId = header != null && VALID.matcher(header).matches()
+                ? header
+                : Long.toHexString(ThreadLocalRandom.current().nextLong());
+        exchange.getResponse().getHeaders().set(CORRELATION_ID_HEADER, correlationId);
+        return chain.filter(exchange)
+                .subscriberContext(context -> context.put(SampledLogger.CORRELATION_ID, correlationId));
+    }
+}
@@ -3,12 +3,24 @@ package com.nikhilm.hourglass.goal.resources;
 import com.nikhilm.hourglass.goal.exceptions.ApiError;
 import com.nikhilm.hourglass.goal.exceptions.GoalException;
 import com.nikhilm.hourglass.goal.exceptions.ValidationException;
+import com.nikhilm.hourglass.goal.logging.SampledLogger;
+import com.nikhilm.hourglass.goal.model.BulkItemResult;
+import com.nikhilm.hourglass.goal.model.CountMode;
 import com.nikhilm.hourglass.goal.model.Goal;
+import com.nikhilm.hourglass.goal.model.GoalCursor;
 import com.nikhilm.hourglass.goal.model.GoalDTO;
 import com.nikhilm.hourglass.goal.model.GoalResponse;
+import com.nikhilm.hourglass.goal.model.GoalStatsResponse;
 import com.nikhilm.hourglass.goal.model.GoalStatus;
+import com.nikhilm.hourglass.goal.model.GoalSummaryResponse;
+import com.nikhilm.hourglass.goal.model.GoalView;
+import com.nikhilm.hourglass.goal.services.GoalChangeFeed;
 import com.nikhilm.hourglass.goal.services.GoalMapper;
 import com.nikhilm.hourglass.goal.services.GoalService;
+import com.nikhilm.hourglass.goal.services.GoalVersions;
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.reactor.bulkhead.operator.BulkheadOperator;
 import io.swagger.v3.oas.annotations.OpenAPIDefinition;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.info.Contact;
@@ -17,19 +29,24 @@ import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
-import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.cloud.client.circuitbreaker.ReactiveCircuitBreaker;
 import org.springframework.cloud.client.circuitbreaker.ReactiveCircuitBreakerFactory;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.net.URI;
 import java.util.*;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
-@Slf4j
 @RestController
 @OpenAPIDefinition(
         info = @Info(
@@ -44,6 +61,11 @@ public class GoalResource  {
 
     public static final String WRONG_INPUT = "Wrong input!";
     public static final String SERVER_ERROR = "Internal server error!";
+    public static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+    public static final MediaType APPLICATION_NDJSON = MediaType.parseMediaType(APPLICATION_NDJSON_VALUE);
+
+    private static final SampledLogger LOG = SampledLogger.getLogger(GoalResource.class);
+
     @Autowired
     GoalService goalService;
 
@@ -53,15 +75,48 @@ public class GoalResource  {
     @Autowired
     GoalMapper goalMapper;
 
-    ReactiveCircuitBreaker rcb;
+    @Autowired
+    GoalChangeFeed goalChangeFeed;
+
+    // each operation gets its own circuit breaker and bulkhead, so a slow count query cannot trip writes and
+    // exports holding their permits for the whole stream cannot take those of list pages
+    enum GoalOperation {
+        LIST, COUNT, EXPORT, ADD, UPDATE;
+
+        String resilienceName() {
+            return "goal-" + name().toLowerCase();
+        }
+    }
+
+    private final Map<GoalOperation, ReactiveCircuitBreaker> breakers = new EnumMap<>(GoalOperation.class);
+    private final Map<GoalOperation, Bulkhead> bulkheads = new EnumMap<>(GoalOperation.class);
 
-    public GoalResource(ReactiveCircuitBreakerFactory factory)  {
+    public GoalResource(ReactiveCircuitBreakerFactory factory, BulkheadRegistry bulkheadRegistry)  {
         this.factory = factory;
-        rcb = factory.create("goal");
+        for (GoalOperation operation : GoalOperation.values()) {
+            breakers.put(operation, factory.create(operation.resilienceName()));
+            bulkheads.put(operation, bulkheadRegistry.bulkhead(operation.resilienceName()));
+        }
     }
 
+    // the bulkhead is outside the breaker, so calls it rejects are not counted as failures
+    private <T> Mono<T> protect(GoalOperation operation, Mono<T> call, Function<Throwable, Mono<T>> fallback) {
+        return breakers.get(operation).run(call, fallback)
+                .transformDeferred(BulkheadOperator.of(bulkheads.get(operation)));
+    }
 
-    private List<String> parseStatusFilter(String statusFilter, String delim) {
+    private <T> Flux<T> protect(GoalOperation operation, Flux<T> call, Function<Throwable, Flux<T>> fallback) {
+        return breakers.get(operation).run(call, fallback)
+                .transformDeferred(BulkheadOperator.of(bulkheads.get(operation)));
+    }
+
+    // bulk results report failures per goal, so there is nothing for a circuit breaker to count
+    private <T> Flux<T> limit(GoalOperation operation, Flux<T> call) {
+        return call.transformDeferred(BulkheadOperator.of(bulkheads.get(operation)));
+    }
+
+
+    List<String> parseStatusFilter(String statusFilter, String delim) {
 
         List<String> inclusions = new ArrayList<>();
 
@@ -73,28 +128,136 @@ public class GoalResource  {
 
     }
 
-    @Operation(summary = "List all goals for the user")
+    @Operation(summary = "List all goals for the user; send the ETag back as If-None-Match to poll for changes")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Found the goals",
                     content = { @Content(mediaType = "application/json",
+                            schema = @Schema(implementation = GoalResponse.class)),
+                            @Content(mediaType = MediaType.APPLICATION_CBOR_VALUE,
                             schema = @Schema(implementation = GoalResponse.class)) }),
+            @ApiResponse(responseCode = "304", description = "The goals did not change since the given ETag"),
             @ApiResponse(responseCode = "400", description = "Invalid input",
                     content = { @Content(mediaType = "application/json",
                             schema = @Schema(implementation = ApiError.class)) }),
             @ApiResponse(responseCode = "401", description = "Unauthorized",
                     content = { @Content(mediaType = "application/json",
                             schema = @Schema(implementation = ApiError.class)) })})
-    @GetMapping(value = "/goals", produces = MediaType.APPLICATION_JSON_VALUE)
-    public Mono<GoalResponse> goals(@RequestParam("search") Optional<String> text,
-                                    @RequestParam("page") Optional<Integer> page,
-                                    @RequestParam("status") Optional<String> status,
-                                    @RequestHeader("user") String user
+    @GetMapping(value = "/goals", produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_CBOR_VALUE})
+    public Mono<ResponseEntity<GoalResponse>> goals(@RequestParam("search") Optional<String> text,
+                                                    @RequestParam("page") Optional<Integer> page,
+                                                    @RequestParam("cursor") Optional<String> cursor,
+                                                    @RequestParam("status") Optional<String> status,
+                                                    @RequestParam("count") Optional<String> count,
+                                                    @RequestParam("view") Optional<String> view,
+                                                    @RequestParam("includeArchived") Optional<Boolean> includeArchived,
+                                                    @RequestHeader("If-None-Match") Optional<String> ifNoneMatch,
+                                                    @RequestHeader("user") String user
                                   ) {
 
-        if (isPageInputInvalid(page))  {
+        // view=summary is served by goalSummaries
+        if (view.isPresent() && !GoalView.FULL.getValue().equals(view.get())) {
+            throw new ValidationException(WRONG_INPUT);
+        }
+        List<String> statusFilters = validatePageInput(text, page, cursor, status);
+        boolean archived = validateIncludeArchived(includeArchived, text);
+        // cursor pages skip the count unless the client asks for it
+        CountMode countMode = parseCountMode(count, cursor.isPresent() ? CountMode.NONE : CountMode.EXACT);
+
+        // page and filtered count come back from one $facet aggregation
+        return protect(GoalOperation.LIST, goalService.fetchGoalsVersion(user)
+                .flatMap(version -> conditional(ifNoneMatch, version,
+                        () -> goalsETag(user, version, GoalView.FULL, text, page, cursor, statusFilters, countMode,
+                                archived),
+                        () -> goalService.fetchGoalPage(text, page, cursor.map(GoalCursor::decode), statusFilters,
+                                user, countMode, archived, version))),
+                    throwable -> Mono.subscriberContext().flatMap(context -> {
+                        LOG.error(context, "goals.failed", "error", throwable.getMessage());
+                        return Mono.error(new GoalException(500, SERVER_ERROR));
+                    }));
+
+    }
+
+    @Operation(summary = "List the name, status, level and due date of the goals for the user")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Found the goals",
+                    content = { @Content(mediaType = "application/json",
+                            schema = @Schema(implementation = GoalSummaryResponse.class)),
+                            @Content(mediaType = MediaType.APPLICATION_CBOR_VALUE,
+                            schema = @Schema(implementation = GoalSummaryResponse.class)) }),
+            @ApiResponse(responseCode = "304", description = "The goals did not change since the given ETag"),
+            @ApiResponse(responseCode = "400", description = "Invalid input",
+                    content = { @Content(mediaType = "application/json",
+                            schema = @Schema(implementation = ApiError.class)) })})
+    @GetMapping(value = "/goals", params = "view=summary",
+            produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_CBOR_VALUE})
+    public Mono<ResponseEntity<GoalSummaryResponse>> goalSummaries(@RequestParam("search") Optional<String> text,
+                                                   @RequestParam("page") Optional<Integer> page,
+                                                   @RequestParam("cursor") Optional<String> cursor,
+                                                   @RequestParam("status") Optional<String> status,
+                                                   @RequestParam("count") Optional<String> count,
+                                                   @RequestParam("includeArchived") Optional<Boolean> includeArchived,
+                                                   @RequestHeader("If-None-Match") Optional<String> ifNoneMatch,
+                                                   @RequestHeader("user") String user) {
+
+        List<String> statusFilters = validatePageInput(text, page, cursor, status);
+        boolean archived = validateIncludeArchived(includeArchived, text);
+        CountMode countMode = parseCountMode(count, cursor.isPresent() ? CountMode.NONE : CountMode.EXACT);
+
+        // only the summary fields are read, so description and notes are never fetched or decoded
+        return protect(GoalOperation.LIST, goalService.fetchGoalsVersion(user)
+                .flatMap(version -> conditional(ifNoneMatch, version,
+                        () -> goalsETag(user, version, GoalView.SUMMARY, text, page, cursor, statusFilters, countMode,
+                                archived),
+                        () -> goalService.fetchGoalSummaryPage(text, page, cursor.map(GoalCursor::decode),
+                                statusFilters, user, countMode, archived, version))),
+                    throwable -> Mono.subscriberContext().flatMap(context -> {
+                        LOG.error(context, "goals.failed", "error", throwable.getMessage());
+                        return Mono.error(new GoalException(500, SERVER_ERROR));
+                    }));
+    }
+
+    // If-None-Match is answered from the version alone, so an unchanged poll runs neither the list nor the count.
+    // An unknown version may lag the goals, so the page is sent without a tag. The goals are the user's, so shared
+    // caches must neither store them nor answer another user from them.
+    private <T> Mono<ResponseEntity<T>> conditional(Optional<String> ifNoneMatch, long version,
+                                                    Supplier<String> eTagOfVersion, Supplier<Mono<T>> page) {
+        if (version == GoalVersions.UNKNOWN) {
+            return page.get().map(body -> perUser(ResponseEntity.ok()).body(body));
+        }
+        String eTag = eTagOfVersion.get();
+        if (ifNoneMatch.map(header -> matchesETag(header, eTag)).orElse(false)) {
+            return Mono.just(perUser(ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag)).build());
+        }
+        // JSON and CBOR share the tag, as weak tags allow
+        return page.get().map(body -> perUser(ResponseEntity.ok().eTag(eTag)).body(body));
+    }
+
+    private static ResponseEntity.BodyBuilder perUser(ResponseEntity.BodyBuilder response) {
+        return response.cacheControl(CacheControl.empty().cachePrivate()).varyBy(HttpHeaders.ACCEPT, "user");
+    }
+
+    // Weak, as the same goals need not serialize to the same bytes. Every user, view, filter and page gets its own
+    // tag; only String, Integer and List hash codes are used so all instances compute the same tag.
+    static String goalsETag(String user, long version, GoalView view, Optional<String> text, Optional<Integer> page,
+                            Optional<String> cursor, List<String> statusFilters, CountMode countMode,
+                            boolean includeArchived) {
+        int query = Arrays.asList(user, view.getValue(), text.orElse(null), page.orElse(1), cursor.orElse(null),
+                statusFilters, countMode.name(), includeArchived).hashCode();
+        return "W/\"" + version + "-" + Integer.toHexString(query) + "\"";
+    }
+
+    static boolean matchesETag(String ifNoneMatch, String eTag) {
+        String opaqueTag = eTag.substring(2);
+        return Arrays.stream(ifNoneMatch.split(","))
+                .map(String::trim)
+                .anyMatch(tag -> tag.equals("*") || (tag.startsWith("W/") ? tag.substring(2) : tag).equals(opaqueTag));
+    }
+
+    private List<String> validatePageInput(Optional<String> text, Optional<Integer> page, Optional<String> cursor,
+                                           Optional<String> status) {
+        if (isPageInputInvalid(page) || isCursorInputInvalid(cursor, page, text))  {
             throw new ValidationException(WRONG_INPUT);
         }
-        log.info("user : " + user);
         List<String> statusFilters = new ArrayList<>();
 
         if (status.isPresent()) {
@@ -103,22 +266,83 @@ public class GoalResource  {
         if (isStatusInvalid(statusFilters)) {
             throw new ValidationException((WRONG_INPUT));
         }
+        return statusFilters;
+    }
+
+    // archived goals are listed in (dueDate, id) order, which text scores cannot be merged into
+    private boolean validateIncludeArchived(Optional<Boolean> includeArchived, Optional<String> text) {
+        boolean archived = includeArchived.orElse(false);
+        if (archived && text.isPresent()) {
+            throw new ValidationException(WRONG_INPUT);
+        }
+        return archived;
+    }
+
+    @Operation(summary = "Counts of the user's goals by status and level, completion rate and overdue goals")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Found the stats",
+                    content = { @Content(mediaType = "application/json",
+                            schema = @Schema(implementation = GoalStatsResponse.class)) })})
+    @GetMapping(value = "/goals/stats", produces = MediaType.APPLICATION_JSON_VALUE)
+    public Mono<GoalStatsResponse> goalStats(@RequestHeader("user") String user) {
+        // one point read of the user's stats document
+        return protect(GoalOperation.COUNT, goalService.fetchStats(user),
+                throwable -> Mono.subscriberContext().flatMap(context -> {
+                    LOG.error(context, "goal.stats.failed", "error", throwable.getMessage());
+                    return Mono.error(new GoalException(500, SERVER_ERROR));
+                }));
+    }
+
+    @Operation(summary = "Stream all goals for the user as they are read, for exports and dashboards")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Streaming the goals",
+                    content = { @Content(mediaType = APPLICATION_NDJSON_VALUE,
+                            schema = @Schema(implementation = Goal.class)),
+                            @Content(mediaType = MediaType.TEXT_EVENT_STREAM_VALUE,
+                            schema = @Schema(implementation = Goal.class)) }),
+            @ApiResponse(responseCode = "400", description = "Invalid input",
+                    content = { @Content(mediaType = "application/json",
+                            schema = @Schema(implementation = ApiError.class)) })})
+    @GetMapping(value = "/goals/stream", produces = {APPLICATION_NDJSON_VALUE, MediaType.TEXT_EVENT_STREAM_VALUE})
+    public Flux<Goal> streamGoals(@RequestParam("search") Optional<String> text,
+                                  @RequestParam("status") Optional<String> status,
+                                  @RequestParam("includeArchived") Optional<Boolean> includeArchived,
+                                  @RequestHeader("user") String user) {
+
+        List<String> statusFilters = status.map(s -> parseStatusFilter(s, ",")).orElse(new ArrayList<>());
+        if (isStatusInvalid(statusFilters)) {
+            throw new ValidationException(WRONG_INPUT);
+        }
+        boolean archived = validateIncludeArchived(includeArchived, text);
+        // the time limit applies between goals, so a long export is not cut off
+        return protect(GoalOperation.EXPORT, goalService.streamGoals(text, statusFilters, user, archived),
+                throwable -> Flux.error(new GoalException(500, SERVER_ERROR)));
+    }
 
-        return Mono.zip(rcb.run(goalService.fetchGoals(text, page, statusFilters, user),
-                    throwable -> {
-                        log.error("Failed " + throwable.getMessage());
-                     return Mono.error(new GoalException(500, SERVER_ERROR));}),
-                rcb.run(goalService.findTotalGoalCount(user),
-                        throwable -> Mono.error(new GoalException(500, SERVER_ERROR))),
-                ((goalResponse, aLong) -> {
-                    GoalResponse response = new GoalResponse();
-                    log.info("Total count " + aLong);
-                    response.setTotalgoals(aLong);
-                    response.setGoals(goalResponse.getGoals());
-                    return response;
-                })
-        );
+    @Operation(summary = "Listen for changes of the user's goals as server-sent events; "
+            + "send Last-Event-ID to resume after a disconnect")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Goal changes as they happen; a reset event "
+                    + "means some were missed and the goals must be fetched again",
+                    content = { @Content(mediaType = "text/event-stream",
+                            schema = @Schema(implementation = Goal.class)) })})
+    @GetMapping(value = "/goals/changes", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<Goal>> goalChanges(@RequestHeader("user") String user,
+                                                   @RequestHeader("Last-Event-ID") Optional<String> lastEventId) {
+        return goalChangeFeed.changes(user, lastEventId)
+                .map(change -> ServerSentEvent.<Goal>builder()
+                        .id(change.getId())
+                        .event(change.getType())
+                        .data(change.getGoal())
+                        .build());
+    }
 
+    private CountMode parseCountMode(Optional<String> count, CountMode defaultMode) {
+        try {
+            return count.map(CountMode::fromValue).orElse(defaultMode);
+        } catch (IllegalArgumentException e) {
+            throw new ValidationException(WRONG_INPUT);
+        }
     }
 
 
@@ -126,7 +350,21 @@ public class GoalResource  {
     private boolean isPageInputInvalid(Optional<Integer> page) {
         return (page.isPresent() && page.get() < 1);
     }
-    private boolean isStatusInvalid(List<String> inputs) {
+    private boolean isCursorInputInvalid(Optional<String> cursor, Optional<Integer> page, Optional<String> text) {
+        if (cursor.isEmpty()) {
+            return false;
+        }
+        if (page.isPresent() || text.isPresent()) {
+            return true;
+        }
+        try {
+            GoalCursor.decode(cursor.get());
+            return false;
+        } catch (IllegalArgumentException e) {
+            return true;
+        }
+    }
+    boolean isStatusInvalid(List<String> inputs) {
         return inputs.stream()
                 .anyMatch(s -> {
                     for (GoalStatus gs : GoalStatus.values()) {
@@ -137,10 +375,13 @@ public class GoalResource  {
                     return true;
                 });
     }
-    @Operation(summary = "Add goal for the user")
+    @Operation(summary = "Add goal for the user; names are unique among the goals not archived, "
+            + "so an archived goal's name can be used again and includeArchived then lists both")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "201", description = "Created the goal",
                     content = { @Content(mediaType = "application/json",
+                            schema = @Schema(implementation = Goal.class)),
+                            @Content(mediaType = MediaType.APPLICATION_CBOR_VALUE,
                             schema = @Schema(implementation = Goal.class)) }),
             @ApiResponse(responseCode = "400", description = "Invalid input",
                     content = { @Content(mediaType = "application/json",
@@ -151,17 +392,15 @@ public class GoalResource  {
             @ApiResponse(responseCode = "409", description = "Goal already exists",
                     content = { @Content(mediaType = "application/json",
                             schema = @Schema(implementation = ApiError.class)) })})
-    @PostMapping(value = "/goal", produces = MediaType.APPLICATION_JSON_VALUE)
+    @PostMapping(value = "/goal", produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_CBOR_VALUE})
     public Mono<ResponseEntity<Goal>> addGoal(@RequestBody GoalDTO goal, @RequestHeader("user") String user)   {
 
-        log.info("Goal name is " + goal.getName());
         if (goal.getName().trim().isEmpty())  {
-            log.info("Bad request error");
             throw new ValidationException(WRONG_INPUT);
         }
         // inject user
         goal.setUserId(user);
-        return rcb.run(goalService.addGoal(goalMapper.goalDTOtoGoal(goal)), throwable-> {
+        return protect(GoalOperation.ADD, goalService.addGoal(goalMapper.goalDTOtoGoal(goal)), throwable-> {
             if (throwable.getMessage().contains("Conflict")) {
 
                 return Mono.error(throwable);
@@ -174,10 +413,49 @@ public class GoalResource  {
         ).switchIfEmpty(Mono.just(ResponseEntity.notFound().build()));
     }
 
+    @Operation(summary = "Add many goals for the user from a JSON array or an NDJSON stream")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Result of every goal: created, conflict, invalid or failed",
+                    content = { @Content(mediaType = "application/json",
+                            schema = @Schema(implementation = BulkItemResult.class)) }),
+            @ApiResponse(responseCode = "400", description = "Invalid input",
+                    content = { @Content(mediaType = "application/json",
+                            schema = @Schema(implementation = ApiError.class)) })})
+    @PostMapping(value = "/goals/bulk", consumes = {MediaType.APPLICATION_JSON_VALUE, APPLICATION_NDJSON_VALUE},
+            produces = {MediaType.APPLICATION_JSON_VALUE, APPLICATION_NDJSON_VALUE})
+    public Flux<BulkItemResult> addGoals(@RequestBody Flux<GoalDTO> goals, @RequestHeader("user") String user) {
+        return limit(GoalOperation.ADD, goalService.addGoals(goals.map(goal -> {
+            // inject user
+            goal.setUserId(user);
+            return goalMapper.goalDTOtoGoal(goal);
+        }), user));
+    }
+
+    @Operation(summary = "Update the status of many goals of the user from a JSON array or an NDJSON stream")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Result of every goal: updated, not found, conflict, "
+                    + "invalid or failed",
+                    content = { @Content(mediaType = "application/json",
+                            schema = @Schema(implementation = BulkItemResult.class)) }),
+            @ApiResponse(responseCode = "400", description = "Invalid input",
+                    content = { @Content(mediaType = "application/json",
+                            schema = @Schema(implementation = ApiError.class)) })})
+    @PatchMapping(value = "/goals/bulk/status", consumes = {MediaType.APPLICATION_JSON_VALUE, APPLICATION_NDJSON_VALUE},
+            produces = {MediaType.APPLICATION_JSON_VALUE, APPLICATION_NDJSON_VALUE})
+    public Flux<BulkItemResult> updateGoalStatuses(@RequestBody Flux<GoalDTO> goals,
+                                                   @RequestHeader("user") String user) {
+        return limit(GoalOperation.UPDATE, goalService.updateGoalStatuses(goals.map(goal -> {
+            goal.setUserId(user);
+            return goalMapper.goalDTOtoGoal(goal);
+        }), user));
+    }
+
     @Operation(summary = "Update goal status")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Updated the goal",
                     content = { @Content(mediaType = "application/json",
+                            schema = @Schema(implementation = GoalResponse.class)),
+                            @Content(mediaType = MediaType.APPLICATION_CBOR_VALUE,
                             schema = @Schema(implementation = GoalResponse.class)) }),
             @ApiResponse(responseCode = "400", description = "Invalid input",
                     content = { @Content(mediaType = "application/json",
@@ -186,25 +464,28 @@ public class GoalResource  {
                     content = { @Content(mediaType = "application/json",
                             schema = @Schema(implementation = ApiError.class)) }),
             @ApiResponse(responseCode = "404", description = "Goal not found",
+                    content = { @Content(mediaType = "application/json",
+                            schema = @Schema(implementation = ApiError.class)) }),
+            @ApiResponse(responseCode = "409", description = "Goal was changed since the given version, "
+                    + "or it was archived and can no longer be changed",
                     content = { @Content(mediaType = "application/json",
                             schema = @Schema(implementation = ApiError.class)) })})
-    @PutMapping(value = "/goal", produces = MediaType.APPLICATION_JSON_VALUE)
+    @PutMapping(value = "/goal", produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_CBOR_VALUE})
     public Mono<ResponseEntity<Goal>> updateGoalStatus(@RequestBody GoalDTO goal, @RequestHeader("user") String user)  {
-        log.info("Goal " + goal);
-
         if (goal.getName().trim().isEmpty())  {
-            log.error("Bad request error");
             throw new ValidationException(WRONG_INPUT);
         }
         // inject user
         goal.setUserId(user);
-        return rcb.run(goalService.updateGoal(goalMapper.goalDTOtoGoal(goal)), throwable ->
-                Mono.error(new GoalException(500, SERVER_ERROR)))
-                .map(savedGoal -> {
-                    log.info("Updated Goal for response" + savedGoal);
-                    return ResponseEntity.ok()
-                            .body(savedGoal);
-                }).switchIfEmpty(Mono.just(ResponseEntity.notFound().build()));
+        return protect(GoalOperation.UPDATE, goalService.updateGoal(goalMapper.goalDTOtoGoal(goal)), throwable -> {
+            if (throwable.getMessage().contains("Conflict")) {
+
+                return Mono.error(throwable);
+            }
+            return Mono.error(new GoalException(500, SERVER_ERROR));
+        })
+                .map(savedGoal -> ResponseEntity.ok()
+                            .body(savedGoal)).switchIfEmpty(Mono.just(ResponseEntity.notFound().build()));
     }
 
 }
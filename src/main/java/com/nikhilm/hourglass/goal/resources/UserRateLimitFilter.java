@@ -0,0 +1,133 @@
+package com.nikhilm.hourglass.goal.resources;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.nikhilm.hourglass.goal.exceptions.ApiError;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sheds the requests of a user that sends too many, or has too many in flight, with 429 and Retry-After,
+ * so one busy user cannot use up the capacity every other user shares.
+ * Each user gets a token bucket of burst requests refilled at rate per second, and at most max-in-flight
+ * requests running at once. Requests without a user header are left to the handlers to reject.
+ */
+@Component
+@Order(Ordered.LOWEST_PRECEDENCE)
+@ConditionalOnProperty(name = "goal.limits.enabled", havingValue = "true", matchIfMissing = true)
+public class UserRateLimitFilter implements WebFilter {
+
+    public static final String USER_HEADER = "user";
+    public static final String TOO_MANY_REQUESTS = "Too many requests!";
+
+    // open until the client leaves, so they would hold an in-flight slot for good
+    private static final Set<String> LONG_LIVED = Set.of("/goals/changes");
+
+    private final double rate;
+    private final int burst;
+    private final int maxInFlight;
+    private final Cache<String, UserLimit> limits;
+    private final byte[] rejection;
+
+    private final Counter shedByRate;
+    private final Counter shedByConcurrency;
+
+    public UserRateLimitFilter(MeterRegistry meterRegistry, ObjectMapper objectMapper,
+                               @Value("${goal.limits.rate:20}") double rate,
+                               @Value("${goal.limits.burst:40}") int burst,
+                               @Value("${goal.limits.max-in-flight:10}") int maxInFlight,
+                               @Value("${goal.limits.idle-expiry:10m}") Duration idleExpiry) throws JsonProcessingException {
+        this.rate = rate;
+        this.burst = burst;
+        this.maxInFlight = maxInFlight;
+        // a user idle for idle-expiry has a full bucket and nothing in flight, so forgetting them changes nothing
+        this.limits = Caffeine.newBuilder()
+                .expireAfterAccess(idleExpiry.toNanos(), TimeUnit.NANOSECONDS)
+                .build();
+        this.rejection = objectMapper.writeValueAsBytes(new ApiError("429", TOO_MANY_REQUESTS));
+        this.shedByRate = meterRegistry.counter("goal.requests.shed", "reason", "rate");
+        this.shedByConcurrency = meterRegistry.counter("goal.requests.shed", "reason", "concurrency");
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        String user = exchange.getRequest().getHeaders().getFirst(USER_HEADER);
+        if (user == null) {
+            return chain.filter(exchange);
+        }
+        UserLimit limit = limits.get(user, key -> new UserLimit(burst, System.nanoTime()));
+
+        long waitNanos = limit.tryAcquire(System.nanoTime());
+        if (waitNanos > 0L) {
+            shedByRate.increment();
+            return reject(exchange, waitNanos);
+        }
+        if (LONG_LIVED.contains(exchange.getRequest().getPath().value())) {
+            return chain.filter(exchange);
+        }
+        if (limit.inFlight.incrementAndGet() > maxInFlight) {
+            limit.inFlight.decrementAndGet();
+            shedByConcurrency.increment();
+            return reject(exchange, TimeUnit.SECONDS.toNanos(1L));
+        }
+        return chain.filter(exchange)
+                .doFinally(signal -> limit.inFlight.decrementAndGet());
+    }
+
+    private Mono<Void> reject(ServerWebExchange exchange, long waitNanos) {
+        ServerHttpResponse response = exchange.getResponse();
+        response.setStatusCode(HttpStatus.TOO_MANY_REQUESTS);
+        // whole seconds, rounded up so a client retrying on time finds a token
+        response.getHeaders().set(HttpHeaders.RETRY_AFTER,
+                String.valueOf(Math.max(1L, (waitNanos + 999_999_999L) / 1_000_000_000L)));
+        response.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+        return response.writeWith(Mono.fromSupplier(() -> response.bufferFactory().wrap(rejection)));
+    }
+
+    int inFlight(String user) {
+        UserLimit limit = limits.getIfPresent(user);
+        return limit == null ? 0 : limit.inFlight.get();
+    }
+
+    private class UserLimit {
+        final AtomicInteger inFlight = new AtomicInteger();
+        private double tokens;
+        private long refilledAt;
+
+        UserLimit(double tokens, long now) {
+            this.tokens = tokens;
+            this.refilledAt = now;
+        }
+
+        // takes a token, or returns how long until the next one
+        synchronized long tryAcquire(long now) {
+            tokens = Math.min(burst, tokens + (now - refilledAt) * rate / 1_000_000_000d);
+            refilledAt = now;
+            if (tokens >= 1d) {
+                tokens -= 1d;
+                return 0L;
+            }
+            return (long) Math.ceil((1d - tokens) * 1_000_000_000d / rate);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.nikhilm.hourglass.goal.services;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.EqualsAndHashCode;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * In-memory {@link GoalQueryCache} bounded by size and time to live. Concurrent misses for the
+ * same key share one query. Hits, misses and evictions are exported as the cache.* meters of the
+ * "goals" cache.
+ * <p>
+ * Results are cached under the user's generation, which every invalidation replaces, so a write does
+ * not scan the cache: the results of older generations are no longer read. They are dropped through
+ * the keys kept per user, and any a race left out of those age out. A user's generation is kept twice
+ * the ttl after its last use, by which time nothing cached under an older one is left.
+ */
+@Component
+@ConditionalOnProperty(name = "goal.cache.enabled", havingValue = "true", matchIfMissing = true)
+public class CaffeineGoalQueryCache implements GoalQueryCache {
+
+    private final AsyncCache<GenerationKey, Object> cache;
+    private final Cache<String, Long> generations;
+    private final AtomicLong lastGeneration = new AtomicLong();
+    private final ConcurrentMap<String, Set<GenerationKey>> keysByUser = new ConcurrentHashMap<>();
+
+    public CaffeineGoalQueryCache(MeterRegistry meterRegistry,
+                                  @Value("${goal.cache.maximum-size:10000}") long maximumSize,
+                                  @Value("${goal.cache.ttl:30s}") Duration ttl) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .<GenerationKey, Object>removalListener((key, value, cause) -> forget(key))
+                .buildAsync();
+        this.generations = Caffeine.newBuilder()
+                .expireAfterAccess(ttl.multipliedBy(2L))
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache.synchronous(), "goals");
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> Mono<T> get(GoalCacheKey key, Supplier<Mono<T>> loader) {
+        return Mono.defer(() -> {
+            Long generation = generations.getIfPresent(key.getUserId());
+            return Mono.fromFuture(cache.get(new GenerationKey(generation == null ? 0L : generation, key),
+                    (cacheKey, executor) -> {
+                        keysByUser.computeIfAbsent(key.getUserId(), userId -> ConcurrentHashMap.newKeySet())
+                                .add(cacheKey);
+                        return loader.get().map(result -> (Object) result).toFuture();
+                    }));
+        })
+                .map(result -> (T) result);
+    }
+
+    @Override
+    public void invalidate(String userId) {
+        // a query still in flight lands in the old generation, so a read racing the write is not served
+        generations.put(userId, lastGeneration.incrementAndGet());
+        Set<GenerationKey> keys = keysByUser.remove(userId);
+        if (keys != null) {
+            cache.synchronous().invalidateAll(keys);
+        }
+    }
+
+    private void forget(GenerationKey key) {
+        keysByUser.computeIfPresent(key.key.getUserId(), (userId, keys) -> {
+            keys.remove(key);
+            return keys.isEmpty() ? null : keys;
+        });
+    }
+
+    long size() {
+        return cache.synchronous().estimatedSize();
+    }
+
+    @RequiredArgsConstructor
+    @EqualsAndHashCode
+    private static class GenerationKey {
+        private final long generation;
+        private final GoalCacheKey key;
+    }
+}
@@ -0,0 +1,109 @@
+package com.nikhilm.hourglass.goal.services;
+
+import com.nikhilm.hourglass.goal.model.Goal;
+import com.nikhilm.hourglass.goal.repositories.GoalRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Moves goals completed more than archive-after ago from goals to goals_archive at a fixed interval,
+ * so the goals collection and its indexes only hold what users work with. Goals move in batches of
+ * batch-size with a pause in between; GET /goals?includeArchived=true still lists them.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "goal.archive.enabled", havingValue = "true", matchIfMissing = true)
+public class GoalArchiver {
+
+    private final GoalRepository goalRepository;
+    private final GoalVersions goalVersions;
+    private final GoalQueryCache goalQueryCache;
+    private final Duration archiveAfter;
+    private final int batchSize;
+    private final Duration pause;
+    private final Duration initialDelay;
+    private final Duration interval;
+
+    private final Counter archived;
+    private Disposable subscription;
+
+    public GoalArchiver(GoalRepository goalRepository, GoalVersions goalVersions,
+                        GoalQueryCache goalQueryCache, MeterRegistry meterRegistry,
+                        @Value("${goal.archive.after:90d}") Duration archiveAfter,
+                        @Value("${goal.archive.batch-size:500}") int batchSize,
+                        @Value("${goal.archive.pause:1s}") Duration pause,
+                        @Value("${goal.archive.initial-delay:15m}") Duration initialDelay,
+                        @Value("${goal.archive.interval:1d}") Duration interval) {
+        this.goalRepository = goalRepository;
+        this.goalVersions = goalVersions;
+        this.goalQueryCache = goalQueryCache;
+        this.archiveAfter = archiveAfter;
+        this.batchSize = batchSize;
+        this.pause = pause;
+        this.initialDelay = initialDelay;
+        this.interval = interval;
+
+        this.archived = meterRegistry.counter("goal.archive.moved");
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        subscription = Flux.interval(initialDelay, interval)
+                .onBackpressureDrop()
+                .concatMap(tick -> archiveAll()
+                        .onErrorResume(throwable -> {
+                            log.error("Goal archival failed {}", throwable.getMessage());
+                            return Mono.empty();
+                        }))
+                .subscribe(moved -> log.info("Archived {} completed goals", moved));
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (subscription != null) {
+            subscription.dispose();
+        }
+    }
+
+    // batch after batch with a pause in between, until a batch comes back short
+    Mono<Long> archiveAll() {
+        LocalDate completedBefore = LocalDate.now().minusDays(archiveAfter.toDays());
+        return archiveBatch(completedBefore)
+                .expand(moved -> moved < batchSize ? Mono.empty()
+                        : archiveBatch(completedBefore).delaySubscription(pause))
+                .reduce(0L, Long::sum);
+    }
+
+    private Mono<Long> archiveBatch(LocalDate completedBefore) {
+        return goalRepository.archiveCompleted(completedBefore, batchSize)
+                .flatMap(moved -> {
+                    archived.increment(moved.size());
+                    List<String> users = moved.stream().map(Goal::getUserId).distinct().collect(Collectors.toList());
+                    return Flux.fromIterable(users)
+                            .concatMap(this::changed)
+                            .then(Mono.just((long) moved.size()));
+                });
+    }
+
+    // The user's goal list changed while no count did, so only the version clients hold as ETag is bumped
+    private Mono<Void> changed(String user) {
+        goalQueryCache.invalidate(user);
+        return goalVersions.increment(user, Map.of());
+    }
+}
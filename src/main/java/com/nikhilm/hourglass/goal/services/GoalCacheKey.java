@@ -0,0 +1,25 @@
+package com.nikhilm.hourglass.goal.services;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.Arrays;
+import java.util.List;
+
+@AllArgsConstructor
+@Getter
+@EqualsAndHashCode
+@ToString
+public class GoalCacheKey {
+
+    private String userId;
+    private String operation;
+    private List<Object> arguments;
+
+    public static GoalCacheKey of(String userId, String operation, Object... arguments) {
+        // Arrays.asList keeps null arguments, e.g. a search that was not given
+        return new GoalCacheKey(userId, operation, Arrays.asList(arguments));
+    }
+}
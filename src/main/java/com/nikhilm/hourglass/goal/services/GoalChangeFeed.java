@@ -0,0 +1,271 @@
+package com.nikhilm.hourglass.goal.services;
+
+import com.mongodb.MongoCommandException;
+import com.nikhilm.hourglass.goal.logging.SampledLogger;
+import com.nikhilm.hourglass.goal.model.Goal;
+import com.nikhilm.hourglass.goal.model.GoalChange;
+import com.nikhilm.hourglass.goal.repositories.GoalRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.bson.BsonValue;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.ChangeStreamEvent;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.Exceptions;
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.ReplayProcessor;
+import reactor.util.context.Context;
+import reactor.util.retry.Retry;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fans the goals change stream out to the users listening for changes. One change stream is open per
+ * instance while anyone listens, and each user's last history-size changes are kept so a client that
+ * reconnects with the id of the last change it saw gets only what it missed. A client whose id is no
+ * longer known gets a reset and must refetch its goals.
+ */
+@Component
+public class GoalChangeFeed {
+
+    private static final SampledLogger LOG = SampledLogger.getLogger(GoalChangeFeed.class);
+    private static final int CHANGE_STREAM_HISTORY_LOST = 286;
+
+    private final GoalRepository goalRepository;
+    private final int historySize;
+    private final Duration idleTimeout;
+    private final Duration sweepInterval;
+    private final Duration retryBackoff;
+
+    private final Map<String, UserFeed> feeds = new ConcurrentHashMap<>();
+    private final AtomicInteger subscribers = new AtomicInteger();
+    private final Counter resets;
+
+    private Disposable changeStream;
+    private Disposable sweeper;
+    private volatile BsonValue lastToken;
+
+    public GoalChangeFeed(GoalRepository goalRepository, MeterRegistry meterRegistry,
+                          @Value("${goal.changes.history-size:50}") int historySize,
+                          @Value("${goal.changes.idle-timeout:5m}") Duration idleTimeout,
+                          @Value("${goal.changes.sweep-interval:1m}") Duration sweepInterval,
+                          @Value("${goal.changes.retry-backoff:1s}") Duration retryBackoff) {
+        this.goalRepository = goalRepository;
+        this.historySize = historySize;
+        this.idleTimeout = idleTimeout;
+        this.sweepInterval = sweepInterval;
+        this.retryBackoff = retryBackoff;
+
+        meterRegistry.gauge("goal.changes.subscribers", subscribers);
+        meterRegistry.gaugeMapSize("goal.changes.feeds", Tags.empty(), feeds);
+        this.resets = meterRegistry.counter("goal.changes.resets");
+    }
+
+    @PostConstruct
+    public void start() {
+        sweeper = Flux.interval(sweepInterval).subscribe(tick -> evictIdle());
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        if (sweeper != null) {
+            sweeper.dispose();
+        }
+        stopListening();
+        feeds.values().forEach(UserFeed::complete);
+        feeds.clear();
+    }
+
+    /**
+     * Changes of the user's goals from now on, or from after lastEventId when it is still in the history.
+     * The subscription completes after idle-timeout without a change; the client reconnects with the last id.
+     */
+    public Flux<GoalChange> changes(String userId, Optional<String> lastEventId) {
+        return Flux.defer(() -> {
+            UserFeed feed = feeds.compute(userId, (key, existing) -> {
+                UserFeed userFeed = existing != null ? existing : new UserFeed(historySize);
+                userFeed.subscribers++;
+                return userFeed;
+            });
+            subscribers.incrementAndGet();
+            ensureListening();
+            Flux<GoalChange> changes = feed.since(lastEventId.filter(id -> !id.isEmpty()));
+            return changes
+                    .timeout(idleTimeout, Flux.empty())
+                    // a client that cannot keep up is told to refetch rather than buffered without bound
+                    .onBackpressureBuffer(historySize, BufferOverflowStrategy.ERROR)
+                    .onErrorResume(Exceptions::isOverflow, throwable -> Mono.fromSupplier(() -> reset()))
+                    .doFinally(signal -> release(userId));
+        });
+    }
+
+    private void release(String userId) {
+        subscribers.decrementAndGet();
+        feeds.computeIfPresent(userId, (key, feed) -> {
+            feed.subscribers--;
+            feed.lastActive = System.nanoTime();
+            return feed;
+        });
+    }
+
+    // feeds nobody listened to for idle-timeout are dropped, and the change stream with the last of them
+    void evictIdle() {
+        long now = System.nanoTime();
+        feeds.keySet().forEach(userId -> feeds.computeIfPresent(userId, (key, feed) -> {
+            if (feed.subscribers == 0 && now - feed.lastActive >= idleTimeout.toNanos()) {
+                feed.complete();
+                return null;
+            }
+            return feed;
+        }));
+        synchronized (this) {
+            if (feeds.isEmpty()) {
+                stopListening();
+            }
+        }
+    }
+
+    private synchronized void ensureListening() {
+        if (changeStream == null || changeStream.isDisposed()) {
+            changeStream = Flux.defer(() -> goalRepository.watchGoals(lastToken))
+                    .doOnError(this::onStreamError)
+                    .retryWhen(Retry.backoff(Long.MAX_VALUE, retryBackoff).maxBackoff(Duration.ofMinutes(1L)))
+                    .subscribe(this::dispatch);
+        }
+    }
+
+    private synchronized void stopListening() {
+        if (changeStream != null) {
+            changeStream.dispose();
+            changeStream = null;
+            // a later stream starts from then, and the kept histories no longer connect to it
+            lastToken = null;
+        }
+    }
+
+    private void onStreamError(Throwable throwable) {
+        LOG.warn(Context.empty(), "goal.changes.stream.failed", "error", throwable.getMessage());
+        if (lastToken != null && isHistoryLost(throwable)) {
+            // the oplog rolled past the last change seen, so every listener may have missed changes
+            lastToken = null;
+            feeds.values().forEach(feed -> feed.emit(GoalChange.reset()));
+        }
+    }
+
+    private void dispatch(ChangeStreamEvent<Goal> event) {
+        lastToken = event.getResumeToken();
+        Goal goal = event.getBody();
+        if (goal == null || goal.getUserId() == null) {
+            return;
+        }
+        UserFeed feed = feeds.get(goal.getUserId());
+        if (feed != null) {
+            feed.emit(new GoalChange(tokenId(event.getResumeToken()),
+                    event.getOperationType().getValue(), goal));
+        }
+    }
+
+    private GoalChange reset() {
+        resets.increment();
+        return GoalChange.reset();
+    }
+
+    private static String tokenId(BsonValue token) {
+        if (token != null && token.isDocument() && token.asDocument().isString("_data")) {
+            return token.asDocument().getString("_data").getValue();
+        }
+        return token != null ? token.toString() : "";
+    }
+
+    private static boolean isHistoryLost(Throwable throwable) {
+        for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+            if (cause instanceof MongoCommandException
+                    && ((MongoCommandException) cause).getErrorCode() == CHANGE_STREAM_HISTORY_LOST) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    int feedCount() {
+        return feeds.size();
+    }
+
+    boolean isListening() {
+        return changeStream != null && !changeStream.isDisposed();
+    }
+
+    /**
+     * The changes of one user. Subscribers and lastActive are only touched inside the map's compute
+     * functions; emit and since are synchronized so a resuming client sees every change exactly once.
+     */
+    private class UserFeed {
+
+        private final ReplayProcessor<Sequenced> processor;
+        private final FluxSink<Sequenced> sink;
+        private final Deque<Sequenced> history = new ArrayDeque<>();
+        private final int historySize;
+        private long sequence;
+        int subscribers;
+        long lastActive = System.nanoTime();
+
+        UserFeed(int historySize) {
+            this.historySize = historySize;
+            this.processor = ReplayProcessor.create(historySize);
+            this.sink = processor.sink();
+        }
+
+        synchronized void emit(GoalChange change) {
+            Sequenced sequenced = new Sequenced(++sequence, change);
+            if (history.size() == historySize) {
+                history.removeFirst();
+            }
+            history.addLast(sequenced);
+            sink.next(sequenced);
+        }
+
+        synchronized Flux<GoalChange> since(Optional<String> lastEventId) {
+            long after = sequence;
+            boolean missed = false;
+            if (lastEventId.isPresent()) {
+                Optional<Sequenced> last = history.stream()
+                        .filter(sequenced -> lastEventId.get().equals(sequenced.change.getId()))
+                        .findFirst();
+                missed = last.isEmpty();
+                after = last.map(sequenced -> sequenced.sequence).orElse(sequence);
+            }
+            long from = after;
+            // the processor replays its history to every subscriber; only what follows is new to this one
+            Flux<GoalChange> live = processor.filter(sequenced -> sequenced.sequence > from)
+                    .map(sequenced -> sequenced.change);
+            return missed ? Mono.fromSupplier(GoalChangeFeed.this::reset).concatWith(live) : live;
+        }
+
+        void complete() {
+            sink.complete();
+        }
+    }
+
+    private static class Sequenced {
+        final long sequence;
+        final GoalChange change;
+
+        Sequenced(long sequence, GoalChange change) {
+            this.sequence = sequence;
+            this.change = change;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.nikhilm.hourglass.goal.services;
+
+import com.nikhilm.hourglass.goal.logging.SampledLogger;
+import com.nikhilm.hourglass.goal.model.Event;
+import com.nikhilm.hourglass.goal.model.Goal;
+import com.nikhilm.hourglass.goal.model.OutboxEvent;
+import com.nikhilm.hourglass.goal.repositories.OutboxRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.ReactiveMongoDatabaseFactory;
+import org.springframework.data.mongodb.ReactiveMongoTransactionManager;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Records the event of a goal change. With the outbox enabled the event is stored in goal_outbox
+ * and {@link OutboxRelay} publishes it later, so the write never waits for the broker. With
+ * goal.outbox.transactional the goal and the outbox entry are written in one transaction, which
+ * needs a replica set; otherwise the entry is written right after the goal. The goal is saved by then, so an
+ * entry that fails to be written does not fail the request, which the client would retry into a 409: it is
+ * retried in the background up to append-retries times.
+ */
+@Component
+public class GoalEventOutbox {
+
+    private static final SampledLogger LOG = SampledLogger.getLogger(GoalEventOutbox.class);
+
+    private final OutboxRepository outboxRepository;
+    private final GoalEventPublisher goalEventPublisher;
+    private final boolean enabled;
+    private final TransactionalOperator transactionalOperator;
+    private final int appendRetries;
+    private final Duration appendBackoff;
+
+    public GoalEventOutbox(OutboxRepository outboxRepository, GoalEventPublisher goalEventPublisher,
+                           ReactiveMongoDatabaseFactory databaseFactory,
+                           @Value("${goal.outbox.enabled:true}") boolean enabled,
+                           @Value("${goal.outbox.transactional:false}") boolean transactional,
+                           @Value("${goal.outbox.append-retries:5}") int appendRetries,
+                           @Value("${goal.outbox.append-backoff:1s}") Duration appendBackoff) {
+        this.outboxRepository = outboxRepository;
+        this.goalEventPublisher = goalEventPublisher;
+        this.enabled = enabled;
+        this.appendRetries = appendRetries;
+        this.appendBackoff = appendBackoff;
+        this.transactionalOperator = enabled && transactional
+                ? TransactionalOperator.create(new ReactiveMongoTransactionManager(databaseFactory))
+                : null;
+    }
+
+    public <T> Mono<T> write(Mono<T> change, Function<T, Event<String, Goal>> event) {
+        if (transactionalOperator != null) {
+            // a failed append rolls the change back, so the request can fail with it
+            return transactionalOperator.transactional(change.flatMap(goal -> append(event.apply(goal))
+                    .thenReturn(goal)));
+        }
+        return change.flatMap(goal -> {
+            Event<String, Goal> changed = event.apply(goal);
+            return orRetryLater(() -> append(changed), List.of(changed)).thenReturn(goal);
+        });
+    }
+
+    /**
+     * Records the events of a bulk write with one outbox insert. The goals are already written, so this
+     * is never part of a transaction.
+     */
+    public Mono<Void> writeAll(List<Event<String, Goal>> events) {
+        if (events.isEmpty()) {
+            return Mono.empty();
+        }
+        return orRetryLater(() -> appendAll(events), events);
+    }
+
+    // The goals are written: a failed append leaves the request alone and is retried on its own
+    private Mono<Void> orRetryLater(Supplier<Mono<Void>> append, List<Event<String, Goal>> events) {
+        return append.get()
+                .onErrorResume(throwable -> Mono.subscriberContext().doOnNext(context -> {
+                    LOG.warn(context, "goal.outbox.append.failed", "error", throwable.getMessage());
+                    Mono.defer(append)
+                            .retryWhen(Retry.backoff(appendRetries, appendBackoff))
+                            .subscribe(null, lost -> LOG.error(context, "goal.outbox.events.lost", "keys",
+                                    events.stream().map(Event::getKey).collect(Collectors.toList())));
+                }).then());
+    }
+
+    private Mono<Void> appendAll(List<Event<String, Goal>> events) {
+        if (!enabled) {
+            return Flux.fromIterable(events).concatMap(goalEventPublisher::publish).then();
+        }
+        return outboxRepository.insert(events.stream().map(OutboxEvent::of).collect(Collectors.toList())).then();
+    }
+
+    private Mono<Void> append(Event<String, Goal> event) {
+        if (!enabled) {
+            return goalEventPublisher.publish(event);
+        }
+        return outboxRepository.insert(OutboxEvent.of(event)).then();
+    }
+}
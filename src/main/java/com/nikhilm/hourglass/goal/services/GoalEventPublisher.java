@@ -0,0 +1,185 @@
+package com.nikhilm.hourglass.goal.services;
+
+import com.nikhilm.hourglass.goal.logging.SampledLogger;
+import com.nikhilm.hourglass.goal.model.Event;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.context.Context;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes goal events to the output-goals binding from a dedicated thread, so broker latency
+ * is never paid on the request thread. Events wait in a bounded queue and are sent in batches
+ * of up to batch-size events, or whatever arrived within batch-window.
+ */
+@Component
+public class GoalEventPublisher {
+
+    // a broker outage fails every event, so these are sampled
+    private static final SampledLogger LOG = SampledLogger.getLogger(GoalEventPublisher.class);
+
+    public enum OverflowPolicy { DROP, BLOCK }
+
+    private final GoalService.MessageSources messageSources;
+    private final BlockingQueue<PendingEvent> queue;
+    private final int batchSize;
+    private final Duration batchWindow;
+    private final OverflowPolicy overflowPolicy;
+    private final Duration blockTimeout;
+
+    private final GoalSchedulers goalSchedulers;
+
+    // one thread that may block, for the polling loop
+    private final Scheduler scheduler = Schedulers.newBoundedElastic(1, 1, "goal-event-publisher");
+    private volatile boolean running;
+
+    private final Timer publishLatency;
+    private final Counter published;
+    private final Counter failed;
+    private final Counter dropped;
+
+    public GoalEventPublisher(GoalService.MessageSources messageSources, MeterRegistry meterRegistry,
+                              GoalSchedulers goalSchedulers,
+                              @Value("${goal.events.buffer-capacity:1024}") int bufferCapacity,
+                              @Value("${goal.events.batch-size:50}") int batchSize,
+                              @Value("${goal.events.batch-window:100ms}") Duration batchWindow,
+                              @Value("${goal.events.overflow:drop}") OverflowPolicy overflowPolicy,
+                              @Value("${goal.events.block-timeout:1s}") Duration blockTimeout) {
+        this.messageSources = messageSources;
+        this.goalSchedulers = goalSchedulers;
+        this.queue = new ArrayBlockingQueue<>(bufferCapacity);
+        this.batchSize = batchSize;
+        this.batchWindow = batchWindow;
+        this.overflowPolicy = overflowPolicy;
+        this.blockTimeout = blockTimeout;
+
+        meterRegistry.gauge("goal.events.queue.depth", queue, BlockingQueue::size);
+        this.publishLatency = Timer.builder("goal.events.publish.latency")
+                .description("Time from enqueueing a goal event until the binder accepted it")
+                .register(meterRegistry);
+        this.published = meterRegistry.counter("goal.events.published");
+        this.failed = meterRegistry.counter("goal.events.failed");
+        this.dropped = meterRegistry.counter("goal.events.dropped");
+    }
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        scheduler.schedule(this::drain);
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        scheduler.dispose();
+        // whatever is still queued is sent before the binder shuts down
+        List<PendingEvent> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        remaining.forEach(this::send);
+    }
+
+    /**
+     * Queues the event. Completes immediately unless the queue is full and the overflow policy is BLOCK,
+     * in which case the caller waits (off the event loop) for up to block-timeout for room.
+     */
+    public Mono<Void> publish(Event<?, ?> event) {
+        return Mono.defer(() -> {
+            PendingEvent pending = new PendingEvent(MessageBuilder.withPayload(event).build(), System.nanoTime());
+            if (queue.offer(pending)) {
+                return Mono.empty();
+            }
+            if (overflowPolicy == OverflowPolicy.DROP) {
+                drop(event);
+                return Mono.empty();
+            }
+            return Mono.fromCallable(() -> queue.offer(pending, blockTimeout.toMillis(), TimeUnit.MILLISECONDS))
+                    .subscribeOn(goalSchedulers.io())
+                    .doOnNext(queued -> {
+                        if (!queued) {
+                            drop(event);
+                        }
+                    })
+                    .then();
+        });
+    }
+
+    private void drain() {
+        List<PendingEvent> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                PendingEvent first = queue.poll(batchWindow.toMillis(), TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + batchWindow.toNanos();
+                while (batch.size() < batchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    PendingEvent next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                batch.forEach(this::send);
+                batch.clear();
+            } catch (InterruptedException e) {
+                batch.forEach(this::send);
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void send(PendingEvent pending) {
+        try {
+            if (messageSources.outputGoals().send(pending.message)) {
+                published.increment();
+            } else {
+                failed.increment();
+                LOG.error(Context.empty(), "goal.event.rejected", "key",
+                        ((Event<?, ?>) pending.message.getPayload()).getKey());
+            }
+        } catch (RuntimeException e) {
+            failed.increment();
+            LOG.error(Context.empty(), "goal.event.failed", "error", e.getMessage());
+        } finally {
+            publishLatency.record(System.nanoTime() - pending.enqueuedAt, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void drop(Event<?, ?> event) {
+        dropped.increment();
+        LOG.warn(Context.empty(), "goal.event.dropped", "key", event.getKey());
+    }
+
+    int queueDepth() {
+        return queue.size();
+    }
+
+    private static class PendingEvent {
+        final Message<?> message;
+        final long enqueuedAt;
+
+        PendingEvent(Message<?> message, long enqueuedAt) {
+            this.message = message;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+}
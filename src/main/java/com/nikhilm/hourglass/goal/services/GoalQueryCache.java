@@ -0,0 +1,20 @@
+package com.nikhilm.hourglass.goal.services;
+
+import reactor.core.publisher.Mono;
+
+import java.util.function.Supplier;
+
+/**
+ * Caches goal query results per user. Writes for a user must call {@link #invalidate(String)}
+ * so the next read sees them.
+ */
+public interface GoalQueryCache {
+
+    /**
+     * Returns the cached result for the key, or subscribes to the loader and caches what it emits.
+     * Errors and empty results are not cached.
+     */
+    <T> Mono<T> get(GoalCacheKey key, Supplier<Mono<T>> loader);
+
+    void invalidate(String userId);
+}
@@ -0,0 +1,52 @@
+package com.nikhilm.hourglass.goal.services;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import javax.annotation.PreDestroy;
+
+/**
+ * The schedulers that blocking and CPU-heavy work moves to, so none of it runs on a Netty event loop.
+ * publish is for sends to the binder and io for any other blocking call; both cap their threads and
+ * reject tasks once queue-size are waiting. cpu is for computation only and must never block.
+ */
+@Component
+public class GoalSchedulers {
+
+    private final Scheduler publish;
+    private final Scheduler io;
+    private final Scheduler cpu;
+
+    public GoalSchedulers(@Value("${goal.schedulers.publish.threads:4}") int publishThreads,
+                          @Value("${goal.schedulers.publish.queue-size:1000}") int publishQueueSize,
+                          @Value("${goal.schedulers.io.threads:10}") int ioThreads,
+                          @Value("${goal.schedulers.io.queue-size:1000}") int ioQueueSize,
+                          @Value("${goal.schedulers.cpu.threads:0}") int cpuThreads) {
+        this.publish = Schedulers.newBoundedElastic(publishThreads, publishQueueSize, "goal-publish");
+        this.io = Schedulers.newBoundedElastic(ioThreads, ioQueueSize, "goal-io");
+        // 0 means one thread per core
+        this.cpu = Schedulers.newParallel("goal-cpu",
+                cpuThreads > 0 ? cpuThreads : Runtime.getRuntime().availableProcessors());
+    }
+
+    public Scheduler publish() {
+        return publish;
+    }
+
+    public Scheduler io() {
+        return io;
+    }
+
+    public Scheduler cpu() {
+        return cpu;
+    }
+
+    @PreDestroy
+    public void dispose() {
+        publish.dispose();
+        io.dispose();
+        cpu.dispose();
+    }
+}
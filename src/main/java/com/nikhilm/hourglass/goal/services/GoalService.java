@@ -1,55 +1,93 @@
 package com.nikhilm.hourglass.goal.services;
 
 import com.nikhilm.hourglass.goal.exceptions.GoalException;
+import com.nikhilm.hourglass.goal.logging.SampledLogger;
+import com.nikhilm.hourglass.goal.model.BulkItemResult;
+import com.nikhilm.hourglass.goal.model.BulkOutcome;
+import com.nikhilm.hourglass.goal.model.CountMode;
 import com.nikhilm.hourglass.goal.model.Event;
 import com.nikhilm.hourglass.goal.model.Goal;
+import com.nikhilm.hourglass.goal.model.GoalCursor;
+import com.nikhilm.hourglass.goal.model.GoalQuery;
 import com.nikhilm.hourglass.goal.model.GoalResponse;
+import com.nikhilm.hourglass.goal.model.GoalStatsResponse;
 import com.nikhilm.hourglass.goal.model.GoalStatus;
+import com.nikhilm.hourglass.goal.model.GoalSummaryResponse;
+import com.nikhilm.hourglass.goal.repositories.GoalReadRouting;
 import com.nikhilm.hourglass.goal.repositories.GoalRepository;
-import lombok.extern.slf4j.Slf4j;
+import com.nikhilm.hourglass.goal.repositories.GoalStatsRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cloud.client.circuitbreaker.ReactiveCircuitBreaker;
 import org.springframework.cloud.client.circuitbreaker.ReactiveCircuitBreakerFactory;
 import org.springframework.cloud.stream.annotation.EnableBinding;
 import org.springframework.cloud.stream.annotation.Output;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
-import org.springframework.data.mongodb.core.query.TextCriteria;
 import org.springframework.messaging.MessageChannel;
-import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.stereotype.Service;
 import org.springframework.web.bind.annotation.GetMapping;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple2;
 
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Optional;
 import java.util.OptionalInt;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 import static com.nikhilm.hourglass.goal.model.Event.Type.*;
 
 @Service
-@Slf4j
 @EnableBinding(GoalService.MessageSources.class)
 public class GoalService {
 
+    private static final SampledLogger LOG = SampledLogger.getLogger(GoalService.class);
+
     @Autowired
     GoalRepository goalRepository;
 
     @Autowired
-    private MessageSources messageSources;
+    GoalEventOutbox goalEventOutbox;
+
+    @Autowired
+    GoalQueryCache goalQueryCache;
+
+    @Autowired
+    GoalStatsRepository goalStatsRepository;
+
+    @Autowired
+    GoalVersions goalVersions;
+
+    @Autowired
+    GoalSchedulers goalSchedulers;
+
+    @Autowired
+    GoalReadRouting goalReadRouting;
 
     private int pageSize;
 
+    private int bulkChunkSize = 500;
+
     @Value("${pageSize}")
     public void setPageSize(int pageSize) {
         this.pageSize = pageSize;
     }
 
+    @Value("${goal.bulk.chunk-size:500}")
+    public void setBulkChunkSize(int bulkChunkSize) {
+        this.bulkChunkSize = bulkChunkSize;
+    }
+
 //    private boolean filterByStatus(Goal goal, List<String> inclusions)   {
 //        if (inclusions.isEmpty())   {
 //            return true;
@@ -58,113 +96,236 @@ public class GoalService {
 //
 //    }
 
-    public Mono<GoalResponse> fetchGoals(Optional<String> text, Optional<Integer> page,
-                                         List<String> statusFilter, String user ) {
+    /**
+     * The version of the user's goals, bumped by every write to them; 0 before the first write and
+     * {@link GoalVersions#UNKNOWN} while a failed bump is retried.
+     */
+    public Mono<Long> fetchGoalsVersion(String user) {
+        return goalVersions.find(user);
+    }
 
-        log.info("Filters " + statusFilter.isEmpty());
-        log.info("User " + user);
-        log.info("Page size " + pageSize);
+    // the version is part of the cache key, so a page cached before a write on another instance is not served
+    // under the newer version
+    public Mono<GoalResponse> fetchGoalPage(Optional<String> text, Optional<Integer> page, Optional<GoalCursor> cursor,
+                                            List<String> statusFilter, String user, CountMode countMode,
+                                            boolean includeArchived, long version) {
+        return cached(version, GoalCacheKey.of(user, "goalPage", text.orElse(null), page.orElse(1),
+                cursor.map(GoalCursor::encode).orElse(null), statusFilter, countMode, includeArchived, version),
+                () -> queryGoalPage(text, page, cursor, statusFilter, user, countMode, includeArchived));
+    }
 
-        GoalResponse response = new GoalResponse();
+    private Mono<GoalResponse> queryGoalPage(Optional<String> text, Optional<Integer> page, Optional<GoalCursor> cursor,
+                                             List<String> statusFilter, String user, CountMode countMode,
+                                             boolean includeArchived) {
+        return goalRepository.findGoalPage(goalQuery(text, cursor, statusFilter, user, includeArchived),
+                pageable(page), countMode)
+                .doOnEach(LOG.debugOnNext("goals.queried", "count", goalResponse -> goalResponse.getGoals().size()));
+    }
 
+    public Mono<GoalSummaryResponse> fetchGoalSummaryPage(Optional<String> text, Optional<Integer> page,
+                                                          Optional<GoalCursor> cursor, List<String> statusFilter,
+                                                          String user, CountMode countMode, boolean includeArchived,
+                                                          long version) {
+        return cached(version, GoalCacheKey.of(user, "goalSummaryPage", text.orElse(null), page.orElse(1),
+                cursor.map(GoalCursor::encode).orElse(null), statusFilter, countMode, includeArchived, version),
+                () -> goalRepository.findGoalSummaryPage(goalQuery(text, cursor, statusFilter, user, includeArchived),
+                        pageable(page), countMode)
+                        .doOnEach(LOG.debugOnNext("goal.summaries.queried", "count",
+                                goalResponse -> goalResponse.getGoals().size())));
+    }
 
-        Flux<Goal> goalFlux;
+    // an unknown version does not move with writes on other instances, so nothing is cached under it
+    private <T> Mono<T> cached(long version, GoalCacheKey key, Supplier<Mono<T>> loader) {
+        return version == GoalVersions.UNKNOWN ? loader.get() : goalQueryCache.get(key, loader);
+    }
 
-        int offset = page.isEmpty() ? 0 : (page.get() - 1) * pageSize;
+    private Pageable pageable(Optional<Integer> page) {
+        return PageRequest.of(page.map(p -> p - 1).orElse(0), pageSize);
+    }
 
-        if (text.isPresent()) {
-            log.info("Text search is given " + text.get());
-            TextCriteria criteria = TextCriteria.forDefaultLanguage().matchingAny(text.get());
-            return goalRepository.findAllBy(criteria)
-                    .filter(goal -> (statusFilter.isEmpty() || statusFilter.contains(goal.getStatus().getValue()))
-                            && goal.getUserId().equalsIgnoreCase(user))
-                    .take(pageSize)
-            .reduce(response, (goalResponse, goal)-> {
-                log.info("including goal to response " + goal);
-                goalResponse.getGoals().add(goal);
-                return goalResponse;
-            });
+    private GoalQuery goalQuery(Optional<String> text, Optional<GoalCursor> cursor, List<String> statusFilter,
+                                String user, boolean includeArchived) {
+        GoalQuery query = new GoalQuery();
+        query.setUserId(user);
+        query.setText(text.orElse(null));
+        query.setStatuses(toGoalStatuses(statusFilter));
+        query.setCursor(cursor.orElse(null));
+        query.setIncludeArchived(includeArchived);
+        return query;
+    }
 
+    public Flux<Goal> streamGoals(Optional<String> text, List<String> statusFilter, String user,
+                                  boolean includeArchived) {
+        GoalQuery query = new GoalQuery();
+        query.setUserId(user);
+        query.setText(text.orElse(null));
+        query.setStatuses(toGoalStatuses(statusFilter));
+        query.setIncludeArchived(includeArchived);
+        return goalRepository.streamGoals(query);
+    }
 
-        }
-        else {
-            return goalRepository.findAllByUserId(user)
-                    .filter(goal -> statusFilter.isEmpty() || statusFilter.contains(goal.getStatus().getValue()))
-                    .skip(offset).take(pageSize)
-                    .reduce(response, (goalResponse, goal) -> {
-                        log.info("including goal to response " + goal);
-                        goalResponse.getGoals().add(goal);
-                        return goalResponse;
-                    });
-        }
+    private List<GoalStatus> toGoalStatuses(List<String> statusFilter) {
+        return statusFilter.stream()
+                .map(GoalStatus::fromValue)
+                .collect(Collectors.toList());
     }
 
     public Mono<Goal> addGoal(Goal goal) {
 
-        log.info("Adding goal " + goal);
-
-        return goalRepository.findByNameAndUserId(goal.getName(), goal.getUserId())
-                .flatMap(goal1 -> Mono.error(new GoalException(409, "Conflict!")))
-                .switchIfEmpty(Mono.defer(()-> {
-                        return goalRepository.save(goal)
-                                .map(savedTask -> {
-                                    messageSources.outputGoals().send((MessageBuilder.withPayload(new Event(GOAL_ADDED, savedTask.getId(), savedTask)).build()));
-                                    log.info("Add goal event published!");
-                                    return savedTask;
-                                });
-                    }))
-                .cast(Goal.class);
+        // a single insert; the unique (userId, name) index rejects duplicates, even concurrent ones. Archived
+        // goals are not in it: their names can be used again, and includeArchived lists both goals.
+        return goalEventOutbox.write(goalRepository.insert(goal)
+                        .onErrorMap(DuplicateKeyException.class, e -> new GoalException(409, "Conflict!")),
+                savedTask -> new Event<>(GOAL_ADDED, savedTask.getId(), savedTask))
+                .flatMap(savedTask -> recordStats(goal.getUserId(), new GoalStatsDelta().added(savedTask))
+                        .thenReturn(savedTask))
+                .doOnNext(savedTask -> wrote(goal.getUserId()))
+                .doOnEach(LOG.debugOnNext("goal.added", "goal", Goal::getId));
 
     }
 
 
-    public Mono<Long> findTotalGoalCount(String user) {
+    /**
+     * Counts of the user's goals from their stats document. A document that was never rebuilt is
+     * rebuilt first, so users whose goals predate it get full counts.
+     */
+    public Mono<GoalStatsResponse> fetchStats(String user) {
+        return goalStatsRepository.findStats(user)
+                .filter(stats -> stats.getRebuiltAt() != null)
+                .switchIfEmpty(Mono.defer(() -> goalStatsRepository.rebuild(user)))
+                .map(stats -> GoalStatsResponse.of(stats, LocalDate.now()));
+    }
+
+    // The user's next reads go to the primary and skip the cache, so they include this write
+    private void wrote(String user) {
+        goalReadRouting.recordWrite(user);
+        goalQueryCache.invalidate(user);
+    }
 
-        return goalRepository.findTotalCount(user);
+    // The goal is already written, so failed counts are left for the rebuild job to repair; the version clients
+    // hold as ETag is retried. Called for every write, even one that changes no count.
+    private Mono<Void> recordStats(String user, GoalStatsDelta delta) {
+        return goalVersions.increment(user, delta.increments());
     }
 
     public Mono<Goal> updateGoal(Goal goal) {
-        return goalRepository.findByNameAndUserId(goal.getName(), goal.getUserId())
-                .map(currentGoal -> {
-                    log.info("Current Goal " + currentGoal);
-                    Goal updatedGoal = new Goal();
-                    updatedGoal.setName(currentGoal.getName());
-                    updatedGoal.setDescription(currentGoal.getDescription());
-                    updatedGoal.setDueDate(currentGoal.getDueDate());
-                    updatedGoal.setLevel(currentGoal.getLevel());
-                    updatedGoal.setId(currentGoal.getId());
-                    updatedGoal.setUserId(currentGoal.getUserId());
-                    if (goal.getStatus() == GoalStatus.COMPLETED)   {
-                        updatedGoal.setCompletedOn(LocalDate.now());
-                        updatedGoal.setVotes(3);
+        setCompletion(goal);
+        // only the changed fields are sent, in a findAndModify conditional on the version
+        return goalEventOutbox.write(goalRepository.updateProgress(goal)
+                        .switchIfEmpty(Mono.defer(() -> notUpdated(goal))),
+                update -> new Event<>(statusEventType(update.getCurrent()), update.getCurrent().getId(),
+                        update.getCurrent()))
+                .flatMap(update -> recordStats(goal.getUserId(),
+                        new GoalStatsDelta().changed(update.getPrevious(), update.getCurrent()))
+                        .thenReturn(update.getCurrent()))
+                .doOnNext(savedGoal -> wrote(goal.getUserId()))
+                .doOnEach(LOG.debugOnNext("goal.updated", "goal", Goal::getId))
+                .onErrorMap(throwable -> !(throwable instanceof GoalException),
+                        throwable -> new GoalException(500, "Internal server error!"));
+
+    }
+
+    /**
+     * Inserts the goals in chunks of bulk-chunk-size, one unordered bulk write per chunk. Results are
+     * emitted per chunk, in request order within the chunk. Chunks are validated and their results assembled
+     * on the cpu scheduler, so a large import does not hold the event loop.
+     */
+    public Flux<BulkItemResult> addGoals(Flux<Goal> goals, String user) {
+        return goals.index()
+                .buffer(bulkChunkSize)
+                .publishOn(goalSchedulers.cpu(), 1)
+                .concatMap(chunk -> writeChunk(chunk, goalRepository::insertGoals, GOAL_ADDED, user));
+    }
 
+    public Flux<BulkItemResult> updateGoalStatuses(Flux<Goal> goals, String user) {
+        return goals.index()
+                .doOnNext(indexed -> setCompletion(indexed.getT2()))
+                .buffer(bulkChunkSize)
+                .publishOn(goalSchedulers.cpu(), 1)
+                .concatMap(chunk -> writeChunk(chunk, valid -> goalRepository.updateStatuses(user, valid), null, user));
+    }
+
+    // eventType null means the status event of each goal
+    private Flux<BulkItemResult> writeChunk(List<Tuple2<Long, Goal>> chunk,
+                                            Function<List<Goal>, Mono<List<BulkItemResult>>> write,
+                                            Event.Type eventType, String user) {
+        List<BulkItemResult> results = new ArrayList<>(chunk.size());
+        List<Goal> valid = new ArrayList<>(chunk.size());
+        List<Long> validIndexes = new ArrayList<>(chunk.size());
+        for (Tuple2<Long, Goal> indexed : chunk) {
+            Goal goal = indexed.getT2();
+            if (goal.getName() == null || goal.getName().trim().isEmpty() || goal.getStatus() == null) {
+                BulkItemResult invalid = BulkItemResult.of(goal.getName(), BulkOutcome.INVALID);
+                invalid.setIndex(indexed.getT1());
+                results.add(invalid);
+            } else {
+                valid.add(goal);
+                validIndexes.add(indexed.getT1());
+            }
+        }
+        Mono<List<BulkItemResult>> written = valid.isEmpty() ? Mono.just(List.of()) : write.apply(valid);
+        return written
+                .flatMap(writes -> {
+                    List<Event<String, Goal>> events = new ArrayList<>();
+                    GoalStatsDelta delta = new GoalStatsDelta();
+                    for (int i = 0; i < writes.size(); i++) {
+                        BulkItemResult result = writes.get(i);
+                        result.setIndex(validIndexes.get(i));
+                        results.add(result);
+                        if (result.getOutcome() == BulkOutcome.CREATED) {
+                            delta.added(result.getGoal());
+                        } else if (result.getOutcome() == BulkOutcome.UPDATED) {
+                            delta.changed(result.getPrevious(), result.getGoal());
+                        } else {
+                            continue;
+                        }
+                        events.add(new Event<>(eventType != null ? eventType : statusEventType(result.getGoal()),
+                                result.getGoal().getId(), result.getGoal()));
                     }
-                    updatedGoal.setStatus(goal.getStatus());
-                    updatedGoal.setNotes(goal.getNotes());
-                    return updatedGoal;
-                })
-                .flatMap(goalToSave -> {
-                    return goalRepository.save(goalToSave);
-                })
-                .onErrorMap(throwable -> new GoalException(500, "Internal server error!"))
-                .map(savedGoal -> {
-                    Event.Type eventType = GOAL_COMPLETED;
-                    switch (savedGoal.getStatus())  {
-                        case ACTIVE:
-                            eventType = GOAL_RESUMED;
-                            break;
-                        case DEFERRED:
-                            eventType = GOAL_DEFERRED;
-                            break;
-                        case COMPLETED:
-                            eventType = GOAL_COMPLETED;
+                    if (!events.isEmpty()) {
+                        wrote(user);
                     }
-                    messageSources.outputGoals().send((MessageBuilder.withPayload(new Event(eventType, savedGoal.getId(), savedGoal)).build()));
-                    log.info("Goal status change event published! " + savedGoal.getStatus() + " " + savedGoal.getName());
-                    return savedGoal;
+                    return goalEventOutbox.writeAll(events)
+                            .then(events.isEmpty() ? Mono.empty() : recordStats(user, delta))
+                            .thenReturn(results);
+                })
+                .flatMapIterable(all -> {
+                    all.sort(Comparator.comparingLong(BulkItemResult::getIndex));
+                    return all;
                 });
+    }
+
+    private void setCompletion(Goal goal) {
+        if (goal.getStatus() == GoalStatus.COMPLETED)   {
+            goal.setCompletedOn(LocalDate.now());
+            goal.setVotes(3);
+        } else {
+            goal.setCompletedOn(null);
+            goal.setVotes(0);
+        }
+    }
+
+    private Event.Type statusEventType(Goal goal) {
+        switch (goal.getStatus())  {
+            case ACTIVE:
+                return GOAL_RESUMED;
+            case DEFERRED:
+                return GOAL_DEFERRED;
+            default:
+                return GOAL_COMPLETED;
+        }
+    }
 
+    // No goal was updated: it was changed since the client read it, it was archived, or there is none
+    private <T> Mono<T> notUpdated(Goal goal) {
+        return goalRepository.findByNameAndUserId(goal.getName(), goal.getUserId())
+                .flatMap(currentGoal -> Mono.<T>error(new GoalException(409, "Conflict!")))
+                .switchIfEmpty(Mono.defer(() -> goalRepository.existsArchived(goal.getUserId(), goal.getName())
+                        .flatMap(archived -> archived
+                                ? Mono.error(new GoalException(409, "Conflict: archived goals cannot be changed!"))
+                                : Mono.empty())));
     }
+
     public interface MessageSources {
 
         String OUTPUT_GOALS = "output-goals";
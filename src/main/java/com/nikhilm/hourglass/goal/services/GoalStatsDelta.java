@@ -0,0 +1,50 @@
+package com.nikhilm.hourglass.goal.services;
+
+import com.nikhilm.hourglass.goal.model.Goal;
+import com.nikhilm.hourglass.goal.model.GoalStats;
+import com.nikhilm.hourglass.goal.model.GoalStatus;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The $inc increments of the stats document for a set of goal writes.
+ */
+class GoalStatsDelta {
+
+    private final Map<String, Long> increments = new HashMap<>();
+
+    GoalStatsDelta added(Goal goal) {
+        add(GoalStats.TOTAL, 1L);
+        count(goal, 1L);
+        return this;
+    }
+
+    GoalStatsDelta changed(Goal previous, Goal current) {
+        count(previous, -1L);
+        count(current, 1L);
+        return this;
+    }
+
+    Map<String, Long> increments() {
+        Map<String, Long> nonZero = new HashMap<>(increments);
+        nonZero.values().removeIf(increment -> increment == 0L);
+        return nonZero;
+    }
+
+    private void count(Goal goal, long increment) {
+        if (goal.getStatus() != null) {
+            add(GoalStats.BY_STATUS + "." + goal.getStatus().name(), increment);
+        }
+        if (goal.getLevel() != null) {
+            add(GoalStats.BY_LEVEL + "." + goal.getLevel().name(), increment);
+        }
+        if (goal.getStatus() != GoalStatus.COMPLETED && goal.getDueDate() != null) {
+            add(GoalStats.OPEN_BY_DUE_DATE + "." + goal.getDueDate(), increment);
+        }
+    }
+
+    private void add(String field, long increment) {
+        increments.merge(field, increment, Long::sum);
+    }
+}
@@ -0,0 +1,101 @@
+package com.nikhilm.hourglass.goal.services;
+
+import com.nikhilm.hourglass.goal.logging.SampledLogger;
+import com.nikhilm.hourglass.goal.repositories.GoalStatsRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.context.Context;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Rebuilds the stats document of every user from their goals at a fixed interval. The $inc updates
+ * drift when a goal write succeeds and its increment does not, or when an increment lands while a
+ * rebuild runs; the drift counter shows how often a rebuild had anything to repair.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "goal.stats.rebuild.enabled", havingValue = "true", matchIfMissing = true)
+public class GoalStatsRebuilder {
+
+    private static final SampledLogger LOG = SampledLogger.getLogger(GoalStatsRebuilder.class);
+
+    private final GoalStatsRepository goalStatsRepository;
+    private final Duration initialDelay;
+    private final Duration interval;
+    private final Duration pause;
+
+    private final Counter rebuilt;
+    private final Counter drifted;
+    private Disposable subscription;
+
+    public GoalStatsRebuilder(GoalStatsRepository goalStatsRepository, MeterRegistry meterRegistry,
+                              @Value("${goal.stats.rebuild.initial-delay:10m}") Duration initialDelay,
+                              @Value("${goal.stats.rebuild.interval:6h}") Duration interval,
+                              @Value("${goal.stats.rebuild.pause:10ms}") Duration pause) {
+        this.goalStatsRepository = goalStatsRepository;
+        this.initialDelay = initialDelay;
+        this.interval = interval;
+        this.pause = pause;
+
+        this.rebuilt = meterRegistry.counter("goal.stats.rebuilt");
+        this.drifted = meterRegistry.counter("goal.stats.drifted");
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        subscription = Flux.interval(initialDelay, interval)
+                .onBackpressureDrop()
+                .concatMap(tick -> rebuildAll()
+                        .onErrorResume(throwable -> {
+                            log.error("Goal stats rebuild failed {}", throwable.getMessage());
+                            return Mono.empty();
+                        }))
+                .subscribe(users -> log.info("Goal stats rebuilt for {} users", users));
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (subscription != null) {
+            subscription.dispose();
+        }
+    }
+
+    // one user at a time with a pause in between, so the rebuild never competes with requests for long
+    Mono<Long> rebuildAll() {
+        return goalStatsRepository.findUserIds()
+                .concatMap(user -> rebuild(user).delayElement(pause))
+                .count();
+    }
+
+    private Mono<String> rebuild(String user) {
+        return goalStatsRepository.findById(user)
+                .map(Optional::of)
+                .defaultIfEmpty(Optional.empty())
+                .flatMap(current -> goalStatsRepository.rebuild(user)
+                        .doOnNext(stats -> {
+                            rebuilt.increment();
+                            // counts never rebuilt before only cover recent writes, so they are not drift
+                            if (current.isPresent() && current.get().getRebuiltAt() != null
+                                    && !current.get().sameCounts(stats)) {
+                                drifted.increment();
+                            }
+                        }))
+                .thenReturn(user)
+                .onErrorResume(throwable -> {
+                    LOG.warn(Context.empty(), "goal.stats.rebuild.failed", "error", throwable.getMessage());
+                    return Mono.empty();
+                });
+    }
+}
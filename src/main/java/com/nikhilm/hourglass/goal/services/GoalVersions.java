@@ -0,0 +1,72 @@
+package com.nikhilm.hourglass.goal.services;
+
+import com.nikhilm.hourglass.goal.logging.SampledLogger;
+import com.nikhilm.hourglass.goal.repositories.GoalStatsRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The version of each user's goals, which clients hold as ETag; it is bumped by the stats increment of every
+ * write. When that increment fails the goals changed but the version did not, so until a later bump succeeds
+ * this instance reports the version as {@link #UNKNOWN}: lists are served without ETag and never as 304.
+ * Only the bump is retried in the background, as a retried increment could count a write twice; the counts
+ * are left to the rebuild job. Other instances serve the stored version meanwhile.
+ * <p>
+ * The unknown state is per instance and not shared. Behind a load balancer, a client that moves between
+ * instances gets no 304 while one of them reports UNKNOWN for its user: the untagged response replaces the tag
+ * it holds. When every retry fails, the user stays unknown on this instance until one of its writes bumps the
+ * version.
+ */
+@Component
+public class GoalVersions {
+
+    public static final long UNKNOWN = -1L;
+
+    private static final SampledLogger LOG = SampledLogger.getLogger(GoalVersions.class);
+
+    private final GoalStatsRepository goalStatsRepository;
+    private final int bumpRetries;
+    private final Duration bumpBackoff;
+    private final Set<String> unknown = ConcurrentHashMap.newKeySet();
+
+    public GoalVersions(GoalStatsRepository goalStatsRepository,
+                        @Value("${goal.stats.version-retries:5}") int bumpRetries,
+                        @Value("${goal.stats.version-backoff:1s}") Duration bumpBackoff) {
+        this.goalStatsRepository = goalStatsRepository;
+        this.bumpRetries = bumpRetries;
+        this.bumpBackoff = bumpBackoff;
+    }
+
+    /**
+     * A point read of the stats document that fetches nothing but the version; 0 before the first write.
+     */
+    public Mono<Long> find(String user) {
+        if (unknown.contains(user)) {
+            return Mono.just(UNKNOWN);
+        }
+        return goalStatsRepository.findVersion(user).defaultIfEmpty(0L);
+    }
+
+    /**
+     * Bumps the version with the given counts. Never fails: the goals are already written.
+     */
+    public Mono<Void> increment(String user, Map<String, Long> increments) {
+        return goalStatsRepository.increment(user, increments)
+                .doOnSuccess(done -> unknown.remove(user))
+                .onErrorResume(throwable -> Mono.subscriberContext().doOnNext(context -> {
+                    LOG.warn(context, "goal.stats.increment.failed", "error", throwable.getMessage());
+                    unknown.add(user);
+                    Mono.defer(() -> goalStatsRepository.increment(user, Map.of()))
+                            .retryWhen(Retry.backoff(bumpRetries, bumpBackoff))
+                            .subscribe(null, lost -> LOG.error(context, "goal.stats.version.failed", "user", user),
+                                    () -> unknown.remove(user));
+                }).then());
+    }
+}
@@ -0,0 +1,21 @@
+package com.nikhilm.hourglass.goal.services;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.function.Supplier;
+
+@Component
+@ConditionalOnProperty(name = "goal.cache.enabled", havingValue = "false")
+public class NoOpGoalQueryCache implements GoalQueryCache {
+
+    @Override
+    public <T> Mono<T> get(GoalCacheKey key, Supplier<Mono<T>> loader) {
+        return Mono.defer(loader);
+    }
+
+    @Override
+    public void invalidate(String userId) {
+    }
+}
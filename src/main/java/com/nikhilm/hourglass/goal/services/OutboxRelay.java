@@ -0,0 +1,152 @@
+package com.nikhilm.hourglass.goal.services;
+
+import com.nikhilm.hourglass.goal.logging.SampledLogger;
+import com.nikhilm.hourglass.goal.model.OutboxEvent;
+import com.nikhilm.hourglass.goal.repositories.OutboxRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.context.Context;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Polls goal_outbox in batches and publishes the events to the output-goals binding. An entry is
+ * deleted only after the binder accepted it, so delivery is at-least-once: consumers may see an event
+ * twice after a crash. Only the instance holding the relay lease in goal_outbox_lease relays, renewing
+ * it before every batch; when it stops, another instance takes over once the lease expired. The lease
+ * must be well above the time one batch takes, or two instances can send the same batch.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "goal.outbox.enabled", havingValue = "true", matchIfMissing = true)
+public class OutboxRelay {
+
+    private static final SampledLogger LOG = SampledLogger.getLogger(OutboxRelay.class);
+
+    private final OutboxRepository outboxRepository;
+    private final GoalService.MessageSources messageSources;
+    private final int batchSize;
+    private final int parallelism;
+    private final Duration pollInterval;
+    private final Duration lease;
+    private final String holder = UUID.randomUUID().toString();
+
+    private final GoalSchedulers goalSchedulers;
+    private final AtomicLong lagMillis = new AtomicLong();
+    private final Counter relayed;
+    private final Counter failed;
+    private Disposable subscription;
+
+    public OutboxRelay(OutboxRepository outboxRepository, GoalService.MessageSources messageSources,
+                       MeterRegistry meterRegistry, GoalSchedulers goalSchedulers,
+                       @Value("${goal.outbox.batch-size:100}") int batchSize,
+                       @Value("${goal.outbox.parallelism:4}") int parallelism,
+                       @Value("${goal.outbox.poll-interval:500ms}") Duration pollInterval,
+                       @Value("${goal.outbox.lease:30s}") Duration lease) {
+        this.outboxRepository = outboxRepository;
+        this.messageSources = messageSources;
+        this.batchSize = batchSize;
+        this.parallelism = parallelism;
+        this.pollInterval = pollInterval;
+        this.lease = lease;
+        this.goalSchedulers = goalSchedulers;
+
+        meterRegistry.gauge("goal.outbox.lag.seconds", lagMillis, lag -> lag.get() / 1000.0);
+        this.relayed = meterRegistry.counter("goal.outbox.relayed");
+        this.failed = meterRegistry.counter("goal.outbox.failed");
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        subscription = Flux.interval(Duration.ZERO, pollInterval)
+                .onBackpressureDrop()
+                .concatMap(tick -> drain()
+                        .onErrorResume(throwable -> {
+                            log.error("Outbox relay failed {}", throwable.getMessage());
+                            return Mono.empty();
+                        }))
+                .subscribe();
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (subscription != null) {
+            subscription.dispose();
+        }
+    }
+
+    // keeps relaying full batches back to back until the outbox is caught up or the lease is lost
+    Mono<Integer> drain() {
+        return leasedBatch()
+                .expand(sent -> sent < batchSize ? Mono.empty() : leasedBatch())
+                .reduce(0, Integer::sum);
+    }
+
+    private Mono<Integer> leasedBatch() {
+        return outboxRepository.acquireRelayLease(holder, lease)
+                .flatMap(held -> held ? relayBatch() : Mono.just(0));
+    }
+
+    Mono<Integer> relayBatch() {
+        return outboxRepository.findAllByOrderByIdAsc(PageRequest.of(0, batchSize))
+                .collectList()
+                .flatMap(batch -> {
+                    lagMillis.set(batch.isEmpty() ? 0L
+                            : Duration.between(batch.get(0).getEventCreatedAt(), LocalDateTime.now()).toMillis());
+                    // events of the same goal stay in order, different goals are published in parallel. The
+                    // batch is grouped in memory: Flux.groupBy stalls once it holds more open groups than
+                    // flatMap subscribes to and its prefetch is full.
+                    Map<String, List<OutboxEvent>> byGoal = batch.stream()
+                            .collect(Collectors.groupingBy(OutboxEvent::getKey, LinkedHashMap::new,
+                                    Collectors.toList()));
+                    return Flux.fromIterable(byGoal.values())
+                            .flatMap(events -> Flux.fromIterable(events).concatMap(this::publish), parallelism)
+                            .collectList()
+                            .flatMap(this::delete)
+                            .map(sent -> batch.size());
+                });
+    }
+
+    private Mono<String> publish(OutboxEvent entry) {
+        return Mono.fromCallable(() -> messageSources.outputGoals()
+                .send(MessageBuilder.withPayload(entry.toEvent()).build()))
+                // the binder send blocks until the broker has the message
+                .subscribeOn(goalSchedulers.publish())
+                .onErrorResume(throwable -> {
+                    LOG.error(Context.empty(), "goal.event.relay.failed", "error", throwable.getMessage());
+                    return Mono.just(false);
+                })
+                .flatMap(sent -> {
+                    if (sent) {
+                        relayed.increment();
+                        return Mono.just(entry.getId());
+                    }
+                    // left in the outbox for the next poll
+                    failed.increment();
+                    return Mono.empty();
+                });
+    }
+
+    private Mono<Long> delete(List<String> sentIds) {
+        return sentIds.isEmpty() ? Mono.just(0L) : outboxRepository.deleteByIdIn(sentIds);
+    }
+}
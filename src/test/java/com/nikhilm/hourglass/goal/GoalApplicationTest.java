@@ -0,0 +1,88 @@
+package com.nikhilm.hourglass.goal;
+
+import com.nikhilm.hourglass.goal.model.Event;
+import com.nikhilm.hourglass.goal.model.Goal;
+import com.nikhilm.hourglass.goal.model.GoalStatus;
+import com.nikhilm.hourglass.goal.services.GoalService;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.cloud.stream.annotation.EnableBinding;
+import org.springframework.cloud.stream.binder.test.OutputDestination;
+import org.springframework.cloud.stream.binder.test.TestChannelBinderConfiguration;
+import org.springframework.cloud.stream.config.BindingServiceConfiguration;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.converter.MessageConverter;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.time.LocalDate;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class GoalApplicationTest {
+
+    MessageConverter converter = new GoalApplication().cborMessageConverter(Jackson2ObjectMapperBuilder.json());
+
+    @Test
+    public void testGoalEventsAsCbor() {
+        Goal goal = new Goal();
+        goal.setId("5f9a1c2e8b3e4a1d2c3b4a5e");
+        goal.setName("first goal");
+        goal.setStatus(GoalStatus.ACTIVE);
+        goal.setDueDate(LocalDate.of(2020, 12, 23));
+        Event<String, Goal> event = new Event<>(Event.Type.GOAL_ADDED, goal.getId(), goal);
+
+        Message<?> message = converter.toMessage(event,
+                new MessageHeaders(Map.of(MessageHeaders.CONTENT_TYPE, MediaType.APPLICATION_CBOR)));
+        Event<?, ?> read = (Event<?, ?>) converter.fromMessage(message, Event.class);
+
+        // a CBOR map (major type 5), not JSON text
+        assertEquals(5, (((byte[]) message.getPayload())[0] & 0xff) >> 5);
+        assertEquals(Event.Type.GOAL_ADDED, read.getEventType());
+        assertEquals(goal.getId(), read.getKey());
+        assertEquals(event.getEventCreatedAt(), read.getEventCreatedAt());
+    }
+
+    @Test
+    public void testJsonEventsAreLeftToTheDefaultConverter() {
+        Message<?> message = converter.toMessage(new Event<>(Event.Type.GOAL_ADDED, "a", new Goal()),
+                new MessageHeaders(Map.of(MessageHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON)));
+
+        assertNull(message);
+    }
+
+    @Test
+    public void testBindingPicksUpTheCborConverter() {
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(
+                TestChannelBinderConfiguration.getCompleteConfiguration(CborBinding.class))
+                .web(WebApplicationType.NONE)
+                .run("--spring.cloud.stream.defaultBinder=integration",
+                        "--spring.cloud.stream.bindings.output-goals.content-type=application/cbor")) {
+            context.getBean(GoalService.MessageSources.class).outputGoals()
+                    .send(MessageBuilder.withPayload(new Event<>(Event.Type.GOAL_ADDED, "a", new Goal())).build());
+
+            // Spring Cloud Stream has no CBOR converter of its own: this send fails without ours
+            Message<byte[]> sent = context.getBean(OutputDestination.class).receive(1000L);
+            assertEquals(5, (sent.getPayload()[0] & 0xff) >> 5);
+        }
+    }
+
+    // only the binding of the events, with the test binder in place of the broker
+    @ImportAutoConfiguration(BindingServiceConfiguration.class)
+    @EnableBinding(GoalService.MessageSources.class)
+    static class CborBinding {
+
+        @Bean
+        MessageConverter cborMessageConverter() {
+            return new GoalApplication().cborMessageConverter(Jackson2ObjectMapperBuilder.json());
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.nikhilm.hourglass.goal;
+
+import com.nikhilm.hourglass.goal.model.Goal;
+import com.nikhilm.hourglass.goal.model.GoalDTO;
+import com.nikhilm.hourglass.goal.model.GoalLevel;
+import com.nikhilm.hourglass.goal.model.GoalStatus;
+import com.nikhilm.hourglass.goal.model.OutboxEvent;
+import com.nikhilm.hourglass.goal.repositories.GoalIndexReconciler;
+import lombok.extern.slf4j.Slf4j;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.cloud.stream.binder.test.OutputDestination;
+import org.springframework.cloud.stream.binder.test.TestChannelBinderConfiguration;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Drives a mixed read/write workload through the HTTP API of the whole application, backed by embedded
+ * MongoDB and the in-process test binder instead of RabbitMQ, and logs latency percentiles and
+ * throughput per endpoint. Run with {@code mvn test -Pload}; the load.* properties below can be
+ * overridden with -D.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = "spring.cloud.stream.defaultBinder=" + TestChannelBinderConfiguration.NAME)
+@Import(TestChannelBinderConfiguration.class)
+@Tag("load")
+@Slf4j
+class GoalLoadTest {
+
+    enum Operation {
+        LIST("GET /goals"), ADD("POST /goal"), UPDATE("PUT /goal");
+
+        final String endpoint;
+
+        Operation(String endpoint) {
+            this.endpoint = endpoint;
+        }
+    }
+
+    @LocalServerPort
+    int port;
+
+    @Autowired
+    ReactiveMongoTemplate mongoTemplate;
+
+    @Autowired
+    GoalIndexReconciler goalIndexReconciler;
+
+    @Autowired
+    OutputDestination outputDestination;
+
+    @Value("${load.users:50}")
+    int users;
+
+    @Value("${load.goals-per-user:100}")
+    int goalsPerUser;
+
+    @Value("${load.warmup-requests:500}")
+    int warmupRequests;
+
+    @Value("${load.requests:5000}")
+    int requests;
+
+    @Value("${load.concurrency:32}")
+    int concurrency;
+
+    // the rest is split evenly between adds and updates
+    @Value("${load.read-ratio:0.8}")
+    double readRatio;
+
+    WebClient webClient;
+    Map<Operation, Histogram> latencies = new EnumMap<>(Operation.class);
+    Map<Operation, AtomicLong> serverErrors = new EnumMap<>(Operation.class);
+
+    @BeforeEach
+    public void setup() {
+        webClient = WebClient.create("http://localhost:" + port);
+        for (Operation operation : Operation.values()) {
+            latencies.put(operation, new ConcurrentHistogram(TimeUnit.SECONDS.toMicros(60L), 3));
+            serverErrors.put(operation, new AtomicLong());
+        }
+
+        mongoTemplate.dropCollection(Goal.class)
+                .then(mongoTemplate.dropCollection(OutboxEvent.class))
+                .then(goalIndexReconciler.reconcile())
+                .block();
+        Flux.range(0, users * goalsPerUser)
+                .map(i -> goal("load-user-" + (i / goalsPerUser), "goal " + (i % goalsPerUser), i))
+                .buffer(1000)
+                .concatMap(batch -> mongoTemplate.insert(batch, Goal.class))
+                .blockLast();
+        log.info("Seeded " + users + " users with " + goalsPerUser + " goals each");
+    }
+
+    @Test
+    public void testMixedWorkload() {
+        run(warmupRequests, false);
+        Duration elapsed = run(requests, true);
+        outputDestination.clear();
+
+        log.info(String.format("%d requests, %d concurrent, %.0f%% reads in %d ms",
+                requests, concurrency, readRatio * 100, elapsed.toMillis()));
+        log.info(String.format("%-12s %8s %8s %10s %10s %10s %10s", "endpoint", "requests", "5xx",
+                "req/s", "p50 ms", "p99 ms", "p999 ms"));
+        for (Operation operation : Operation.values()) {
+            Histogram histogram = latencies.get(operation);
+            log.info(String.format("%-12s %8d %8d %10.1f %10.2f %10.2f %10.2f", operation.endpoint,
+                    histogram.getTotalCount(), serverErrors.get(operation).get(),
+                    histogram.getTotalCount() * 1000.0 / elapsed.toMillis(),
+                    histogram.getValueAtPercentile(50.0) / 1000.0,
+                    histogram.getValueAtPercentile(99.0) / 1000.0,
+                    histogram.getValueAtPercentile(99.9) / 1000.0));
+        }
+
+        for (Operation operation : Operation.values()) {
+            assertEquals(0L, serverErrors.get(operation).get(), operation.endpoint + " returned server errors");
+        }
+    }
+
+    private Duration run(int count, boolean record) {
+        long start = System.nanoTime();
+        Flux.range(0, count)
+                .flatMap(i -> {
+                    Operation operation = nextOperation();
+                    long sent = System.nanoTime();
+                    return call(operation)
+                            .doOnNext(status -> {
+                                if (record) {
+                                    latencies.get(operation).recordValue(
+                                            TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - sent));
+                                    if (status.is5xxServerError()) {
+                                        serverErrors.get(operation).incrementAndGet();
+                                    }
+                                }
+                            });
+                }, concurrency)
+                .blockLast();
+        return Duration.ofNanos(System.nanoTime() - start);
+    }
+
+    private Operation nextOperation() {
+        double draw = ThreadLocalRandom.current().nextDouble();
+        if (draw < readRatio) {
+            return Operation.LIST;
+        }
+        return draw < readRatio + (1.0 - readRatio) / 2 ? Operation.ADD : Operation.UPDATE;
+    }
+
+    private Mono<HttpStatus> call(Operation operation) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String user = "load-user-" + random.nextInt(users);
+        WebClient.RequestHeadersSpec<?> request;
+        switch (operation) {
+            case ADD:
+                request = webClient.post().uri("/goal").header("user", user)
+                        .bodyValue(goalDTO("load goal " + UUID.randomUUID(), GoalStatus.ACTIVE));
+                break;
+            case UPDATE:
+                request = webClient.put().uri("/goal").header("user", user)
+                        .bodyValue(goalDTO("goal " + random.nextInt(goalsPerUser),
+                                GoalStatus.values()[random.nextInt(GoalStatus.values().length)]));
+                break;
+            default:
+                int page = 1 + random.nextInt(3);
+                request = webClient.get().uri(builder -> builder.path("/goals").queryParam("page", page).build())
+                        .header("user", user);
+        }
+        return request.exchange()
+                .flatMap(response -> response.releaseBody().thenReturn(response.statusCode()));
+    }
+
+    private Goal goal(String user, String name, int i) {
+        Goal goal = new Goal();
+        goal.setUserId(user);
+        goal.setName(name);
+        goal.setDescription("seeded goal " + i);
+        goal.setLevel(GoalLevel.values()[i % GoalLevel.values().length]);
+        goal.setStatus(GoalStatus.values()[i % GoalStatus.values().length]);
+        goal.setDueDate(LocalDate.now().plusDays(i % 365));
+        return goal;
+    }
+
+    private GoalDTO goalDTO(String name, GoalStatus status) {
+        GoalDTO goal = new GoalDTO();
+        goal.setName(name);
+        goal.setDescription("load test goal");
+        goal.setLevel(GoalLevel.MODERATE);
+        goal.setStatus(status);
+        goal.setDueDate(LocalDate.now().plusDays(30L));
+        return goal;
+    }
+}
@@ -0,0 +1,36 @@
+package com.nikhilm.hourglass.goal;
+
+import com.mongodb.reactivestreams.client.MongoClient;
+import com.mongodb.reactivestreams.client.MongoClients;
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.jackson.JacksonAutoConfiguration;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+
+import java.net.InetSocketAddress;
+
+/**
+ * A MongoDB server in the test JVM, so {@code @DataMongoTest} slices run in the default build without
+ * downloading mongod. Exclude EmbeddedMongoAutoConfiguration next to it. It has no $text search and no
+ * change streams; tests of those stay with the benchmark and load tests on embedded MongoDB.
+ * Jackson is there for the codec beans of {@link GoalApplication}, which every slice loads.
+ */
+@TestConfiguration
+@ImportAutoConfiguration(JacksonAutoConfiguration.class)
+public class InMemoryMongoConfiguration {
+
+    @Bean(destroyMethod = "shutdownNow")
+    MongoServer mongoServer() {
+        MongoServer mongoServer = new MongoServer(new MemoryBackend());
+        mongoServer.bind();
+        return mongoServer;
+    }
+
+    @Bean(destroyMethod = "close")
+    MongoClient reactiveStreamsMongoClient(MongoServer mongoServer) {
+        InetSocketAddress address = mongoServer.getLocalAddress();
+        return MongoClients.create("mongodb://" + address.getHostString() + ":" + address.getPort());
+    }
+}
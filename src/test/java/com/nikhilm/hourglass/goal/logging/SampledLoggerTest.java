@@ -0,0 +1,102 @@
+package com.nikhilm.hourglass.goal.logging;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+import reactor.util.context.Context;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SampledLoggerTest {
+
+    Logger logger = (Logger) LoggerFactory.getLogger(SampledLoggerTest.class);
+    ListAppender<ILoggingEvent> appender = new ListAppender<>();
+
+    @BeforeEach
+    public void setup() {
+        appender.start();
+        logger.addAppender(appender);
+        logger.setLevel(Level.DEBUG);
+    }
+
+    @AfterEach
+    public void teardown() {
+        logger.detachAppender(appender);
+        logger.setLevel(null);
+    }
+
+    @Test
+    public void testWritesKeyValuesWithCorrelationId() {
+        SampledLogger sampledLogger = new SampledLogger(logger, 10);
+
+        sampledLogger.warn(Context.of(SampledLogger.CORRELATION_ID, "request-1"), "goal.added", "goal", "g1");
+        sampledLogger.warn(Context.empty(), "goal.added", "goal", "g2");
+
+        assertEquals("event=goal.added correlationId=request-1 goal=g1", appender.list.get(0).getFormattedMessage());
+        assertEquals("event=goal.added correlationId=- goal=g2", appender.list.get(1).getFormattedMessage());
+    }
+
+    @Test
+    public void testNothingIsEvaluatedWhenLevelIsOff() {
+        logger.setLevel(Level.INFO);
+        SampledLogger sampledLogger = new SampledLogger(logger, 10);
+        AtomicInteger evaluated = new AtomicInteger();
+
+        StepVerifier.create(Flux.just("a", "b")
+                .doOnEach(sampledLogger.debugOnNext("goal.listed", "goal", goal -> evaluated.incrementAndGet())))
+                .expectNextCount(2L)
+                .verifyComplete();
+
+        assertEquals(0, evaluated.get());
+        assertTrue(appender.list.isEmpty());
+    }
+
+    @Test
+    public void testLinesOverBudgetAreSuppressedAndCounted() {
+        SampledLogger sampledLogger = new SampledLogger(logger, 2);
+
+        StepVerifier.create(Flux.range(1, 5)
+                .doOnEach(sampledLogger.debugOnNext("goal.listed", "goal", goal -> goal))
+                .subscriberContext(Context.of(SampledLogger.CORRELATION_ID, "request-1")))
+                .expectNextCount(5L)
+                .verifyComplete();
+
+        assertEquals(2, appender.list.size());
+        assertEquals("event=goal.listed correlationId=request-1 goal=2", appender.list.get(1).getFormattedMessage());
+
+        // the next line after the budget resets reports what was dropped
+        long started = System.nanoTime() / 1_000_000_000L;
+        while (System.nanoTime() / 1_000_000_000L == started) {
+            Thread.onSpinWait();
+        }
+        sampledLogger.warn(Context.empty(), "goal.listed", "goal", 6);
+
+        assertEquals("event=goal.listed correlationId=- goal=6 suppressed=3", appender.list.get(2).getFormattedMessage());
+    }
+
+    @Test
+    public void testConfiguredBudgetAppliesToExistingLoggers() {
+        SampledLogger sampledLogger = SampledLogger.getLogger(SampledLoggerTest.class);
+        new SampledLoggerConfigurer(2);
+        try {
+            for (int i = 0; i < 5; i++) {
+                sampledLogger.warn(Context.empty(), "goal.added", "goal", i);
+            }
+        } finally {
+            new SampledLoggerConfigurer(100);
+        }
+
+        // two per second, the loop may straddle two seconds
+        assertTrue(appender.list.size() <= 4);
+    }
+}
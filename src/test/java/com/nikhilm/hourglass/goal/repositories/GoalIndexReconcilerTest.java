@@ -0,0 +1,177 @@
+package com.nikhilm.hourglass.goal.repositories;
+
+import com.nikhilm.hourglass.goal.InMemoryMongoConfiguration;
+import com.nikhilm.hourglass.goal.model.Goal;
+import com.nikhilm.hourglass.goal.model.GoalStatus;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.mongo.embedded.EmbeddedMongoAutoConfiguration;
+import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.TextIndexDefinition;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@DataMongoTest(excludeAutoConfiguration = EmbeddedMongoAutoConfiguration.class)
+@Import({InMemoryMongoConfiguration.class, GoalReadRouting.class, SimpleMeterRegistry.class})
+class GoalIndexReconcilerTest {
+
+    @Autowired
+    ReactiveMongoTemplate mongoTemplate;
+
+    GoalIndexReconciler goalIndexReconciler = new GoalIndexReconciler();
+
+    @BeforeEach
+    public void setup() {
+        mongoTemplate.dropCollection(Goal.class).block();
+        mongoTemplate.dropCollection(Goal.ARCHIVE_COLLECTION).block();
+        goalIndexReconciler.mongoTemplate = mongoTemplate;
+    }
+
+    private Goal goal(String userId, String name) {
+        Goal goal = new Goal();
+        goal.setUserId(userId);
+        goal.setName(name);
+        goal.setStatus(GoalStatus.ACTIVE);
+        return goal;
+    }
+
+    private Map<String, Document> indexes(String collection) {
+        return mongoTemplate.getCollection(collection)
+                .flatMapMany(existing -> Flux.from(existing.listIndexes()))
+                .collectMap(index -> index.getString("name"))
+                .block();
+    }
+
+    @Test
+    public void testCreatesOnlyMissingIndexes() {
+        // the unique index exists under another name
+        mongoTemplate.indexOps(Goal.class).ensureIndex(new Index().on("userId", Sort.Direction.ASC)
+                .on("name", Sort.Direction.ASC).unique().named("user_goal_name")).block();
+
+        StepVerifier.create(goalIndexReconciler.reconcile())
+                .expectNextMatches(created -> created.size() == 5 && !created.contains("userId_name"))
+                .verifyComplete();
+
+        assertEquals(List.of("_id_", "status_completedOn", "userId_dueDate_id", "userId_status_dueDate",
+                "userId_text", "user_goal_name"),
+                indexes("goals").keySet().stream().sorted().collect(Collectors.toList()));
+        assertTrue(indexes(Goal.ARCHIVE_COLLECTION).containsKey("userId_dueDate_id"));
+
+        // a second run finds every index by its keys
+        StepVerifier.create(goalIndexReconciler.reconcile())
+                .expectNext(List.of())
+                .verifyComplete();
+    }
+
+    @Test
+    public void testDropsLegacyTextIndex() {
+        mongoTemplate.indexOps(Goal.class).ensureIndex(TextIndexDefinition.builder()
+                .onField("name").onField("description").named("Goal_TextIndex").build()).block();
+
+        StepVerifier.create(goalIndexReconciler.reconcile())
+                .expectNextMatches(created -> created.contains("userId_text"))
+                .verifyComplete();
+
+        Map<String, Document> indexes = indexes("goals");
+        assertFalse(indexes.containsKey("Goal_TextIndex"));
+        assertEquals(new Document("userId", 1).append("name", "text").append("description", "text"),
+                indexes.get("userId_text").get("key", Document.class));
+    }
+
+    @Test
+    public void testMatchesTextIndexesAsMongoDbListsThem() {
+        Document listed = new Document("userId", 1).append("_fts", "text").append("_ftsx", 1);
+        Document declared = new Document("userId", 1).append("name", "text").append("description", "text");
+
+        assertEquals(GoalIndexReconciler.keySpec(declared, null),
+                GoalIndexReconciler.keySpec(listed, new Document("description", 1).append("name", 1)));
+        assertFalse(GoalIndexReconciler.keySpec(declared, null)
+                .equals(GoalIndexReconciler.keySpec(new Document("_fts", "text").append("_ftsx", 1),
+                        new Document("description", 1).append("name", 1))));
+    }
+
+    @Test
+    public void testIndexBuildFailureDoesNotStopReconciliation() {
+        // duplicates keep the unique index from being built
+        mongoTemplate.insertAll(List.of(goal("abc", "first"), goal("abc", "first"))).blockLast();
+
+        StepVerifier.create(goalIndexReconciler.reconcile())
+                .expectNextMatches(created -> created.size() == 5 && !created.contains("userId_name"))
+                .verifyComplete();
+    }
+
+    private List<String> names() {
+        return mongoTemplate.findAll(Goal.class).map(Goal::getName).sort().collectList().block();
+    }
+
+    @Test
+    public void testCreatesUniqueIndexes() {
+        StepVerifier.create(goalIndexReconciler.createUniqueIndexes())
+                .expectNext(List.of("userId_name"))
+                .verifyComplete();
+
+        Map<String, Document> indexes = indexes("goals");
+        assertEquals(List.of("_id_", "userId_name"), indexes.keySet().stream().sorted().collect(Collectors.toList()));
+        assertEquals(Boolean.TRUE, indexes.get("userId_name").getBoolean("unique"));
+        // nothing is read or built once it exists
+        StepVerifier.create(goalIndexReconciler.createUniqueIndexes())
+                .expectNext(List.of())
+                .verifyComplete();
+    }
+
+    @Test
+    public void testRenamesDuplicateNamesBeforeTheUniqueIndex() {
+        mongoTemplate.insertAll(List.of(goal("abc", "first"), goal("abc", "first"), goal("xyz", "first")))
+                .blockLast();
+        Goal newest = mongoTemplate.insert(goal("abc", "first")).block();
+
+        StepVerifier.create(goalIndexReconciler.createUniqueIndexes())
+                .expectNext(List.of("userId_name"))
+                .verifyComplete();
+
+        assertEquals(List.of("first", "first", "first (2)", "first (3)"), names());
+        assertEquals("first", mongoTemplate.findById(newest.getId(), Goal.class).block().getName());
+        assertTrue(indexes("goals").containsKey("userId_name"));
+    }
+
+    @Test
+    public void testServesWithoutUniqueIndexWhenItCannotBeBuilt() {
+        // renaming the older duplicate collides with a goal already named like that
+        mongoTemplate.insertAll(List.of(goal("abc", "first"), goal("abc", "first"), goal("abc", "first (2)")))
+                .blockLast();
+
+        StepVerifier.create(goalIndexReconciler.createUniqueIndexes())
+                .expectNext(List.of())
+                .verifyComplete();
+
+        assertFalse(indexes("goals").containsKey("userId_name"));
+    }
+
+    @Test
+    public void testCreatesArchiveIndexesWithTtl() {
+        goalIndexReconciler.setArchiveTtl(Duration.ofDays(365L));
+
+        StepVerifier.create(goalIndexReconciler.reconcile())
+                .expectNextMatches(created -> created.containsAll(List.of("userId_dueDate_id", "archivedAt_ttl")))
+                .verifyComplete();
+
+        Document ttl = indexes(Goal.ARCHIVE_COLLECTION).get("archivedAt_ttl");
+        assertEquals(Duration.ofDays(365L).getSeconds(), ttl.get("expireAfterSeconds", Number.class).longValue());
+    }
+}
@@ -0,0 +1,70 @@
+package com.nikhilm.hourglass.goal.repositories;
+
+import com.mongodb.reactivestreams.client.MongoClient;
+import com.mongodb.reactivestreams.client.MongoClients;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.ReactiveMongoDatabaseFactory;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.SimpleReactiveMongoDatabaseFactory;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class GoalReadRoutingTest {
+
+    // the client connects lazily, so no server is needed to route
+    MongoClient mongoClient = MongoClients.create("mongodb://localhost:27017");
+    ReactiveMongoDatabaseFactory mongoDatabaseFactory = new SimpleReactiveMongoDatabaseFactory(mongoClient, "test");
+    ReactiveMongoTemplate mongoTemplate = new ReactiveMongoTemplate(mongoDatabaseFactory);
+    MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @AfterEach
+    public void teardown() {
+        mongoClient.close();
+    }
+
+    private GoalReadRouting routing(boolean secondaryEnabled, Duration readYourWritesWindow) {
+        return new GoalReadRouting(mongoTemplate, mongoDatabaseFactory, meterRegistry, secondaryEnabled,
+                Duration.ofSeconds(90L), readYourWritesWindow);
+    }
+
+    @Test
+    public void testReadsGoToTheSecondaryTemplate() {
+        GoalReadRouting routing = routing(true, Duration.ofMinutes(1L));
+
+        ReactiveMongoTemplate reads = routing.forReads("abc");
+        assertNotSame(mongoTemplate, reads);
+        assertSame(mongoTemplate.getConverter(), reads.getConverter());
+        assertSame(reads, routing.forReads("xyz"));
+        assertEquals(2.0, meterRegistry.counter("goal.reads", "target", "secondary").count());
+    }
+
+    @Test
+    public void testReadsAfterOwnWriteGoToThePrimary() throws InterruptedException {
+        GoalReadRouting routing = routing(true, Duration.ofMillis(200L));
+
+        routing.recordWrite("abc");
+        assertSame(mongoTemplate, routing.forReads("abc"));
+        // other users are not affected
+        assertNotSame(mongoTemplate, routing.forReads("xyz"));
+        assertEquals(1.0, meterRegistry.counter("goal.reads", "target", "primary").count());
+
+        Thread.sleep(300L);
+        assertNotSame(mongoTemplate, routing.forReads("abc"));
+    }
+
+    @Test
+    public void testDisabledReadsAlwaysGoToThePrimary() {
+        GoalReadRouting routing = routing(false, Duration.ofMinutes(1L));
+
+        assertSame(mongoTemplate, routing.forReads("abc"));
+        routing.recordWrite("abc");
+        assertSame(mongoTemplate, routing.forReads("abc"));
+    }
+}
@@ -0,0 +1,117 @@
+package com.nikhilm.hourglass.goal.repositories;
+
+import com.nikhilm.hourglass.goal.InMemoryMongoConfiguration;
+import com.nikhilm.hourglass.goal.model.BulkItemResult;
+import com.nikhilm.hourglass.goal.model.BulkOutcome;
+import com.nikhilm.hourglass.goal.model.Goal;
+import com.nikhilm.hourglass.goal.model.GoalStatus;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.mongo.embedded.EmbeddedMongoAutoConfiguration;
+import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.context.annotation.Import;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Bulk inserts and status updates against a real collection with its unique (userId, name) index.
+ */
+@DataMongoTest(excludeAutoConfiguration = EmbeddedMongoAutoConfiguration.class)
+@Import({InMemoryMongoConfiguration.class, GoalReadRouting.class, GoalIndexReconciler.class,
+        SimpleMeterRegistry.class})
+class GoalRepositoryBulkTest {
+
+    @Autowired
+    GoalRepository goalRepository;
+
+    @Autowired
+    GoalIndexReconciler goalIndexReconciler;
+
+    @BeforeEach
+    public void setup() {
+        goalRepository.deleteAll().block();
+        goalIndexReconciler.createUniqueIndexes().block();
+    }
+
+    private Goal goal(String userId, String name) {
+        Goal goal = new Goal();
+        goal.setUserId(userId);
+        goal.setName(name);
+        goal.setStatus(GoalStatus.ACTIVE);
+        return goal;
+    }
+
+    private Goal completed(String name, Long version) {
+        Goal goal = goal(null, name);
+        goal.setStatus(GoalStatus.COMPLETED);
+        goal.setCompletedOn(LocalDate.of(2021, 3, 1));
+        goal.setVersion(version);
+        return goal;
+    }
+
+    private List<BulkOutcome> outcomes(List<BulkItemResult> results) {
+        return results.stream().map(BulkItemResult::getOutcome).collect(Collectors.toList());
+    }
+
+    @Test
+    public void testInsertGoalsReportsDuplicatesWithinTheBatch() {
+        List<BulkItemResult> results = goalRepository.insertGoals(List.of(goal("abc", "first"), goal("abc", "second"),
+                goal("abc", "first"))).block();
+
+        assertEquals(List.of(BulkOutcome.CREATED, BulkOutcome.CREATED, BulkOutcome.CONFLICT), outcomes(results));
+        assertEquals(List.of("first", "second", "first"),
+                results.stream().map(BulkItemResult::getName).collect(Collectors.toList()));
+        assertEquals(2L, goalRepository.count().block());
+        assertEquals(results.get(0).getId(), goalRepository.findByNameAndUserId("first", "abc").block().getId());
+    }
+
+    @Test
+    public void testInsertGoalsReportsExistingGoals() {
+        goalRepository.insert(goal("abc", "first")).block();
+
+        List<BulkItemResult> results = goalRepository.insertGoals(List.of(goal("abc", "first"), goal("abc", "second"),
+                goal("xyz", "first"))).block();
+
+        // names are unique per user
+        assertEquals(List.of(BulkOutcome.CONFLICT, BulkOutcome.CREATED, BulkOutcome.CREATED), outcomes(results));
+        assertEquals(3L, goalRepository.count().block());
+    }
+
+    @Test
+    public void testUpdateStatusesReportsEachGoal() {
+        goalRepository.insert(List.of(goal("abc", "first"), goal("abc", "second"), goal("xyz", "third")))
+                .blockLast();
+
+        List<BulkItemResult> results = goalRepository.updateStatuses("abc", List.of(completed("first", 0L),
+                completed("missing", null), completed("second", 5L), completed("first", null),
+                completed("third", null))).block();
+
+        // a stale version and the same goal twice are conflicts, another user's goal is not found
+        assertEquals(List.of(BulkOutcome.UPDATED, BulkOutcome.NOT_FOUND, BulkOutcome.CONFLICT, BulkOutcome.CONFLICT,
+                BulkOutcome.NOT_FOUND), outcomes(results));
+        assertEquals(0L, results.get(0).getPrevious().getVersion());
+        assertEquals(1L, results.get(0).getGoal().getVersion());
+
+        Goal first = goalRepository.findByNameAndUserId("first", "abc").block();
+        assertEquals(GoalStatus.COMPLETED, first.getStatus());
+        assertEquals(1L, first.getVersion());
+        Goal second = goalRepository.findByNameAndUserId("second", "abc").block();
+        assertEquals(GoalStatus.ACTIVE, second.getStatus());
+        assertEquals(0L, second.getVersion());
+        assertEquals(GoalStatus.ACTIVE, goalRepository.findByNameAndUserId("third", "xyz").block().getStatus());
+    }
+
+    @Test
+    public void testUpdateStatusesWithNothingToUpdate() {
+        List<BulkItemResult> results = goalRepository.updateStatuses("abc", List.of(completed("missing", null)))
+                .block();
+
+        assertEquals(List.of(BulkOutcome.NOT_FOUND), outcomes(results));
+    }
+}
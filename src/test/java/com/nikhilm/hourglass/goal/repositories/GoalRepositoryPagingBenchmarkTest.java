@@ -0,0 +1,165 @@
+package com.nikhilm.hourglass.goal.repositories;
+
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandSucceededEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import com.nikhilm.hourglass.goal.model.CountMode;
+import com.nikhilm.hourglass.goal.model.Goal;
+import com.nikhilm.hourglass.goal.model.GoalQuery;
+import com.nikhilm.hourglass.goal.model.GoalResponse;
+import com.nikhilm.hourglass.goal.model.GoalStatus;
+import com.nikhilm.hourglass.goal.model.GoalSummaryResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.jackson.JacksonAutoConfiguration;
+import org.springframework.boot.autoconfigure.mongo.MongoClientSettingsBuilderCustomizer;
+import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import reactor.core.publisher.Flux;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+/**
+ * Compares the old application-side paging (stream every goal of the user, then filter/skip/take in
+ * Reactor) with the paging pushed down to MongoDB, and full pages with summary pages. Run with {@code mvn test -Pbenchmark}.
+ */
+@DataMongoTest
+@ImportAutoConfiguration(JacksonAutoConfiguration.class)
+@Import({GoalReadRouting.class, SimpleMeterRegistry.class})
+@Tag("benchmark")
+@Slf4j
+class GoalRepositoryPagingBenchmarkTest {
+
+    private static final String USER = "benchmark-user";
+    private static final int GOALS = 5000;
+    private static final int PAGE_SIZE = 5;
+    private static final int ITERATIONS = 20;
+
+    private static final AtomicLong wireBytes = new AtomicLong();
+
+    @Autowired
+    GoalRepository goalRepository;
+
+    @Autowired
+    ReactiveMongoTemplate mongoTemplate;
+
+    @TestConfiguration
+    static class WireBytesConfiguration {
+
+        @Bean
+        MongoClientSettingsBuilderCustomizer wireBytesCustomizer() {
+            return builder -> builder.addCommandListener(new CommandListener() {
+                @Override
+                public void commandSucceeded(CommandSucceededEvent event) {
+                    wireBytes.addAndGet(new RawBsonDocument(event.getResponse(), new BsonDocumentCodec())
+                            .getByteBuffer().remaining());
+                }
+            });
+        }
+    }
+
+    @BeforeEach
+    public void seed() {
+        goalRepository.deleteAll().block();
+        List<Goal> goals = IntStream.range(0, GOALS)
+                .mapToObj(i -> {
+                    Goal goal = new Goal();
+                    goal.setUserId(USER);
+                    goal.setName("goal " + i);
+                    goal.setDescription("benchmark goal number " + i);
+                    goal.setNotes(List.of("first note for " + i, "second note for " + i));
+                    goal.setStatus(GoalStatus.values()[i % GoalStatus.values().length]);
+                    goal.setDueDate(LocalDate.now().plusDays(i % 365));
+                    return goal;
+                })
+                .collect(Collectors.toList());
+        goalRepository.saveAll(goals).then().block();
+    }
+
+    @Test
+    public void comparePagingAtDifferentDepths() {
+        List<GoalStatus> statuses = List.of(GoalStatus.ACTIVE, GoalStatus.DEFERRED);
+        List<String> statusValues = statuses.stream().map(GoalStatus::getValue).collect(Collectors.toList());
+        GoalQuery query = new GoalQuery();
+        query.setUserId(USER);
+        query.setStatuses(statuses);
+
+        for (int page : new int[] {1, 10, 50, 200}) {
+            int offset = (page - 1) * PAGE_SIZE;
+
+            Result applicationSide = measure(() -> mongoTemplate.find(Query.query(where("userId").is(USER))
+                    .with(Sort.by("dueDate", "id")), Goal.class)
+                    .filter(goal -> statusValues.contains(goal.getStatus().getValue()))
+                    .skip(offset).take(PAGE_SIZE));
+            Result pushedDown = measure(() -> goalRepository.findGoalPage(query, PageRequest.of(page - 1, PAGE_SIZE),
+                    CountMode.NONE).flatMapIterable(GoalResponse::getGoals));
+
+            log.info(String.format("page %4d | application-side %9d bytes %8.2f ms | pushed-down %9d bytes %8.2f ms",
+                    page, applicationSide.bytes, applicationSide.millis, pushedDown.bytes, pushedDown.millis));
+            assertEquals(applicationSide.goals, pushedDown.goals);
+        }
+    }
+
+    @Test
+    public void compareFullAndSummaryPages() {
+        GoalQuery query = new GoalQuery();
+        query.setUserId(USER);
+
+        for (int pageSize : new int[] {5, 50, 500}) {
+            PageRequest pageable = PageRequest.of(0, pageSize);
+            Result full = measure(() -> goalRepository.findGoalPage(query, pageable, CountMode.EXACT)
+                    .flatMapIterable(GoalResponse::getGoals));
+            Result summary = measure(() -> goalRepository.findGoalSummaryPage(query, pageable, CountMode.EXACT)
+                    .flatMapIterable(GoalSummaryResponse::getGoals));
+
+            log.info(String.format("page size %4d | full %9d bytes %8.2f ms | summary %9d bytes %8.2f ms",
+                    pageSize, full.bytes, full.millis, summary.bytes, summary.millis));
+            assertEquals(full.goals, summary.goals);
+        }
+    }
+
+    private Result measure(Supplier<Flux<?>> query) {
+        // warm up the connection pool and the query plan cache
+        query.get().then().block();
+
+        long goals = 0;
+        wireBytes.set(0);
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            goals = query.get().count().block();
+        }
+        return new Result(goals, wireBytes.get() / ITERATIONS, (System.nanoTime() - start) / 1e6 / ITERATIONS);
+    }
+
+    private static class Result {
+        final long goals;
+        final long bytes;
+        final double millis;
+
+        Result(long goals, long bytes, double millis) {
+            this.goals = goals;
+            this.bytes = bytes;
+            this.millis = millis;
+        }
+    }
+}
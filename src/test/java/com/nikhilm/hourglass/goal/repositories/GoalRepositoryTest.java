@@ -0,0 +1,270 @@
+package com.nikhilm.hourglass.goal.repositories;
+
+import com.nikhilm.hourglass.goal.InMemoryMongoConfiguration;
+import com.nikhilm.hourglass.goal.model.CountMode;
+import com.nikhilm.hourglass.goal.model.Goal;
+import com.nikhilm.hourglass.goal.model.GoalCursor;
+import com.nikhilm.hourglass.goal.model.GoalQuery;
+import com.nikhilm.hourglass.goal.model.GoalResponse;
+import com.nikhilm.hourglass.goal.model.GoalStatus;
+import com.nikhilm.hourglass.goal.model.GoalSummary;
+import com.nikhilm.hourglass.goal.model.GoalSummaryResponse;
+import com.nikhilm.hourglass.goal.model.GoalUpdate;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.mongo.embedded.EmbeddedMongoAutoConfiguration;
+import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+/**
+ * Paging and updates against a real collection. Text search is not covered: the in-memory server has no $text.
+ */
+@DataMongoTest(excludeAutoConfiguration = EmbeddedMongoAutoConfiguration.class,
+        properties = "goal.count.estimate-limit=10")
+@Import({InMemoryMongoConfiguration.class, GoalReadRouting.class, SimpleMeterRegistry.class})
+class GoalRepositoryTest {
+
+    private static final String USER = "abc";
+    private static final int GOALS = 23;
+    private static final int PAGE_SIZE = 4;
+
+    @Autowired
+    GoalRepository goalRepository;
+
+    @Autowired
+    ReactiveMongoTemplate mongoTemplate;
+
+    // in (dueDate, id) order
+    List<Goal> goals;
+
+    @BeforeEach
+    public void seed() {
+        goalRepository.deleteAll().block();
+        mongoTemplate.dropCollection(Goal.ARCHIVE_COLLECTION).block();
+        // every fifth goal has no due date and sorts first; the others share due dates in threes
+        List<Goal> seeded = IntStream.range(0, GOALS)
+                .mapToObj(i -> goal(USER, "goal " + i, GoalStatus.values()[i % GoalStatus.values().length],
+                        i % 5 == 0 ? null : LocalDate.of(2020, 1, 1).plusDays(i / 3)))
+                .collect(Collectors.toList());
+        seeded.add(goal("xyz", "goal 0", GoalStatus.ACTIVE, null));
+        goals = goalRepository.insert(seeded).collectList().block().stream()
+                .filter(goal -> goal.getUserId().equals(USER))
+                .sorted(Comparator.comparing(Goal::getDueDate, Comparator.nullsFirst(Comparator.naturalOrder()))
+                        .thenComparing(Goal::getId))
+                .collect(Collectors.toList());
+    }
+
+    private Goal goal(String userId, String name, GoalStatus status, LocalDate dueDate) {
+        Goal goal = new Goal();
+        goal.setUserId(userId);
+        goal.setName(name);
+        goal.setStatus(status);
+        goal.setDueDate(dueDate);
+        return goal;
+    }
+
+    private GoalQuery query(List<GoalStatus> statuses) {
+        GoalQuery query = new GoalQuery();
+        query.setUserId(USER);
+        query.setStatuses(statuses);
+        return query;
+    }
+
+    private List<String> ids(List<Goal> goals) {
+        return goals.stream().map(Goal::getId).collect(Collectors.toList());
+    }
+
+    // every page after the first continues from the cursor of the one before
+    private List<String> walk(GoalQuery query, CountMode countMode, Long expectedTotal) {
+        List<String> seen = new ArrayList<>();
+        GoalResponse page = goalRepository.findGoalPage(query, PageRequest.of(0, PAGE_SIZE), countMode).block();
+        while (true) {
+            assertEquals(expectedTotal, page.getTotalgoals());
+            seen.addAll(ids(page.getGoals()));
+            if (page.getNextCursor() == null) {
+                return seen;
+            }
+            query.setCursor(GoalCursor.decode(page.getNextCursor()));
+            page = goalRepository.findGoalPage(query, PageRequest.of(0, PAGE_SIZE), countMode).block();
+        }
+    }
+
+    @Test
+    public void testCursorWalkVisitsEveryGoalOnceInOrder() {
+        assertEquals(ids(goals), walk(query(List.of()), CountMode.EXACT, (long) GOALS));
+    }
+
+    @Test
+    public void testCursorWalkWithStatusFilter() {
+        List<GoalStatus> statuses = List.of(GoalStatus.ACTIVE, GoalStatus.DEFERRED);
+        List<String> expected = ids(goals.stream().filter(goal -> statuses.contains(goal.getStatus()))
+                .collect(Collectors.toList()));
+
+        assertEquals(expected, walk(query(statuses), CountMode.EXACT, (long) expected.size()));
+    }
+
+    @Test
+    public void testCursorWalkCountModes() {
+        assertEquals(ids(goals), walk(query(List.of()), CountMode.NONE, null));
+        // capped at goal.count.estimate-limit
+        assertEquals(ids(goals), walk(query(List.of()), CountMode.ESTIMATED, 10L));
+    }
+
+    @Test
+    public void testOffsetPagesMatchTheCursorWalk() {
+        List<String> seen = new ArrayList<>();
+        for (int page = 0; page * PAGE_SIZE < GOALS; page++) {
+            GoalResponse response = goalRepository.findGoalPage(query(List.of()), PageRequest.of(page, PAGE_SIZE),
+                    CountMode.EXACT).block();
+            assertEquals(GOALS, response.getTotalgoals());
+            seen.addAll(ids(response.getGoals()));
+        }
+        assertEquals(ids(goals), seen);
+    }
+
+    @Test
+    public void testOffsetPageCountModes() {
+        PageRequest second = PageRequest.of(1, PAGE_SIZE);
+        GoalResponse exact = goalRepository.findGoalPage(query(List.of()), second, CountMode.EXACT).block();
+        GoalResponse estimated = goalRepository.findGoalPage(query(List.of()), second, CountMode.ESTIMATED).block();
+        GoalResponse none = goalRepository.findGoalPage(query(List.of()), second, CountMode.NONE).block();
+
+        assertEquals(GOALS, exact.getTotalgoals());
+        assertEquals(10L, estimated.getTotalgoals());
+        assertNull(none.getTotalgoals());
+        assertEquals(ids(goals.subList(PAGE_SIZE, 2 * PAGE_SIZE)), ids(exact.getGoals()));
+        assertEquals(ids(exact.getGoals()), ids(estimated.getGoals()));
+        assertEquals(ids(exact.getGoals()), ids(none.getGoals()));
+    }
+
+    @Test
+    public void testSummaryPagesFollowTheSameOrder() {
+        GoalQuery query = query(List.of(GoalStatus.COMPLETED));
+        List<String> expected = ids(goals.stream().filter(goal -> goal.getStatus() == GoalStatus.COMPLETED)
+                .collect(Collectors.toList()));
+        List<String> seen = new ArrayList<>();
+        GoalSummaryResponse page;
+        do {
+            page = goalRepository.findGoalSummaryPage(query, PageRequest.of(0, PAGE_SIZE), CountMode.EXACT).block();
+            assertEquals(expected.size(), page.getTotalgoals());
+            page.getGoals().stream().map(GoalSummary::getId).forEach(seen::add);
+            query.setCursor(page.getNextCursor() == null ? null : GoalCursor.decode(page.getNextCursor()));
+        } while (page.getNextCursor() != null);
+
+        assertEquals(expected, seen);
+    }
+
+    // archives the completed goals, which are a third of the goals in every part of the order
+    private List<String> archiveCompleted() {
+        mongoTemplate.updateMulti(new Query(where("status").is(GoalStatus.COMPLETED)),
+                new Update().set("completedOn", LocalDate.of(2020, 6, 1)), Goal.class).block();
+        return ids(goalRepository.archiveCompleted(LocalDate.of(2021, 1, 1), GOALS).block());
+    }
+
+    private GoalQuery withArchived(List<GoalStatus> statuses) {
+        GoalQuery query = query(statuses);
+        query.setIncludeArchived(true);
+        return query;
+    }
+
+    @Test
+    public void testArchivedGoalsAreWalkedWithTheRest() {
+        List<String> archived = archiveCompleted();
+
+        assertEquals(ids(goals.stream().filter(goal -> goal.getStatus() == GoalStatus.COMPLETED)
+                .collect(Collectors.toList())).stream().sorted().collect(Collectors.toList()),
+                archived.stream().sorted().collect(Collectors.toList()));
+        assertEquals(GOALS - archived.size(), walk(query(List.of()), CountMode.EXACT,
+                (long) (GOALS - archived.size())).size());
+        assertEquals(ids(goals), walk(withArchived(List.of()), CountMode.EXACT, (long) GOALS));
+        assertEquals(ids(goals), walk(withArchived(List.of()), CountMode.ESTIMATED, 10L));
+        assertEquals(archived.size(), mongoTemplate.count(new Query(), Goal.ARCHIVE_COLLECTION).block());
+    }
+
+    @Test
+    public void testArchivedGoalsInOffsetPagesAndStatusFilter() {
+        List<String> archived = archiveCompleted();
+
+        List<String> seen = new ArrayList<>();
+        for (int page = 0; page * PAGE_SIZE < GOALS; page++) {
+            GoalResponse response = goalRepository.findGoalPage(withArchived(List.of()),
+                    PageRequest.of(page, PAGE_SIZE), CountMode.EXACT).block();
+            assertEquals(GOALS, response.getTotalgoals());
+            seen.addAll(ids(response.getGoals()));
+        }
+        assertEquals(ids(goals), seen);
+
+        GoalResponse completed = goalRepository.findGoalPage(withArchived(List.of(GoalStatus.COMPLETED)),
+                PageRequest.of(0, GOALS), CountMode.EXACT).block();
+        assertEquals(archived.size(), completed.getTotalgoals());
+        assertEquals(archived.size(), completed.getGoals().size());
+    }
+
+    private Goal progress(Goal goal, Long version) {
+        Goal progress = goal(goal.getUserId(), goal.getName(), GoalStatus.COMPLETED, null);
+        progress.setCompletedOn(LocalDate.of(2021, 3, 1));
+        progress.setNotes(List.of("done"));
+        progress.setVotes(3);
+        progress.setVersion(version);
+        return progress;
+    }
+
+    @Test
+    public void testUpdateProgressReturnsTheGoalAsStored() {
+        Goal goal = goals.get(1);
+
+        GoalUpdate update = goalRepository.updateProgress(progress(goal, 0L)).block();
+
+        assertEquals(goal.getStatus(), update.getPrevious().getStatus());
+        assertEquals(0L, update.getPrevious().getVersion());
+        Goal stored = goalRepository.findById(goal.getId()).block();
+        assertEquals(1L, stored.getVersion());
+        assertEquals(stored.getVersion(), update.getCurrent().getVersion());
+        assertEquals(GoalStatus.COMPLETED, update.getCurrent().getStatus());
+        assertEquals(stored.getCompletedOn(), update.getCurrent().getCompletedOn());
+        assertEquals(List.of("done"), update.getCurrent().getNotes());
+        assertEquals(3, update.getCurrent().getVotes());
+        // the fields the update leaves alone come from the database
+        assertEquals(goal.getDueDate(), update.getCurrent().getDueDate());
+    }
+
+    @Test
+    public void testUpdateProgressWithStaleVersionChangesNothing() {
+        Goal goal = goals.get(1);
+        goalRepository.updateProgress(progress(goal, 0L)).block();
+
+        assertNull(goalRepository.updateProgress(progress(goal, 0L)).block());
+        assertEquals(1L, goalRepository.findById(goal.getId()).block().getVersion());
+    }
+
+    @Test
+    public void testUpdateProgressWithoutVersion() {
+        Goal goal = goals.get(1);
+        // written before goals had versions
+        mongoTemplate.updateFirst(new Query(where("id").is(goal.getId())), new Update().unset("version"), Goal.class)
+                .block();
+
+        GoalUpdate update = goalRepository.updateProgress(progress(goal, null)).block();
+
+        assertNull(update.getPrevious().getVersion());
+        assertEquals(1L, update.getCurrent().getVersion());
+        assertEquals(2L, goalRepository.updateProgress(progress(goal, null)).block().getCurrent().getVersion());
+    }
+}
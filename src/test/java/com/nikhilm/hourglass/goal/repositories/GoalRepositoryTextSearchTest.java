@@ -0,0 +1,106 @@
+package com.nikhilm.hourglass.goal.repositories;
+
+import com.nikhilm.hourglass.goal.model.CountMode;
+import com.nikhilm.hourglass.goal.model.Goal;
+import com.nikhilm.hourglass.goal.model.GoalQuery;
+import com.nikhilm.hourglass.goal.model.GoalResponse;
+import com.nikhilm.hourglass.goal.model.GoalStatus;
+import com.nikhilm.hourglass.goal.model.GoalSummary;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.jackson.JacksonAutoConfiguration;
+import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import reactor.core.publisher.Flux;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * $text search against a real mongod, which the in-memory server of the default build does not implement.
+ * Run with {@code mvn test -Pmongod}.
+ */
+@DataMongoTest
+@ImportAutoConfiguration(JacksonAutoConfiguration.class)
+@Import({GoalReadRouting.class, GoalIndexReconciler.class, SimpleMeterRegistry.class})
+@Tag("mongod")
+class GoalRepositoryTextSearchTest {
+
+    @Autowired
+    GoalRepository goalRepository;
+
+    @Autowired
+    ReactiveMongoTemplate mongoTemplate;
+
+    @Autowired
+    GoalIndexReconciler goalIndexReconciler;
+
+    @BeforeEach
+    public void seed() {
+        mongoTemplate.dropCollection(Goal.class).block();
+        goalIndexReconciler.reconcile().block();
+        goalRepository.insert(List.of(
+                goal("abc", "morning walk", "a walk and a short run after it"),
+                goal("abc", "run", "run every day, run further every week"),
+                goal("abc", "read", "a book a month"),
+                // matches best, but is another user's
+                goal("xyz", "run run", "run run run"))).blockLast();
+    }
+
+    private Goal goal(String userId, String name, String description) {
+        Goal goal = new Goal();
+        goal.setUserId(userId);
+        goal.setName(name);
+        goal.setDescription(description);
+        goal.setStatus(GoalStatus.ACTIVE);
+        return goal;
+    }
+
+    private GoalQuery search(String text) {
+        GoalQuery query = new GoalQuery();
+        query.setUserId("abc");
+        query.setStatuses(List.of());
+        query.setText(text);
+        return query;
+    }
+
+    @Test
+    public void testPagesOfTheUserByScore() {
+        GoalResponse page = goalRepository.findGoalPage(search("run"), PageRequest.of(0, 10), CountMode.EXACT).block();
+
+        assertEquals(2L, page.getTotalgoals());
+        assertEquals(List.of("run", "morning walk"),
+                page.getGoals().stream().map(Goal::getName).collect(Collectors.toList()));
+        assertEquals(List.of("run", "morning walk"),
+                goalRepository.findGoalSummaryPage(search("run"), PageRequest.of(0, 10), CountMode.NONE).block()
+                        .getGoals().stream().map(GoalSummary::getName).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testStreamsMatchesOfTheUser() {
+        assertEquals(List.of("morning walk", "run"), goalRepository.streamGoals(search("run"))
+                .map(Goal::getName)
+                .sort()
+                .collectList()
+                .block());
+    }
+
+    @Test
+    public void testTextIndexIsPrefixedByUser() {
+        Document textIndex = mongoTemplate.getCollection(mongoTemplate.getCollectionName(Goal.class))
+                .flatMapMany(collection -> Flux.from(collection.listIndexes()))
+                .filter(index -> "userId_text".equals(index.getString("name")))
+                .blockFirst();
+
+        assertEquals(List.of("userId", "_fts", "_ftsx"), List.copyOf(textIndex.get("key", Document.class).keySet()));
+    }
+}
@@ -0,0 +1,69 @@
+package com.nikhilm.hourglass.goal.repositories;
+
+import com.nikhilm.hourglass.goal.InMemoryMongoConfiguration;
+import com.nikhilm.hourglass.goal.model.Goal;
+import com.nikhilm.hourglass.goal.model.GoalStats;
+import com.nikhilm.hourglass.goal.model.GoalStatus;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.mongo.embedded.EmbeddedMongoAutoConfiguration;
+import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import reactor.test.StepVerifier;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@DataMongoTest(excludeAutoConfiguration = EmbeddedMongoAutoConfiguration.class)
+@Import({InMemoryMongoConfiguration.class, GoalReadRouting.class, SimpleMeterRegistry.class})
+class GoalStatsRepositoryTest {
+
+    @Autowired
+    GoalStatsRepository goalStatsRepository;
+
+    @Autowired
+    ReactiveMongoTemplate mongoTemplate;
+
+    @BeforeEach
+    public void setup() {
+        mongoTemplate.dropCollection(Goal.class).block();
+        mongoTemplate.dropCollection(Goal.ARCHIVE_COLLECTION).block();
+        goalStatsRepository.deleteAll().block();
+    }
+
+    private Goal goal(String userId, String name, GoalStatus status) {
+        Goal goal = new Goal();
+        goal.setUserId(userId);
+        goal.setName(name);
+        goal.setStatus(status);
+        return goal;
+    }
+
+    @Test
+    public void testFindsUsersOfGoalsAndArchivedGoals() {
+        mongoTemplate.insertAll(List.of(goal("def", "first", GoalStatus.ACTIVE),
+                goal("abc", "first", GoalStatus.ACTIVE), goal("abc", "second", GoalStatus.DEFERRED))).blockLast();
+        // ghi has archived goals only
+        mongoTemplate.insert(List.of(goal("ghi", "first", GoalStatus.COMPLETED),
+                goal("def", "second", GoalStatus.COMPLETED)), Goal.ARCHIVE_COLLECTION).blockLast();
+
+        StepVerifier.create(goalStatsRepository.findUserIds())
+                .expectNext("abc", "def", "ghi")
+                .verifyComplete();
+    }
+
+    @Test
+    public void testRebuildCountsArchivedGoals() {
+        mongoTemplate.insert(List.of(goal("ghi", "first", GoalStatus.COMPLETED),
+                goal("ghi", "second", GoalStatus.COMPLETED)), Goal.ARCHIVE_COLLECTION).blockLast();
+
+        GoalStats stats = goalStatsRepository.rebuild("ghi").block();
+
+        assertEquals(2L, stats.getTotal());
+        assertEquals(2L, stats.getByStatus().get(GoalStatus.COMPLETED.name()));
+    }
+}
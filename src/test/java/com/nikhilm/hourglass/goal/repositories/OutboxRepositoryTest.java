@@ -0,0 +1,56 @@
+package com.nikhilm.hourglass.goal.repositories;
+
+import com.nikhilm.hourglass.goal.InMemoryMongoConfiguration;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.mongo.embedded.EmbeddedMongoAutoConfiguration;
+import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.Duration;
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@DataMongoTest(excludeAutoConfiguration = EmbeddedMongoAutoConfiguration.class)
+@Import({InMemoryMongoConfiguration.class, GoalReadRouting.class, SimpleMeterRegistry.class})
+class OutboxRepositoryTest {
+
+    private static final Duration LEASE = Duration.ofSeconds(30L);
+
+    @Autowired
+    OutboxRepository outboxRepository;
+
+    @Autowired
+    ReactiveMongoTemplate mongoTemplate;
+
+    @BeforeEach
+    public void setup() {
+        mongoTemplate.dropCollection(OutboxRepositoryImpl.LEASE_COLLECTION).block();
+    }
+
+    @Test
+    public void testOneHolderAtATime() {
+        assertEquals(true, outboxRepository.acquireRelayLease("first", LEASE).block());
+        assertEquals(false, outboxRepository.acquireRelayLease("second", LEASE).block());
+        // the holder renews its own lease
+        assertEquals(true, outboxRepository.acquireRelayLease("first", LEASE).block());
+        assertEquals(false, outboxRepository.acquireRelayLease("second", LEASE).block());
+    }
+
+    @Test
+    public void testExpiredLeaseIsTakenOver() {
+        outboxRepository.acquireRelayLease("first", LEASE).block();
+        // the first holder stopped renewing
+        mongoTemplate.updateFirst(new Query(), new Update().set("expiresAt", new Date(0L)),
+                OutboxRepositoryImpl.LEASE_COLLECTION).block();
+
+        assertEquals(true, outboxRepository.acquireRelayLease("second", LEASE).block());
+        assertEquals(false, outboxRepository.acquireRelayLease("first", LEASE).block());
+    }
+}
@@ -0,0 +1,88 @@
+package com.nikhilm.hourglass.goal.repositories;
+
+import com.nikhilm.hourglass.goal.model.Goal;
+import com.nikhilm.hourglass.goal.model.GoalQuery;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.beans.factory.ObjectProvider;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+
+@ExtendWith(MockitoExtension.class)
+class RepositoryMetricsPostProcessorTest {
+
+    MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Mock
+    ObjectProvider<MeterRegistry> meterRegistryProvider;
+
+    @Mock
+    GoalRepository goalRepository;
+
+    RepositoryMetricsPostProcessor postProcessor;
+
+    @BeforeEach
+    public void setup() {
+        postProcessor = new RepositoryMetricsPostProcessor(meterRegistryProvider);
+    }
+
+    @Test
+    public void testTimesRepositoryCallsByOutcome() {
+        Mockito.when(meterRegistryProvider.getIfAvailable()).thenReturn(meterRegistry);
+        Mockito.when(goalRepository.findByNameAndUserId(anyString(), anyString()))
+                .thenReturn(Mono.just(new Goal()))
+                .thenReturn(Mono.error(new RuntimeException("timeout")));
+        Mockito.when(goalRepository.streamGoals(any(GoalQuery.class)))
+                .thenReturn(Flux.just(new Goal(), new Goal()));
+
+        GoalRepository instrumented = (GoalRepository) postProcessor.postProcessAfterInitialization(goalRepository,
+                "goalRepository");
+
+        StepVerifier.create(instrumented.findByNameAndUserId("first goal", "abc")).expectNextCount(1L)
+                .verifyComplete();
+        StepVerifier.create(instrumented.findByNameAndUserId("first goal", "abc")).verifyError();
+        StepVerifier.create(instrumented.streamGoals(new GoalQuery())).expectNextCount(2L).verifyComplete();
+
+        assertEquals(1L, timerCount("findByNameAndUserId", "success"));
+        assertEquals(1L, timerCount("findByNameAndUserId", "error"));
+        assertEquals(1L, timerCount("streamGoals", "success"));
+    }
+
+    @Test
+    public void testNothingIsRecordedBeforeSubscription() {
+        Mockito.when(goalRepository.findByNameAndUserId(anyString(), anyString())).thenReturn(Mono.just(new Goal()));
+        GoalRepository instrumented = (GoalRepository) postProcessor.postProcessAfterInitialization(goalRepository,
+                "goalRepository");
+
+        instrumented.findByNameAndUserId("first goal", "abc");
+
+        assertEquals(0, meterRegistry.find("goal.repository").timers().size());
+    }
+
+    @Test
+    public void testOtherBeansAreLeftAlone() {
+        Object bean = new Object();
+
+        assertSame(bean, postProcessor.postProcessAfterInitialization(bean, "other"));
+    }
+
+    private long timerCount(String method, String outcome) {
+        return meterRegistry.get("goal.repository")
+                .tag("repository", "GoalRepository")
+                .tag("method", method)
+                .tag("outcome", outcome)
+                .timer().count();
+    }
+}
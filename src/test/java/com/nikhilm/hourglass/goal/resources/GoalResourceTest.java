@@ -3,28 +3,51 @@ package com.nikhilm.hourglass.goal.resources;
 import com.nikhilm.hourglass.goal.exceptions.ApiError;
 import com.nikhilm.hourglass.goal.exceptions.GoalException;
 import com.nikhilm.hourglass.goal.model.*;
+import com.nikhilm.hourglass.goal.services.GoalChangeFeed;
 import com.nikhilm.hourglass.goal.services.GoalMapper;
 import com.nikhilm.hourglass.goal.services.GoalService;
+import com.nikhilm.hourglass.goal.services.GoalVersions;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mapstruct.Mapper;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.reactive.WebFluxTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
 
 import java.time.LocalDate;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 
 @WebFluxTest
+// the slice has no actuator, and UserRateLimitFilter counts shed requests
+@Import(SimpleMeterRegistry.class)
 @Slf4j
 class GoalResourceTest {
 
@@ -37,6 +60,17 @@ class GoalResourceTest {
     @MockBean
     GoalMapper goalMapper;
 
+    @MockBean
+    GoalChangeFeed goalChangeFeed;
+
+    @Autowired
+    BulkheadRegistry bulkheadRegistry;
+
+    @BeforeEach
+    public void setup() {
+        Mockito.when(goalService.fetchGoalsVersion(anyString())).thenReturn(Mono.just(3L));
+    }
+
     @Test
     public void testGetGoals()  {
 
@@ -53,10 +87,9 @@ class GoalResourceTest {
         goalResponse.setTotalgoals(1L);
         goalResponse.getGoals().add(goal);
 
-        Mockito.when(goalService.fetchGoals(any(Optional.class), any(Optional.class),
-            any(List.class), eq("abc"))).thenReturn(Mono.just(goalResponse));
+        Mockito.when(goalService.fetchGoalPage(any(Optional.class), any(Optional.class), any(Optional.class),
+            any(List.class), eq("abc"), eq(CountMode.EXACT), anyBoolean(), eq(3L))).thenReturn(Mono.just(goalResponse));
 
-        Mockito.when(goalService.findTotalGoalCount("abc")).thenReturn(Mono.just(1L));
         GoalResponse response = webTestClient.get().uri("http://localhost:9000/goals")
                 .header("user", "abc")
                 .exchange()
@@ -68,13 +101,132 @@ class GoalResourceTest {
         assertTrue(response.getGoals().stream()
                 .anyMatch(goal1 -> goal1.getName().equalsIgnoreCase("first goal")));
     }
+    @Test
+    public void testCorrelationIdIsEchoed()  {
+
+        Mockito.when(goalService.fetchGoalPage(any(Optional.class), any(Optional.class), any(Optional.class),
+                any(List.class), eq("abc"), eq(CountMode.EXACT), anyBoolean(), eq(3L)))
+                .thenReturn(Mono.just(new GoalResponse()));
+
+        webTestClient.get().uri("http://localhost:9000/goals")
+                .header("user", "abc")
+                .header(CorrelationIdFilter.CORRELATION_ID_HEADER, "request-1")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals(CorrelationIdFilter.CORRELATION_ID_HEADER, "request-1");
+
+        webTestClient.get().uri("http://localhost:9000/goals")
+                .header("user", "abc")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().exists(CorrelationIdFilter.CORRELATION_ID_HEADER);
+    }
+
+    @Test
+    public void testStreamGoalsAsNdjson()  {
+
+        Goal goal = new Goal();
+        goal.setUserId("abc");
+        goal.setName("first goal");
+        Goal goal1 = new Goal();
+        goal1.setUserId("abc");
+        goal1.setName("second goal");
+
+        Mockito.when(goalService.streamGoals(any(Optional.class), eq(List.of("A")), eq("abc"), eq(false)))
+                .thenReturn(Flux.just(goal, goal1));
+
+        String body = webTestClient.get().uri("http://localhost:9000/goals/stream?status=a")
+                .header("user", "abc")
+                .accept(GoalResource.APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(GoalResource.APPLICATION_NDJSON)
+                .expectBody(String.class)
+                .returnResult()
+                .getResponseBody();
+
+        String[] lines = body.trim().split("\n");
+        assertEquals(2, lines.length);
+        assertTrue(lines[0].contains("\"name\":\"first goal\""));
+        assertTrue(lines[1].contains("\"name\":\"second goal\""));
+    }
+
+    @Test
+    public void testStreamGoalsAsServerSentEvents()  {
+
+        Goal goal = new Goal();
+        goal.setUserId("abc");
+        goal.setName("first goal");
+
+        Mockito.when(goalService.streamGoals(any(Optional.class), any(List.class), eq("abc"), eq(false)))
+                .thenReturn(Flux.just(goal));
+
+        Flux<Goal> goals = webTestClient.get().uri("http://localhost:9000/goals/stream")
+                .header("user", "abc")
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(Goal.class)
+                .getResponseBody();
+
+        StepVerifier.create(goals)
+                .expectNextMatches(goal1 -> goal1.getName().equals("first goal"))
+                .verifyComplete();
+    }
+
+    @Test
+    public void testStreamGoalsInvalidStatus()  {
+
+        webTestClient.get().uri("http://localhost:9000/goals/stream?status=X")
+                .header("user", "abc")
+                .accept(GoalResource.APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    public void testGetGoalsIncludingArchived()  {
+        Goal goal = new Goal();
+        goal.setUserId("abc");
+        goal.setName("archived goal");
+        goal.setStatus(GoalStatus.COMPLETED);
+        GoalResponse goalResponse = new GoalResponse(List.of(goal), 1L);
+
+        Mockito.when(goalService.fetchGoalPage(any(Optional.class), any(Optional.class), any(Optional.class),
+                any(List.class), eq("abc"), eq(CountMode.EXACT), eq(true), eq(3L)))
+                .thenReturn(Mono.just(goalResponse));
+
+        webTestClient.get().uri("http://localhost:9000/goals?includeArchived=true")
+                .header("user", "abc")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals(HttpHeaders.ETAG, GoalResource.goalsETag("abc", 3L, GoalView.FULL,
+                        Optional.empty(), Optional.empty(), Optional.empty(), List.of(), CountMode.EXACT, true))
+                .expectBody()
+                .jsonPath("$.goals[0].name").isEqualTo("archived goal");
+    }
+
+    @Test
+    public void testSearchIncludingArchivedIsRejected()  {
+        webTestClient.get().uri("http://localhost:9000/goals?search=first&includeArchived=true")
+                .header("user", "abc")
+                .exchange()
+                .expectStatus().isBadRequest();
+
+        webTestClient.get().uri("http://localhost:9000/goals/stream?search=first&includeArchived=true")
+                .header("user", "abc")
+                .accept(GoalResource.APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
     @Test
     public void testGetGoalsError()  {
 
-        Mockito.when(goalService.fetchGoals(any(Optional.class), any(Optional.class),
-                any(List.class), eq("abc"))).thenReturn(Mono.error(new RuntimeException()));
+        Mockito.when(goalService.fetchGoalPage(any(Optional.class), any(Optional.class), any(Optional.class),
+                any(List.class), eq("abc"), any(CountMode.class), anyBoolean(), anyLong()))
+                .thenReturn(Mono.error(new RuntimeException()));
 
-        Mockito.when(goalService.findTotalGoalCount("abc")).thenReturn(Mono.just(1L));
         webTestClient.get().uri("http://localhost:9000/goals")
                 .header("user", "abc")
                 .exchange()
@@ -99,10 +251,10 @@ class GoalResourceTest {
         goalResponse.setTotalgoals(1L);
         goalResponse.getGoals().add(goal);
 
-        Mockito.when(goalService.fetchGoals(eq(Optional.of("first")), any(Optional.class),
-                any(List.class), eq("abc"))).thenReturn(Mono.just(goalResponse));
+        Mockito.when(goalService.fetchGoalPage(eq(Optional.of("first")), any(Optional.class), any(Optional.class),
+                any(List.class), eq("abc"), eq(CountMode.EXACT), anyBoolean(), eq(3L)))
+                .thenReturn(Mono.just(goalResponse));
 
-        Mockito.when(goalService.findTotalGoalCount("abc")).thenReturn(Mono.just(1L));
         GoalResponse response = webTestClient.get().uri("http://localhost:9000/goals?search=first")
                 .header("user", "abc")
                 .exchange()
@@ -145,13 +297,13 @@ class GoalResourceTest {
         goal2.setLevel(GoalLevel.EXTREME);
 
         GoalResponse goalResponse = new GoalResponse();
-        goalResponse.setTotalgoals(1L);
+        goalResponse.setTotalgoals(3L);
         goalResponse.getGoals().addAll(Arrays.asList(goal, goal1));
 
-        Mockito.when(goalService.fetchGoals(any(Optional.class), any(Optional.class),
-                any(List.class), eq("abc"))).thenReturn(Mono.just(goalResponse));
+        Mockito.when(goalService.fetchGoalPage(any(Optional.class), any(Optional.class), any(Optional.class),
+                any(List.class), eq("abc"), any(CountMode.class), anyBoolean(), anyLong()))
+                .thenReturn(Mono.just(goalResponse));
 
-        Mockito.when(goalService.findTotalGoalCount("abc")).thenReturn(Mono.just(3L));
         GoalResponse response = webTestClient.get().uri("http://localhost:9000/goals?page=1")
                 .header("user", "abc")
                 .exchange()
@@ -180,10 +332,9 @@ class GoalResourceTest {
         goalResponse.setTotalgoals(1L);
         goalResponse.getGoals().add(goal);
 
-        Mockito.when(goalService.fetchGoals(Optional.empty(), Optional.empty(),
-                List.of("A", "D"), "abc")).thenReturn(Mono.just(goalResponse));
+        Mockito.when(goalService.fetchGoalPage(Optional.empty(), Optional.empty(), Optional.empty(),
+                List.of("A", "D"), "abc", CountMode.EXACT, false, 3L)).thenReturn(Mono.just(goalResponse));
 
-        Mockito.when(goalService.findTotalGoalCount("abc")).thenReturn(Mono.just(1L));
         GoalResponse response = webTestClient.get().uri("http://localhost:9000/goals?status=A,D")
                 .header("user", "abc")
                 .exchange()
@@ -196,6 +347,86 @@ class GoalResourceTest {
                 .anyMatch(goal1 -> goal1.getName().equalsIgnoreCase("first goal")));
     }
 
+    @Test
+    public void testGetGoalsWithoutCount()  {
+
+        Goal goal = new Goal();
+        goal.setUserId("abc");
+        goal.setName("first goal");
+        goal.setStatus(GoalStatus.ACTIVE);
+
+        Mockito.when(goalService.fetchGoalPage(any(Optional.class), any(Optional.class), any(Optional.class),
+                any(List.class), eq("abc"), eq(CountMode.NONE), anyBoolean(), eq(3L)))
+                .thenReturn(Mono.just(new GoalResponse(List.of(goal), null)));
+
+        GoalResponse response = webTestClient.get().uri("http://localhost:9000/goals?count=none")
+                .header("user", "abc")
+                .exchange()
+                .expectBody(GoalResponse.class)
+                .returnResult()
+                .getResponseBody();
+
+        assertNull(response.getTotalgoals());
+        assertEquals(1, response.getGoals().size());
+    }
+
+    @Test
+    public void testGetGoalsAfterCursor()  {
+
+        Goal goal = new Goal();
+        goal.setId("5f9a1c2e8b3e4a1d2c3b4a5f");
+        goal.setUserId("abc");
+        goal.setName("second goal");
+        goal.setStatus(GoalStatus.ACTIVE);
+        goal.setDueDate(LocalDate.of(2020, 12, 24));
+
+        GoalResponse goalResponse = new GoalResponse(List.of(goal), null);
+        goalResponse.setNextCursor(GoalCursor.after(goal).encode());
+
+        String cursor = new GoalCursor(LocalDate.of(2020, 12, 23), "5f9a1c2e8b3e4a1d2c3b4a5e").encode();
+        ArgumentCaptor<Optional<GoalCursor>> cursorCaptor = ArgumentCaptor.forClass(Optional.class);
+
+        Mockito.when(goalService.fetchGoalPage(any(Optional.class), any(Optional.class), cursorCaptor.capture(),
+                any(List.class), eq("abc"), eq(CountMode.NONE), anyBoolean(), eq(3L)))
+                .thenReturn(Mono.just(goalResponse));
+
+        GoalResponse response = webTestClient.get().uri("http://localhost:9000/goals?cursor=" + cursor)
+                .header("user", "abc")
+                .exchange()
+                .expectBody(GoalResponse.class)
+                .returnResult()
+                .getResponseBody();
+
+        assertEquals(goalResponse.getNextCursor(), response.getNextCursor());
+        assertEquals(LocalDate.of(2020, 12, 23), cursorCaptor.getValue().get().getDueDate());
+        assertEquals("5f9a1c2e8b3e4a1d2c3b4a5e", cursorCaptor.getValue().get().getId());
+    }
+
+    @Test
+    public void testInvalidCursorInput()  {
+        webTestClient.get().uri("http://localhost:9000/goals?cursor=not-a-cursor")
+                .header("user", "abc")
+                .exchange()
+                .expectStatus()
+                .isBadRequest();
+
+        String cursor = new GoalCursor(null, "5f9a1c2e8b3e4a1d2c3b4a5e").encode();
+        webTestClient.get().uri("http://localhost:9000/goals?page=2&cursor=" + cursor)
+                .header("user", "abc")
+                .exchange()
+                .expectStatus()
+                .isBadRequest();
+    }
+
+    @Test
+    public void testInvalidCountInput()  {
+        webTestClient.get().uri("http://localhost:9000/goals?count=maybe")
+                .header("user", "abc")
+                .exchange()
+                .expectStatus()
+                .isBadRequest();
+    }
+
     @Test
     public void testInvalidPageInput()  {
         ApiError apiError = webTestClient.get().uri("http://localhost:9000/goals?page=-1")
@@ -342,6 +573,24 @@ class GoalResourceTest {
                 .is4xxClientError();
     }
 
+    @Test
+    public void updateGoalConflict() {
+        Goal goal = new Goal();
+        goal.setName("first goal");
+        goal.setVersion(1L);
+        Mockito.when(goalMapper.goalDTOtoGoal(any(GoalDTO.class))).thenReturn(goal);
+
+        Mockito.when(goalService.updateGoal(any(Goal.class)))
+                .thenReturn(Mono.error(new GoalException(409, "Conflict!")));
+
+        webTestClient.put().uri("http://localhost:9000/goal")
+                .header("user", "abc")
+                .body(Mono.just(goal), Goal.class)
+                .exchange()
+                .expectStatus()
+                .isEqualTo(409);
+    }
+
     @Test
     public void updateGoal() {
         Goal goal = new Goal();
@@ -369,4 +618,365 @@ class GoalResourceTest {
 
 
 
-}
\ No newline at end of file
+
+    @Test
+    public void testAddGoalsFromJsonArray()  {
+
+        Mockito.when(goalMapper.goalDTOtoGoal(any(GoalDTO.class))).thenAnswer(invocation -> {
+            GoalDTO goalDTO = invocation.getArgument(0);
+            Goal goal = new Goal();
+            goal.setName(goalDTO.getName());
+            goal.setUserId(goalDTO.getUserId());
+            return goal;
+        });
+        ArgumentCaptor<Flux<Goal>> goalsCaptor = ArgumentCaptor.forClass(Flux.class);
+        Mockito.when(goalService.addGoals(goalsCaptor.capture(), eq("abc"))).thenAnswer(invocation ->
+                goalsCaptor.getValue().index().map(indexed -> {
+                    BulkItemResult result = BulkItemResult.of(indexed.getT2(), BulkOutcome.CREATED);
+                    result.setIndex(indexed.getT1());
+                    return result;
+                }));
+
+        webTestClient.post().uri("http://localhost:9000/goals/bulk")
+                .header("user", "abc")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("[{\"name\":\"first goal\"},{\"name\":\"second goal\"}]")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.length()").isEqualTo(2)
+                .jsonPath("$[1].index").isEqualTo(1)
+                .jsonPath("$[1].name").isEqualTo("second goal")
+                .jsonPath("$[1].outcome").isEqualTo("created")
+                .jsonPath("$[1].goal").doesNotExist();
+    }
+
+    @Test
+    public void testUpdateGoalStatusesFromNdjson()  {
+
+        Mockito.when(goalMapper.goalDTOtoGoal(any(GoalDTO.class))).thenAnswer(invocation -> {
+            GoalDTO goalDTO = invocation.getArgument(0);
+            Goal goal = new Goal();
+            goal.setName(goalDTO.getName());
+            goal.setUserId(goalDTO.getUserId());
+            return goal;
+        });
+        ArgumentCaptor<Flux<Goal>> goalsCaptor = ArgumentCaptor.forClass(Flux.class);
+        Mockito.when(goalService.updateGoalStatuses(goalsCaptor.capture(), eq("abc"))).thenAnswer(invocation ->
+                goalsCaptor.getValue().map(goal -> BulkItemResult.of(goal.getName(), BulkOutcome.NOT_FOUND)));
+
+        String body = webTestClient.patch().uri("http://localhost:9000/goals/bulk/status")
+                .header("user", "abc")
+                .contentType(GoalResource.APPLICATION_NDJSON)
+                .accept(GoalResource.APPLICATION_NDJSON)
+                .bodyValue("{\"name\":\"first goal\",\"status\":\"C\"}\n{\"name\":\"second goal\",\"status\":\"C\"}\n")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(GoalResource.APPLICATION_NDJSON)
+                .expectBody(String.class)
+                .returnResult()
+                .getResponseBody();
+
+        String[] lines = body.trim().split("\n");
+        assertEquals(2, lines.length);
+        assertTrue(lines[0].contains("\"outcome\":\"not_found\""));
+        assertTrue(lines[1].contains("\"name\":\"second goal\""));
+    }
+
+    @Test
+    public void testGoalChangesAsServerSentEvents()  {
+
+        Goal goal = new Goal();
+        goal.setUserId("abc");
+        goal.setName("first goal");
+
+        Mockito.when(goalChangeFeed.changes("abc", Optional.of("t1")))
+                .thenReturn(Flux.just(new GoalChange("t2", "update", goal), GoalChange.reset()));
+
+        Flux<ServerSentEvent<Goal>> changes = webTestClient.get().uri("http://localhost:9000/goals/changes")
+                .header("user", "abc")
+                .header("Last-Event-ID", "t1")
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(new ParameterizedTypeReference<ServerSentEvent<Goal>>() {})
+                .getResponseBody();
+
+        StepVerifier.create(changes)
+                .expectNextMatches(change -> change.id().equals("t2") && change.event().equals("update")
+                        && change.data().getName().equals("first goal"))
+                .expectNextMatches(change -> change.event().equals(GoalChange.RESET) && change.data() == null)
+                .verifyComplete();
+    }
+
+    @Test
+    public void testGetGoalSummaries()  {
+
+        GoalSummary summary = new GoalSummary("5f9a1c2e8b3e4a1d2c3b4a5e", "first goal", GoalStatus.ACTIVE,
+                GoalLevel.EASY, LocalDate.of(2020, 12, 23));
+        Mockito.when(goalService.fetchGoalSummaryPage(any(Optional.class), any(Optional.class), any(Optional.class),
+                eq(List.of("A")), eq("abc"), eq(CountMode.EXACT), anyBoolean(), eq(3L)))
+                .thenReturn(Mono.just(new GoalSummaryResponse(List.of(summary), 1L, null)));
+
+        webTestClient.get().uri("http://localhost:9000/goals?view=summary&status=a")
+                .header("user", "abc")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.totalgoals").isEqualTo(1)
+                .jsonPath("$.goals[0].name").isEqualTo("first goal")
+                .jsonPath("$.goals[0].dueDate").isEqualTo("2020-12-23")
+                .jsonPath("$.goals[0].description").doesNotExist()
+                .jsonPath("$.goals[0].notes").doesNotExist();
+
+        Mockito.verify(goalService, Mockito.never()).fetchGoalPage(any(Optional.class), any(Optional.class),
+                any(Optional.class), any(List.class), any(String.class), any(CountMode.class), anyBoolean(), anyLong());
+    }
+
+    @Test
+    public void testGetGoalsUnknownView()  {
+
+        webTestClient.get().uri("http://localhost:9000/goals?view=compact")
+                .header("user", "abc")
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    public void testGetGoalStats()  {
+
+        GoalStats stats = new GoalStats();
+        stats.setTotal(2L);
+        stats.setByStatus(Map.of("COMPLETED", 1L, "ACTIVE", 1L));
+        Mockito.when(goalService.fetchStats("abc"))
+                .thenReturn(Mono.just(GoalStatsResponse.of(stats, LocalDate.of(2020, 12, 23))));
+
+        webTestClient.get().uri("http://localhost:9000/goals/stats")
+                .header("user", "abc")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.totalgoals").isEqualTo(2)
+                .jsonPath("$.byStatus.C").isEqualTo(1)
+                .jsonPath("$.byStatus.D").isEqualTo(0)
+                .jsonPath("$.completionRate").isEqualTo(0.5)
+                .jsonPath("$.overdue").isEqualTo(0);
+    }
+
+    @Test
+    public void testFullExportBulkheadDoesNotBlockPages()  {
+
+        Mockito.when(goalService.fetchGoalPage(any(Optional.class), any(Optional.class), any(Optional.class),
+                any(List.class), eq("abc"), any(CountMode.class), anyBoolean(), anyLong()))
+                .thenReturn(Mono.just(new GoalResponse()));
+        Mockito.when(goalService.streamGoals(any(Optional.class), any(List.class), eq("abc"), eq(false)))
+                .thenReturn(Flux.empty());
+
+        // slow exports holding every export permit
+        Bulkhead export = bulkheadRegistry.bulkhead("goal-export");
+        int permits = export.getBulkheadConfig().getMaxConcurrentCalls();
+        for (int i = 0; i < permits; i++) {
+            assertTrue(export.tryAcquirePermission());
+        }
+        try {
+            webTestClient.get().uri("http://localhost:9000/goals/stream")
+                    .header("user", "abc")
+                    .accept(GoalResource.APPLICATION_NDJSON)
+                    .exchange()
+                    .expectStatus().isEqualTo(503);
+
+            webTestClient.get().uri("http://localhost:9000/goals")
+                    .header("user", "abc")
+                    .exchange()
+                    .expectStatus().isOk();
+        } finally {
+            for (int i = 0; i < permits; i++) {
+                export.onComplete();
+            }
+        }
+    }
+
+    @Test
+    public void testFullCountBulkheadDoesNotBlockWrites()  {
+
+        Goal goal = new Goal();
+        goal.setUserId("abc");
+        goal.setName("first goal");
+        goal.setStatus(GoalStatus.ACTIVE);
+        Mockito.when(goalMapper.goalDTOtoGoal(any(GoalDTO.class))).thenReturn(goal);
+        Mockito.when(goalService.addGoal(any(Goal.class))).thenReturn(Mono.just(goal));
+        Mockito.when(goalService.fetchStats("abc")).thenReturn(Mono.just(new GoalStatsResponse()));
+
+        // slow stats queries holding every count permit
+        Bulkhead count = bulkheadRegistry.bulkhead("goal-count");
+        int permits = count.getBulkheadConfig().getMaxConcurrentCalls();
+        for (int i = 0; i < permits; i++) {
+            assertTrue(count.tryAcquirePermission());
+        }
+        try {
+            webTestClient.get().uri("http://localhost:9000/goals/stats")
+                    .header("user", "abc")
+                    .exchange()
+                    .expectStatus().isEqualTo(503)
+                    .expectHeader().valueEquals(HttpHeaders.RETRY_AFTER, "1")
+                    .expectBody()
+                    .jsonPath("$.code").isEqualTo("503")
+                    .jsonPath("$.message").isEqualTo("Service busy!");
+
+            webTestClient.post().uri("http://localhost:9000/goal")
+                    .header("user", "abc")
+                    .body(Mono.just(goal), Goal.class)
+                    .exchange()
+                    .expectStatus().isCreated();
+        } finally {
+            for (int i = 0; i < permits; i++) {
+                count.onComplete();
+            }
+        }
+    }
+
+    @Test
+    public void testUnchangedGoalsAreNotModified()  {
+
+        Mockito.when(goalService.fetchGoalPage(any(Optional.class), any(Optional.class), any(Optional.class),
+                any(List.class), eq("abc"), eq(CountMode.EXACT), anyBoolean(), eq(3L)))
+                .thenReturn(Mono.just(new GoalResponse()));
+
+        String eTag = webTestClient.get().uri("http://localhost:9000/goals?status=A")
+                .header("user", "abc")
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(GoalResponse.class)
+                .getResponseHeaders().getETag();
+        assertTrue(eTag.startsWith("W/\"3-"));
+
+        webTestClient.get().uri("http://localhost:9000/goals?status=A")
+                .header("user", "abc")
+                .header(HttpHeaders.IF_NONE_MATCH, eTag)
+                .exchange()
+                .expectStatus().isNotModified()
+                .expectHeader().valueEquals(HttpHeaders.ETAG, eTag)
+                .expectHeader().valueEquals(HttpHeaders.CACHE_CONTROL, "private")
+                .expectHeader().valueEquals(HttpHeaders.VARY, "Accept, user")
+                .expectBody().isEmpty();
+
+        // neither the page nor the count was read for the second request
+        Mockito.verify(goalService, Mockito.times(1)).fetchGoalPage(any(Optional.class), any(Optional.class),
+                any(Optional.class), any(List.class), eq("abc"), eq(CountMode.EXACT), anyBoolean(), eq(3L));
+
+        // another filter is another representation
+        webTestClient.get().uri("http://localhost:9000/goals?status=C")
+                .header("user", "abc")
+                .header(HttpHeaders.IF_NONE_MATCH, eTag)
+                .exchange()
+                .expectStatus().isOk();
+    }
+
+    @Test
+    public void testTagsOfOneUserDoNotMatchAnother()  {
+
+        Mockito.when(goalService.fetchGoalPage(any(Optional.class), any(Optional.class), any(Optional.class),
+                any(List.class), eq("xyz"), eq(CountMode.EXACT), anyBoolean(), eq(3L)))
+                .thenReturn(Mono.just(new GoalResponse()));
+        // the same version and query of another user
+        String eTag = GoalResource.goalsETag("abc", 3L, GoalView.FULL, Optional.empty(), Optional.empty(),
+                Optional.empty(), List.of(), CountMode.EXACT, false);
+
+        webTestClient.get().uri("http://localhost:9000/goals")
+                .header("user", "xyz")
+                .header(HttpHeaders.IF_NONE_MATCH, eTag)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals(HttpHeaders.CACHE_CONTROL, "private")
+                .expectHeader().valueEquals(HttpHeaders.VARY, "Accept, user");
+    }
+
+    @Test
+    public void testChangedGoalsAreSentAgain()  {
+
+        Mockito.when(goalService.fetchGoalsVersion("abc")).thenReturn(Mono.just(4L));
+        Mockito.when(goalService.fetchGoalSummaryPage(any(Optional.class), any(Optional.class), any(Optional.class),
+                any(List.class), eq("abc"), eq(CountMode.EXACT), anyBoolean(), eq(4L)))
+                .thenReturn(Mono.just(new GoalSummaryResponse(List.of(), 0L, null)));
+        String stale = GoalResource.goalsETag("abc", 3L, GoalView.SUMMARY, Optional.empty(), Optional.empty(),
+                Optional.empty(), List.of(), CountMode.EXACT, false);
+
+        webTestClient.get().uri("http://localhost:9000/goals?view=summary")
+                .header("user", "abc")
+                .header(HttpHeaders.IF_NONE_MATCH, stale)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals(HttpHeaders.ETAG, GoalResource.goalsETag("abc", 4L, GoalView.SUMMARY,
+                        Optional.empty(), Optional.empty(), Optional.empty(), List.of(), CountMode.EXACT, false))
+                .expectBody()
+                .jsonPath("$.totalgoals").isEqualTo(0);
+    }
+
+    @Test
+    public void testGoalsOfUnknownVersionAreSentWithoutETag()  {
+
+        Mockito.when(goalService.fetchGoalsVersion("abc")).thenReturn(Mono.just(GoalVersions.UNKNOWN));
+        Mockito.when(goalService.fetchGoalPage(any(Optional.class), any(Optional.class), any(Optional.class),
+                any(List.class), eq("abc"), eq(CountMode.EXACT), anyBoolean(), eq(GoalVersions.UNKNOWN)))
+                .thenReturn(Mono.just(new GoalResponse()));
+        String eTag = GoalResource.goalsETag("abc", GoalVersions.UNKNOWN, GoalView.FULL, Optional.empty(),
+                Optional.empty(), Optional.empty(), List.of(), CountMode.EXACT, false);
+
+        // the goals may have changed without the version
+        webTestClient.get().uri("http://localhost:9000/goals")
+                .header("user", "abc")
+                .header(HttpHeaders.IF_NONE_MATCH, eTag)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().doesNotExist(HttpHeaders.ETAG);
+    }
+
+    @Test
+    public void testGoalsAsCbor() throws Exception {
+
+        ObjectMapper cborMapper = Jackson2ObjectMapperBuilder.json().factory(new CBORFactory()).build();
+        Goal goal = new Goal();
+        goal.setUserId("abc");
+        goal.setName("first goal");
+        goal.setStatus(GoalStatus.ACTIVE);
+        goal.setDueDate(LocalDate.of(2020, 12, 23));
+        GoalResponse goalResponse = new GoalResponse();
+        goalResponse.setTotalgoals(1L);
+        goalResponse.getGoals().add(goal);
+
+        Mockito.when(goalService.fetchGoalPage(any(Optional.class), any(Optional.class), any(Optional.class),
+                any(List.class), eq("abc"), eq(CountMode.EXACT), anyBoolean(), eq(3L)))
+                .thenReturn(Mono.just(goalResponse));
+        ArgumentCaptor<GoalDTO> goalCaptor = ArgumentCaptor.forClass(GoalDTO.class);
+        Mockito.when(goalMapper.goalDTOtoGoal(goalCaptor.capture())).thenReturn(goal);
+        Mockito.when(goalService.addGoal(any(Goal.class))).thenReturn(Mono.just(goal));
+
+        byte[] goals = webTestClient.get().uri("http://localhost:9000/goals")
+                .header("user", "abc")
+                .accept(MediaType.APPLICATION_CBOR)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType(MediaType.APPLICATION_CBOR)
+                .expectBody(byte[].class)
+                .returnResult()
+                .getResponseBody();
+
+        GoalResponse response = cborMapper.readValue(goals, GoalResponse.class);
+        assertEquals(1L, response.getTotalgoals());
+        assertEquals(LocalDate.of(2020, 12, 23), response.getGoals().get(0).getDueDate());
+
+        byte[] created = webTestClient.post().uri("http://localhost:9000/goal")
+                .header("user", "abc")
+                .contentType(MediaType.APPLICATION_CBOR)
+                .accept(MediaType.APPLICATION_CBOR)
+                .bodyValue(goal)
+                .exchange()
+                .expectStatus().isCreated()
+                .expectBody(byte[].class)
+                .returnResult()
+                .getResponseBody();
+
+        assertEquals("first goal", goalCaptor.getValue().getName());
+        assertEquals("first goal", cborMapper.readValue(created, Goal.class).getName());
+    }
+}
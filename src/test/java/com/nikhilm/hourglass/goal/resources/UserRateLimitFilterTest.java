@@ -0,0 +1,109 @@
+package com.nikhilm.hourglass.goal.resources;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class UserRateLimitFilterTest {
+
+    MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    WebFilterChain completes = exchange -> Mono.empty();
+    WebFilterChain hangs = exchange -> Mono.never();
+
+    private UserRateLimitFilter filter(double rate, int burst, int maxInFlight) throws Exception {
+        return new UserRateLimitFilter(meterRegistry, new ObjectMapper(), rate, burst, maxInFlight,
+                Duration.ofMinutes(10L));
+    }
+
+    private MockServerWebExchange exchange(String path, String user) {
+        MockServerHttpRequest.BaseBuilder<?> request = MockServerHttpRequest.get(path);
+        if (user != null) {
+            request.header(UserRateLimitFilter.USER_HEADER, user);
+        }
+        return MockServerWebExchange.from(request);
+    }
+
+    @Test
+    public void testShedsRequestsBeyondTheBurst() throws Exception {
+        UserRateLimitFilter filter = filter(1d, 2, 10);
+
+        for (int i = 0; i < 2; i++) {
+            MockServerWebExchange exchange = exchange("/goals", "abc");
+            StepVerifier.create(filter.filter(exchange, completes)).verifyComplete();
+            assertNull(exchange.getResponse().getStatusCode());
+        }
+        MockServerWebExchange shed = exchange("/goals", "abc");
+        StepVerifier.create(filter.filter(shed, completes)).verifyComplete();
+
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, shed.getResponse().getStatusCode());
+        assertEquals("1", shed.getResponse().getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+        StepVerifier.create(shed.getResponse().getBodyAsString())
+                .expectNext("{\"code\":\"429\",\"message\":\"Too many requests!\"}")
+                .verifyComplete();
+        assertEquals(1.0, meterRegistry.counter("goal.requests.shed", "reason", "rate").count());
+
+        // other users have their own bucket
+        MockServerWebExchange other = exchange("/goals", "xyz");
+        StepVerifier.create(filter.filter(other, completes)).verifyComplete();
+        assertNull(other.getResponse().getStatusCode());
+    }
+
+    @Test
+    public void testShedsRequestsBeyondMaxInFlight() throws Exception {
+        UserRateLimitFilter filter = filter(1000d, 1000, 1);
+
+        Disposable slow = filter.filter(exchange("/goals", "abc"), hangs).subscribe();
+        assertEquals(1, filter.inFlight("abc"));
+
+        MockServerWebExchange shed = exchange("/goals", "abc");
+        StepVerifier.create(filter.filter(shed, completes)).verifyComplete();
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, shed.getResponse().getStatusCode());
+        assertEquals("1", shed.getResponse().getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+        assertEquals(1.0, meterRegistry.counter("goal.requests.shed", "reason", "concurrency").count());
+
+        // a cancelled request gives its slot back
+        slow.dispose();
+        assertEquals(0, filter.inFlight("abc"));
+        MockServerWebExchange next = exchange("/goals", "abc");
+        StepVerifier.create(filter.filter(next, completes)).verifyComplete();
+        assertNull(next.getResponse().getStatusCode());
+    }
+
+    @Test
+    public void testChangeStreamsDoNotHoldInFlightSlots() throws Exception {
+        UserRateLimitFilter filter = filter(1000d, 1000, 1);
+
+        Disposable changes = filter.filter(exchange("/goals/changes", "abc"), hangs).subscribe();
+
+        MockServerWebExchange exchange = exchange("/goals", "abc");
+        StepVerifier.create(filter.filter(exchange, completes)).verifyComplete();
+        assertNull(exchange.getResponse().getStatusCode());
+        changes.dispose();
+    }
+
+    @Test
+    public void testRequestsWithoutUserPassThrough() throws Exception {
+        UserRateLimitFilter filter = filter(1d, 1, 1);
+
+        for (int i = 0; i < 3; i++) {
+            MockServerWebExchange exchange = exchange("/goals", null);
+            StepVerifier.create(filter.filter(exchange, completes)).verifyComplete();
+            assertNull(exchange.getResponse().getStatusCode());
+        }
+    }
+}
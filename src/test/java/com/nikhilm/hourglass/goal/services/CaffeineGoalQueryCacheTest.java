@@ -0,0 +1,81 @@
+package com.nikhilm.hourglass.goal.services;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CaffeineGoalQueryCacheTest {
+
+    MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    CaffeineGoalQueryCache goalQueryCache = new CaffeineGoalQueryCache(meterRegistry, 2L, Duration.ofMinutes(1L));
+    AtomicInteger loads = new AtomicInteger();
+
+    private Mono<Integer> load() {
+        return Mono.fromCallable(loads::incrementAndGet);
+    }
+
+    @Test
+    public void testLoadsOnceAndCountsHitsAndMisses() {
+        GoalCacheKey key = GoalCacheKey.of("abc", "goalPage", null, 1);
+
+        StepVerifier.create(goalQueryCache.get(key, this::load)).expectNext(1).verifyComplete();
+        StepVerifier.create(goalQueryCache.get(key, this::load)).expectNext(1).verifyComplete();
+
+        assertEquals(1, loads.get());
+        assertEquals(1.0, meterRegistry.get("cache.gets").tag("result", "hit").functionCounter().count());
+        assertEquals(1.0, meterRegistry.get("cache.gets").tag("result", "miss").functionCounter().count());
+    }
+
+    @Test
+    public void testInvalidateDropsOnlyThatUser() {
+        GoalCacheKey abc = GoalCacheKey.of("abc", "goalPage");
+        GoalCacheKey xyz = GoalCacheKey.of("xyz", "goalPage");
+
+        StepVerifier.create(goalQueryCache.get(abc, this::load)).expectNext(1).verifyComplete();
+        StepVerifier.create(goalQueryCache.get(xyz, this::load)).expectNext(2).verifyComplete();
+        goalQueryCache.invalidate("abc");
+        // the results of the old generation are dropped, not left to take the room of others
+        assertEquals(1L, goalQueryCache.size());
+
+        StepVerifier.create(goalQueryCache.get(abc, this::load)).expectNext(3).verifyComplete();
+        StepVerifier.create(goalQueryCache.get(xyz, this::load)).expectNext(2).verifyComplete();
+    }
+
+    @Test
+    public void testErrorsAndEmptyResultsAreNotCached() {
+        GoalCacheKey key = GoalCacheKey.of("abc", "goalPage");
+
+        StepVerifier.create(goalQueryCache.get(key, () -> Mono.error(new RuntimeException("timeout"))))
+                .verifyError();
+        StepVerifier.create(goalQueryCache.get(key, Mono::empty)).verifyComplete();
+        StepVerifier.create(goalQueryCache.get(key, this::load)).expectNext(1).verifyComplete();
+
+        assertEquals(1L, goalQueryCache.size());
+    }
+
+    @Test
+    public void testQueryInFlightDuringInvalidateIsNotServed() {
+        GoalCacheKey key = GoalCacheKey.of("abc", "goalPage");
+        MonoProcessor<Integer> pending = MonoProcessor.create();
+
+        StepVerifier.create(goalQueryCache.get(key, () -> pending))
+                .then(() -> {
+                    // the write lands while the query runs
+                    goalQueryCache.invalidate("abc");
+                    pending.onNext(0);
+                })
+                .expectNext(0)
+                .verifyComplete();
+
+        StepVerifier.create(goalQueryCache.get(key, this::load)).expectNext(1).verifyComplete();
+        StepVerifier.create(goalQueryCache.get(key, this::load)).expectNext(1).verifyComplete();
+    }
+}
@@ -0,0 +1,84 @@
+package com.nikhilm.hourglass.goal.services;
+
+import com.nikhilm.hourglass.goal.model.Goal;
+import com.nikhilm.hourglass.goal.repositories.GoalRepository;
+import com.nikhilm.hourglass.goal.repositories.GoalStatsRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+
+class GoalArchiverTest {
+
+    GoalRepository goalRepository = mock(GoalRepository.class);
+    GoalStatsRepository goalStatsRepository = mock(GoalStatsRepository.class);
+    GoalQueryCache goalQueryCache = mock(GoalQueryCache.class);
+    MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    GoalArchiver goalArchiver = new GoalArchiver(goalRepository, new GoalVersions(goalStatsRepository, 0, Duration.ZERO),
+            goalQueryCache, meterRegistry, Duration.ofDays(90L), 2, Duration.ZERO, Duration.ofMinutes(1L),
+            Duration.ofDays(1L));
+
+    private Goal goal(String userId, String name) {
+        Goal goal = new Goal();
+        goal.setUserId(userId);
+        goal.setName(name);
+        return goal;
+    }
+
+    @Test
+    public void testArchivesBatchesUntilOneComesBackShort() {
+        Mockito.when(goalRepository.archiveCompleted(any(LocalDate.class), anyInt()))
+                .thenReturn(Mono.just(List.of(goal("abc", "first"), goal("abc", "second"))))
+                .thenReturn(Mono.just(List.of(goal("xyz", "third"))));
+        Mockito.when(goalStatsRepository.increment(anyString(), any(Map.class))).thenReturn(Mono.empty());
+
+        StepVerifier.create(goalArchiver.archiveAll())
+                .expectNext(3L)
+                .verifyComplete();
+
+        Mockito.verify(goalRepository, Mockito.times(2))
+                .archiveCompleted(eq(LocalDate.now().minusDays(90L)), eq(2));
+        // each user's version moves once per batch, their counts not at all
+        Mockito.verify(goalStatsRepository).increment("abc", Map.of());
+        Mockito.verify(goalStatsRepository).increment("xyz", Map.of());
+        Mockito.verify(goalQueryCache).invalidate("abc");
+        assertEquals(3.0, meterRegistry.counter("goal.archive.moved").count());
+    }
+
+    @Test
+    public void testFailedVersionBumpDoesNotStopArchival() {
+        Mockito.when(goalRepository.archiveCompleted(any(LocalDate.class), anyInt()))
+                .thenReturn(Mono.just(List.of(goal("abc", "first"))));
+        Mockito.when(goalStatsRepository.increment(anyString(), any(Map.class)))
+                .thenReturn(Mono.error(new RuntimeException("timeout")));
+
+        StepVerifier.create(goalArchiver.archiveAll())
+                .expectNext(1L)
+                .verifyComplete();
+    }
+
+    @Test
+    public void testNothingToArchive() {
+        Mockito.when(goalRepository.archiveCompleted(any(LocalDate.class), anyInt())).thenReturn(Mono.just(List.of()));
+
+        StepVerifier.create(goalArchiver.archiveAll())
+                .expectNext(0L)
+                .verifyComplete();
+        Mockito.verifyNoInteractions(goalStatsRepository);
+    }
+}
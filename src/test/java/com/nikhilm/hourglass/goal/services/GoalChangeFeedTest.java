@@ -0,0 +1,139 @@
+package com.nikhilm.hourglass.goal.services;
+
+import com.mongodb.client.model.changestream.OperationType;
+import com.nikhilm.hourglass.goal.model.Goal;
+import com.nikhilm.hourglass.goal.model.GoalChange;
+import com.nikhilm.hourglass.goal.repositories.GoalRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.mongodb.core.ChangeStreamEvent;
+import reactor.core.publisher.DirectProcessor;
+import reactor.core.publisher.FluxSink;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+
+class GoalChangeFeedTest {
+
+    GoalRepository goalRepository = mock(GoalRepository.class);
+    MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    DirectProcessor<ChangeStreamEvent<Goal>> changeStream = DirectProcessor.create();
+    FluxSink<ChangeStreamEvent<Goal>> changes = changeStream.sink();
+
+    GoalChangeFeed goalChangeFeed;
+
+    @BeforeEach
+    public void setup() {
+        Mockito.when(goalRepository.watchGoals(any())).thenReturn(changeStream);
+        goalChangeFeed = new GoalChangeFeed(goalRepository, meterRegistry, 3, Duration.ofSeconds(5L),
+                Duration.ofMinutes(1L), Duration.ofMillis(10L));
+    }
+
+    @AfterEach
+    public void teardown() {
+        goalChangeFeed.stop();
+    }
+
+    // stops the feed of setup, so its subscription does not outlive the test
+    private void withIdleTimeout(Duration idleTimeout) {
+        goalChangeFeed.stop();
+        goalChangeFeed = new GoalChangeFeed(goalRepository, meterRegistry, 3, idleTimeout,
+                Duration.ofMinutes(1L), Duration.ofMillis(10L));
+    }
+
+    @Test
+    public void testRoutesChangesToTheirUser() {
+        StepVerifier.create(goalChangeFeed.changes("abc", Optional.empty()).take(2L))
+                .then(() -> {
+                    changes.next(change("t1", "abc", "first goal"));
+                    changes.next(change("t2", "xyz", "other goal"));
+                    changes.next(change("t3", "abc", "second goal"));
+                })
+                .expectNextMatches(change -> change.getId().equals("t1") && change.getType().equals("insert"))
+                .expectNextMatches(change -> change.getGoal().getName().equals("second goal"))
+                .verifyComplete();
+    }
+
+    @Test
+    public void testResumesAfterLastEventId() {
+        StepVerifier.create(goalChangeFeed.changes("abc", Optional.empty()).take(3L))
+                .then(() -> {
+                    changes.next(change("t1", "abc", "first goal"));
+                    changes.next(change("t2", "abc", "second goal"));
+                    changes.next(change("t3", "abc", "third goal"));
+                })
+                .expectNextCount(3L)
+                .verifyComplete();
+
+        StepVerifier.create(goalChangeFeed.changes("abc", Optional.of("t1")).take(3L))
+                .expectNextMatches(change -> change.getId().equals("t2"))
+                .expectNextMatches(change -> change.getId().equals("t3"))
+                .then(() -> changes.next(change("t4", "abc", "fourth goal")))
+                .expectNextMatches(change -> change.getId().equals("t4"))
+                .verifyComplete();
+    }
+
+    @Test
+    public void testUnknownLastEventIdGetsReset() {
+        StepVerifier.create(goalChangeFeed.changes("abc", Optional.of("gone")).take(2L))
+                .expectNextMatches(change -> change.getType().equals(GoalChange.RESET) && change.getId().isEmpty())
+                .then(() -> changes.next(change("t1", "abc", "first goal")))
+                .expectNextMatches(change -> change.getId().equals("t1"))
+                .verifyComplete();
+
+        assertEquals(1.0, meterRegistry.counter("goal.changes.resets").count());
+    }
+
+    @Test
+    public void testIdleSubscriberIsCompleted() {
+        withIdleTimeout(Duration.ofMillis(50L));
+
+        StepVerifier.create(goalChangeFeed.changes("abc", Optional.empty()))
+                .expectSubscription()
+                .expectComplete()
+                .verify(Duration.ofSeconds(1L));
+    }
+
+    @Test
+    public void testEvictsIdleFeedsAndStopsListening() throws InterruptedException {
+        withIdleTimeout(Duration.ofMillis(50L));
+
+        goalChangeFeed.changes("abc", Optional.empty()).subscribe().dispose();
+        assertTrue(goalChangeFeed.isListening());
+        assertEquals(1, goalChangeFeed.feedCount());
+
+        // released just now, so kept for a resuming client
+        goalChangeFeed.evictIdle();
+        assertEquals(1, goalChangeFeed.feedCount());
+
+        Thread.sleep(60L);
+        goalChangeFeed.evictIdle();
+        assertEquals(0, goalChangeFeed.feedCount());
+        assertFalse(goalChangeFeed.isListening());
+    }
+
+    @SuppressWarnings("unchecked")
+    private ChangeStreamEvent<Goal> change(String token, String userId, String name) {
+        Goal goal = new Goal();
+        goal.setUserId(userId);
+        goal.setName(name);
+        ChangeStreamEvent<Goal> event = mock(ChangeStreamEvent.class);
+        Mockito.when(event.getResumeToken()).thenReturn(new BsonDocument("_data", new BsonString(token)));
+        Mockito.when(event.getOperationType()).thenReturn(OperationType.INSERT);
+        Mockito.when(event.getBody()).thenReturn(goal);
+        return event;
+    }
+}
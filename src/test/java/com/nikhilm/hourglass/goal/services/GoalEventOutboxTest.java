@@ -0,0 +1,113 @@
+package com.nikhilm.hourglass.goal.services;
+
+import com.nikhilm.hourglass.goal.model.Event;
+import com.nikhilm.hourglass.goal.model.Goal;
+import com.nikhilm.hourglass.goal.model.OutboxEvent;
+import com.nikhilm.hourglass.goal.repositories.OutboxRepository;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.data.mongodb.ReactiveMongoDatabaseFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+
+class GoalEventOutboxTest {
+
+    OutboxRepository outboxRepository = mock(OutboxRepository.class);
+    GoalEventPublisher goalEventPublisher = mock(GoalEventPublisher.class);
+    ReactiveMongoDatabaseFactory databaseFactory = mock(ReactiveMongoDatabaseFactory.class);
+
+    private Goal goal(String id) {
+        Goal goal = new Goal();
+        goal.setId(id);
+        goal.setUserId("abc");
+        goal.setName("first goal");
+        return goal;
+    }
+
+    @Test
+    public void testAppendsEventToOutbox() {
+        ArgumentCaptor<OutboxEvent> outboxCaptor = ArgumentCaptor.forClass(OutboxEvent.class);
+        Mockito.when(outboxRepository.insert(outboxCaptor.capture()))
+                .thenAnswer(invocation -> Mono.just(invocation.getArgument(0)));
+        GoalEventOutbox goalEventOutbox = new GoalEventOutbox(outboxRepository, goalEventPublisher,
+                databaseFactory, true, false, 2, Duration.ofMillis(1L));
+
+        StepVerifier.create(goalEventOutbox.write(Mono.just(goal("g1")),
+                goal -> new Event<>(Event.Type.GOAL_ADDED, goal.getId(), goal)))
+                .expectNextMatches(goal -> goal.getId().equals("g1"))
+                .verifyComplete();
+
+        assertEquals("g1", outboxCaptor.getValue().getKey());
+        assertEquals(Event.Type.GOAL_ADDED, outboxCaptor.getValue().getEventType());
+        Mockito.verify(goalEventPublisher, Mockito.never()).publish(any(Event.class));
+    }
+
+    @Test
+    public void testFailedAppendIsRetriedWithoutFailingTheWrite() {
+        Mockito.when(outboxRepository.insert(any(OutboxEvent.class)))
+                .thenReturn(Mono.error(new RuntimeException("timeout")))
+                .thenReturn(Mono.error(new RuntimeException("timeout")))
+                .thenAnswer(invocation -> Mono.just(invocation.getArgument(0)));
+        GoalEventOutbox goalEventOutbox = new GoalEventOutbox(outboxRepository, goalEventPublisher,
+                databaseFactory, true, false, 2, Duration.ofMillis(1L));
+
+        // the goal is saved, so the client gets it and does not retry into a 409
+        StepVerifier.create(goalEventOutbox.write(Mono.just(goal("g1")),
+                goal -> new Event<>(Event.Type.GOAL_ADDED, goal.getId(), goal)))
+                .expectNextMatches(goal -> goal.getId().equals("g1"))
+                .verifyComplete();
+
+        Mockito.verify(outboxRepository, Mockito.timeout(1000L).times(3)).insert(any(OutboxEvent.class));
+    }
+
+    @Test
+    public void testFailedBulkAppendIsRetried() {
+        Mockito.when(outboxRepository.insert(Mockito.<List<OutboxEvent>>any()))
+                .thenReturn(Flux.error(new RuntimeException("timeout")))
+                .thenAnswer(invocation -> Flux.fromIterable(invocation.<List<OutboxEvent>>getArgument(0)));
+        GoalEventOutbox goalEventOutbox = new GoalEventOutbox(outboxRepository, goalEventPublisher,
+                databaseFactory, true, false, 2, Duration.ofMillis(1L));
+
+        StepVerifier.create(goalEventOutbox.writeAll(List.of(new Event<>(Event.Type.GOAL_ADDED, "g1", goal("g1")),
+                new Event<>(Event.Type.GOAL_ADDED, "g2", goal("g2")))))
+                .verifyComplete();
+
+        Mockito.verify(outboxRepository, Mockito.timeout(1000L).times(2)).insert(Mockito.<List<OutboxEvent>>any());
+    }
+
+    @Test
+    public void testNothingIsAppendedWhenTheChangeIsEmpty() {
+        GoalEventOutbox goalEventOutbox = new GoalEventOutbox(outboxRepository, goalEventPublisher,
+                databaseFactory, true, false, 2, Duration.ofMillis(1L));
+
+        StepVerifier.create(goalEventOutbox.write(Mono.<Goal>empty(),
+                goal -> new Event<>(Event.Type.GOAL_ADDED, goal.getId(), goal)))
+                .verifyComplete();
+
+        Mockito.verify(outboxRepository, Mockito.never()).insert(any(OutboxEvent.class));
+    }
+
+    @Test
+    public void testPublishesDirectlyWhenOutboxIsDisabled() {
+        Mockito.when(goalEventPublisher.publish(any(Event.class))).thenReturn(Mono.empty());
+        GoalEventOutbox goalEventOutbox = new GoalEventOutbox(outboxRepository, goalEventPublisher,
+                databaseFactory, false, false, 2, Duration.ofMillis(1L));
+
+        StepVerifier.create(goalEventOutbox.write(Mono.just(goal("g1")),
+                goal -> new Event<>(Event.Type.GOAL_DEFERRED, goal.getId(), goal)))
+                .expectNextCount(1L)
+                .verifyComplete();
+
+        Mockito.verify(goalEventPublisher).publish(any(Event.class));
+        Mockito.verify(outboxRepository, Mockito.never()).insert(any(OutboxEvent.class));
+    }
+}
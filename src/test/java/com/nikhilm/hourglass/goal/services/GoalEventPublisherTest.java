@@ -0,0 +1,124 @@
+package com.nikhilm.hourglass.goal.services;
+
+import com.nikhilm.hourglass.goal.model.Event;
+import com.nikhilm.hourglass.goal.model.Goal;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+
+class GoalEventPublisherTest {
+
+    GoalService.MessageSources messageSources = mock(GoalService.MessageSources.class);
+    MessageChannel channel = mock(MessageChannel.class);
+    MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    GoalSchedulers goalSchedulers = new GoalSchedulers(1, 10, 2, 10, 1);
+
+    GoalEventPublisher goalEventPublisher;
+
+    @BeforeEach
+    public void setup() {
+        Mockito.when(messageSources.outputGoals()).thenReturn(channel);
+        Mockito.when(channel.send(any(Message.class))).thenReturn(true);
+    }
+
+    @AfterEach
+    public void teardown() {
+        goalEventPublisher.stop();
+        goalSchedulers.dispose();
+    }
+
+    private GoalEventPublisher publisher(int capacity, GoalEventPublisher.OverflowPolicy overflowPolicy) {
+        return new GoalEventPublisher(messageSources, meterRegistry, goalSchedulers, capacity, 2, Duration.ofMillis(20L),
+                overflowPolicy, Duration.ofMillis(50L));
+    }
+
+    private Event<String, Goal> event(String key) {
+        return new Event<>(Event.Type.GOAL_ADDED, key, new Goal());
+    }
+
+    @Test
+    public void testPublishesQueuedEventsInOrder() {
+        goalEventPublisher = publisher(10, GoalEventPublisher.OverflowPolicy.DROP);
+        goalEventPublisher.start();
+
+        StepVerifier.create(goalEventPublisher.publish(event("a"))
+                .then(goalEventPublisher.publish(event("b")))
+                .then(goalEventPublisher.publish(event("c"))))
+                .verifyComplete();
+
+        ArgumentCaptor<Message> messageCaptor = ArgumentCaptor.forClass(Message.class);
+        Mockito.verify(channel, timeout(1000L).times(3)).send(messageCaptor.capture());
+        await(() -> meterRegistry.timer("goal.events.publish.latency").count(), 3L);
+
+        assertEquals(List.of("a", "b", "c"), messageCaptor.getAllValues().stream()
+                .map(message -> ((Event) message.getPayload()).getKey())
+                .collect(Collectors.toList()));
+        assertEquals(3.0, meterRegistry.counter("goal.events.published").count());
+        assertEquals(3L, meterRegistry.timer("goal.events.publish.latency").count());
+    }
+
+    @Test
+    public void testDropsWhenQueueIsFull() {
+        goalEventPublisher = publisher(1, GoalEventPublisher.OverflowPolicy.DROP);
+
+        StepVerifier.create(goalEventPublisher.publish(event("a"))).verifyComplete();
+        StepVerifier.create(goalEventPublisher.publish(event("b"))).verifyComplete();
+
+        assertEquals(1, goalEventPublisher.queueDepth());
+        assertEquals(1.0, meterRegistry.get("goal.events.queue.depth").gauge().value());
+        assertEquals(1.0, meterRegistry.counter("goal.events.dropped").count());
+    }
+
+    @Test
+    public void testBlocksUntilTimeoutWhenQueueIsFull() {
+        goalEventPublisher = publisher(1, GoalEventPublisher.OverflowPolicy.BLOCK);
+
+        StepVerifier.create(goalEventPublisher.publish(event("a"))).verifyComplete();
+        StepVerifier.create(goalEventPublisher.publish(event("b")))
+                .expectSubscription()
+                .expectNoEvent(Duration.ofMillis(30L))
+                .verifyComplete();
+
+        assertEquals(1.0, meterRegistry.counter("goal.events.dropped").count());
+    }
+
+    @Test
+    public void testCountsFailedSends() {
+        Mockito.when(channel.send(any(Message.class))).thenThrow(new RuntimeException("broker down"));
+        goalEventPublisher = publisher(10, GoalEventPublisher.OverflowPolicy.DROP);
+        goalEventPublisher.start();
+
+        StepVerifier.create(goalEventPublisher.publish(event("a"))).verifyComplete();
+
+        Mockito.verify(channel, timeout(1000L)).send(any(Message.class));
+        await(() -> meterRegistry.counter("goal.events.failed").count(), 1.0);
+        assertEquals(0.0, meterRegistry.counter("goal.events.published").count());
+    }
+
+    // the publisher thread updates meters right after the send the test waited for
+    private <T> void await(Supplier<T> actual, T expected) {
+        long deadline = System.currentTimeMillis() + 1000L;
+        while (!expected.equals(actual.get()) && System.currentTimeMillis() < deadline) {
+            Thread.onSpinWait();
+        }
+        assertEquals(expected, actual.get());
+    }
+}
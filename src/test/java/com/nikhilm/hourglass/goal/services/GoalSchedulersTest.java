@@ -0,0 +1,59 @@
+package com.nikhilm.hourglass.goal.services;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GoalSchedulersTest {
+
+    GoalSchedulers goalSchedulers = new GoalSchedulers(1, 1, 1, 1, 1);
+
+    @AfterEach
+    public void teardown() {
+        goalSchedulers.dispose();
+    }
+
+    @Test
+    public void testThreadsAreNamedAfterTheirScheduler() {
+        StepVerifier.create(Mono.fromCallable(() -> Thread.currentThread().getName())
+                .subscribeOn(goalSchedulers.publish()))
+                .expectNextMatches(name -> name.startsWith("goal-publish"))
+                .verifyComplete();
+        StepVerifier.create(Mono.fromCallable(() -> Thread.currentThread().getName())
+                .subscribeOn(goalSchedulers.io()))
+                .expectNextMatches(name -> name.startsWith("goal-io"))
+                .verifyComplete();
+        StepVerifier.create(Mono.fromCallable(() -> Thread.currentThread().getName())
+                .subscribeOn(goalSchedulers.cpu()))
+                .expectNextMatches(name -> name.startsWith("goal-cpu"))
+                .verifyComplete();
+    }
+
+    @Test
+    public void testRejectsTasksBeyondTheQueue() throws InterruptedException {
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        goalSchedulers.io().schedule(() -> {
+            running.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(running.await(1L, TimeUnit.SECONDS));
+
+        // the only thread is busy and one task may wait
+        goalSchedulers.io().schedule(() -> { });
+        assertThrows(RejectedExecutionException.class, () -> goalSchedulers.io().schedule(() -> { }));
+        release.countDown();
+    }
+}
@@ -0,0 +1,175 @@
+package com.nikhilm.hourglass.goal.services;
+
+import com.nikhilm.hourglass.goal.InMemoryMongoConfiguration;
+import com.nikhilm.hourglass.goal.exceptions.GoalException;
+import com.nikhilm.hourglass.goal.model.CountMode;
+import com.nikhilm.hourglass.goal.model.Goal;
+import com.nikhilm.hourglass.goal.model.GoalStatus;
+import com.nikhilm.hourglass.goal.repositories.GoalIndexReconciler;
+import com.nikhilm.hourglass.goal.repositories.GoalReadRouting;
+import com.nikhilm.hourglass.goal.repositories.GoalRepository;
+import com.nikhilm.hourglass.goal.repositories.GoalStatsRepository;
+import com.nikhilm.hourglass.goal.repositories.OutboxRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.mongo.embedded.EmbeddedMongoAutoConfiguration;
+import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.mongodb.ReactiveMongoDatabaseFactory;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+
+/**
+ * GoalService over the repositories and indexes of a real database, with the outbox in goal_outbox.
+ */
+@DataMongoTest(excludeAutoConfiguration = EmbeddedMongoAutoConfiguration.class)
+@Import({InMemoryMongoConfiguration.class, GoalReadRouting.class, GoalIndexReconciler.class,
+        SimpleMeterRegistry.class})
+class GoalServiceMongoTest {
+
+    @Autowired
+    ReactiveMongoTemplate mongoTemplate;
+
+    @Autowired
+    ReactiveMongoDatabaseFactory databaseFactory;
+
+    @Autowired
+    GoalRepository goalRepository;
+
+    @Autowired
+    GoalStatsRepository goalStatsRepository;
+
+    @Autowired
+    OutboxRepository outboxRepository;
+
+    @Autowired
+    GoalReadRouting goalReadRouting;
+
+    @Autowired
+    GoalIndexReconciler goalIndexReconciler;
+
+    GoalService goalService = new GoalService();
+
+    @BeforeEach
+    public void setup() {
+        goalRepository.deleteAll().block();
+        outboxRepository.deleteAll().block();
+        mongoTemplate.dropCollection(Goal.ARCHIVE_COLLECTION).block();
+        goalIndexReconciler.createUniqueIndexes().block();
+
+        goalService.setPageSize(5);
+        goalService.goalRepository = goalRepository;
+        goalService.goalStatsRepository = goalStatsRepository;
+        goalService.goalReadRouting = goalReadRouting;
+        goalService.goalQueryCache = new NoOpGoalQueryCache();
+        goalService.goalVersions = new GoalVersions(goalStatsRepository, 0, Duration.ZERO);
+        goalService.goalEventOutbox = new GoalEventOutbox(outboxRepository, mock(GoalEventPublisher.class),
+                databaseFactory, true, false, 2, Duration.ofMillis(1L));
+    }
+
+    private Goal goal(String userId, String name) {
+        Goal goal = new Goal();
+        goal.setUserId(userId);
+        goal.setName(name);
+        goal.setStatus(GoalStatus.ACTIVE);
+        return goal;
+    }
+
+    @Test
+    public void testDuplicateNameIsAConflict() {
+        StepVerifier.create(goalService.addGoal(goal("abc", "first goal")))
+                .expectNextCount(1L)
+                .verifyComplete();
+        StepVerifier.create(goalService.addGoal(goal("abc", "first goal")))
+                .expectErrorMatches(throwable -> throwable instanceof GoalException
+                        && ((GoalException) throwable).getStatus() == 409)
+                .verify();
+        // names are unique per user
+        StepVerifier.create(goalService.addGoal(goal("xyz", "first goal")))
+                .expectNextCount(1L)
+                .verifyComplete();
+
+        assertEquals(2L, goalRepository.count().block());
+        assertEquals(2L, outboxRepository.count().block());
+    }
+
+    @Test
+    public void testUpdateWithStaleVersionIsAConflict() {
+        Goal added = goalService.addGoal(goal("abc", "first goal")).block();
+        Goal completed = goal("abc", "first goal");
+        completed.setStatus(GoalStatus.COMPLETED);
+        completed.setVersion(added.getVersion());
+
+        StepVerifier.create(goalService.updateGoal(completed))
+                .expectNextMatches(goal -> goal.getVersion() == added.getVersion() + 1
+                        && goal.getStatus() == GoalStatus.COMPLETED)
+                .verifyComplete();
+        StepVerifier.create(goalService.updateGoal(completed))
+                .expectErrorMatches(throwable -> throwable instanceof GoalException
+                        && ((GoalException) throwable).getStatus() == 409)
+                .verify();
+    }
+
+    private Goal archived(String userId, String name) {
+        Goal added = goalService.addGoal(goal(userId, name)).block();
+        Goal completed = goal(userId, name);
+        completed.setStatus(GoalStatus.COMPLETED);
+        completed.setVersion(added.getVersion());
+        goalService.updateGoal(completed).block();
+        assertEquals(1, goalRepository.archiveCompleted(LocalDate.now().plusDays(1L), 10).block().size());
+        return added;
+    }
+
+    @Test
+    public void testArchivedNameCanBeAddedAgain() {
+        Goal archived = archived("abc", "first goal");
+
+        // names are unique among the goals not archived
+        Goal again = goalService.addGoal(goal("abc", "first goal")).block();
+
+        StepVerifier.create(goalService.fetchGoalPage(Optional.empty(), Optional.empty(), Optional.empty(),
+                List.of(), "abc", CountMode.EXACT, true, 1L))
+                .expectNextMatches(page -> page.getTotalgoals() == 2L && page.getGoals().size() == 2
+                        && page.getGoals().stream().anyMatch(goal -> goal.getId().equals(archived.getId()))
+                        && page.getGoals().stream().anyMatch(goal -> goal.getId().equals(again.getId())))
+                .verifyComplete();
+        StepVerifier.create(goalService.fetchGoalPage(Optional.empty(), Optional.empty(), Optional.empty(),
+                List.of(), "abc", CountMode.EXACT, false, 1L))
+                .expectNextMatches(page -> page.getTotalgoals() == 1L
+                        && page.getGoals().get(0).getId().equals(again.getId()))
+                .verifyComplete();
+
+        // updates by name change the goal not archived
+        Goal completed = goal("abc", "first goal");
+        completed.setStatus(GoalStatus.COMPLETED);
+        StepVerifier.create(goalService.updateGoal(completed))
+                .expectNextMatches(goal -> goal.getId().equals(again.getId()))
+                .verifyComplete();
+    }
+
+    @Test
+    public void testUpdateOfArchivedGoalIsAConflict() {
+        archived("abc", "first goal");
+        Goal deferred = goal("abc", "first goal");
+        deferred.setStatus(GoalStatus.DEFERRED);
+
+        StepVerifier.create(goalService.updateGoal(deferred))
+                .expectErrorMatches(throwable -> throwable instanceof GoalException
+                        && ((GoalException) throwable).getStatus() == 409
+                        && throwable.getMessage().contains("archived"))
+                .verify();
+        // a goal that never existed is still not found
+        StepVerifier.create(goalService.updateGoal(goal("abc", "other goal")))
+                .verifyComplete();
+    }
+}
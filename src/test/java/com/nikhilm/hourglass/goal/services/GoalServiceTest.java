@@ -1,8 +1,13 @@
 package com.nikhilm.hourglass.goal.services;
 
+import com.nikhilm.hourglass.goal.exceptions.GoalException;
 import com.nikhilm.hourglass.goal.model.*;
+import com.nikhilm.hourglass.goal.repositories.GoalReadRouting;
 import com.nikhilm.hourglass.goal.repositories.GoalRepository;
+import com.nikhilm.hourglass.goal.repositories.GoalStatsRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -10,13 +15,15 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.cloud.client.circuitbreaker.ConfigBuilder;
 import org.springframework.cloud.client.circuitbreaker.ReactiveCircuitBreaker;
 import org.springframework.cloud.client.circuitbreaker.ReactiveCircuitBreakerFactory;
-import org.springframework.data.mongodb.core.query.TextCriteria;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Pageable;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.MessageChannel;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
@@ -24,14 +31,20 @@ import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.test.StepVerifier;
 
+import java.time.Duration;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.function.Function;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
 
 @ExtendWith(SpringExtension.class)
@@ -42,83 +55,168 @@ class GoalServiceTest {
     GoalRepository goalRepository;
 
     @Mock
-    GoalService.MessageSources messageSources;
+    GoalEventOutbox goalEventOutbox;
 
+    @Mock
+    GoalStatsRepository goalStatsRepository;
+
+    @Mock
+    GoalReadRouting goalReadRouting;
+
+    @Spy
+    GoalQueryCache goalQueryCache = new CaffeineGoalQueryCache(new SimpleMeterRegistry(), 100L, Duration.ofMinutes(1L));
+
+    @Spy
+    GoalSchedulers goalSchedulers = new GoalSchedulers(1, 10, 1, 10, 2);
 
     @InjectMocks
     GoalService goalService;
 
+    List<Event<String, Goal>> events = new ArrayList<>();
+
     @BeforeEach
     public void setup() {
         goalService.setPageSize(5);
+        goalService.goalVersions = new GoalVersions(goalStatsRepository, 0, Duration.ZERO);
+        Mockito.when(goalStatsRepository.increment(anyString(), any(Map.class))).thenReturn(Mono.empty());
+        Mockito.when(goalEventOutbox.write(any(Mono.class), any(Function.class)))
+                .thenAnswer(invocation -> {
+                    Mono<Object> change = invocation.getArgument(0);
+                    Function<Object, Event<String, Goal>> event = invocation.getArgument(1);
+                    return change.doOnNext(written -> events.add(event.apply(written)));
+                });
+    }
+
+    @AfterEach
+    public void teardown() {
+        goalSchedulers.dispose();
     }
 
     @Test
-    public void testFetchGoals() {
+    public void testFetchGoalPage() {
         Goal goal = new Goal();
         goal.setUserId("abc");
-        goal.setDescription(" a new goal");
         goal.setName("first goal");
-        goal.setStatus(GoalStatus.ACTIVE);
-        goal.setDueDate(LocalDate.now().plusDays(10L));
+        goal.setStatus(GoalStatus.DEFERRED);
 
-        Mockito.when(goalRepository.findAllBy(any(TextCriteria.class))).thenReturn(Flux.just(goal));
-        Mockito.when(goalRepository.findAllByUserId(anyString())).thenReturn(Flux.just(goal));
-        StepVerifier.create(goalService.fetchGoals(Optional.empty(), Optional.empty(), List.of(), "abc"))
+        ArgumentCaptor<GoalQuery> queryCaptor = ArgumentCaptor.forClass(GoalQuery.class);
+        ArgumentCaptor<Pageable> pageableCaptor = ArgumentCaptor.forClass(Pageable.class);
+
+        Mockito.when(goalRepository.findGoalPage(queryCaptor.capture(), pageableCaptor.capture(), eq(CountMode.EXACT)))
+                .thenReturn(Mono.just(new GoalResponse(List.of(goal), 6L)));
+        StepVerifier.create(goalService.fetchGoalPage(Optional.of("first"), Optional.of(2), Optional.empty(),
+                List.of("D"), "abc", CountMode.EXACT, false, 0L))
                 .expectSubscription()
-                .expectNextCount(1L)
+                .expectNextMatches(goalResponse -> goalResponse.getTotalgoals() == 6L
+                        && goalResponse.getGoals().size() == 1)
                 .verifyComplete();
+
+        assertEquals("abc", queryCaptor.getValue().getUserId());
+        assertEquals("first", queryCaptor.getValue().getText());
+        assertEquals(List.of(GoalStatus.DEFERRED), queryCaptor.getValue().getStatuses());
+        assertEquals(5L, pageableCaptor.getValue().getOffset());
+        assertNull(queryCaptor.getValue().getCursor());
     }
 
     @Test
-    public void testFetchGoalsBySearch() {
-        Goal goal = new Goal();
-        goal.setUserId("abc");
-        goal.setDescription(" a new goal");
-        goal.setName("first goal");
-        goal.setStatus(GoalStatus.ACTIVE);
-        goal.setDueDate(LocalDate.now().plusDays(10L));
-        Mockito.when(goalRepository.findAllBy(any(TextCriteria.class))).thenReturn(Flux.just(goal));
-        Mockito.when(goalRepository.findAllByUserId(anyString())).thenReturn(Flux.just(goal));
-        StepVerifier.create(goalService.fetchGoals(Optional.of("first"), Optional.empty(), List.of(), "abc"))
-                .expectSubscription()
+    public void testFetchGoalSummaryPageIsCachedApartFromFullPage() {
+        GoalSummary summary = new GoalSummary("5f9a1c2e8b3e4a1d2c3b4a5e", "first goal", GoalStatus.ACTIVE,
+                null, LocalDate.of(2020, 12, 23));
+        ArgumentCaptor<GoalQuery> queryCaptor = ArgumentCaptor.forClass(GoalQuery.class);
+
+        Mockito.when(goalRepository.findGoalPage(any(GoalQuery.class), any(Pageable.class), eq(CountMode.EXACT)))
+                .thenReturn(Mono.just(new GoalResponse(List.of(), 1L)));
+        Mockito.when(goalRepository.findGoalSummaryPage(queryCaptor.capture(), any(Pageable.class),
+                eq(CountMode.EXACT))).thenReturn(Mono.just(new GoalSummaryResponse(List.of(summary), 1L, null)));
+
+        StepVerifier.create(goalService.fetchGoalPage(Optional.empty(), Optional.empty(), Optional.empty(),
+                List.of("A"), "abc", CountMode.EXACT, false, 0L))
                 .expectNextCount(1L)
                 .verifyComplete();
+        for (int i = 0; i < 2; i++) {
+            StepVerifier.create(goalService.fetchGoalSummaryPage(Optional.empty(), Optional.empty(), Optional.empty(),
+                    List.of("A"), "abc", CountMode.EXACT, false, 0L))
+                    .expectNextMatches(response -> response.getGoals().get(0).getName().equals("first goal"))
+                    .verifyComplete();
+        }
+
+        Mockito.verify(goalRepository, Mockito.times(1))
+                .findGoalSummaryPage(any(GoalQuery.class), any(Pageable.class), eq(CountMode.EXACT));
+        assertEquals(List.of(GoalStatus.ACTIVE), queryCaptor.getValue().getStatuses());
     }
 
     @Test
-    public void testFetchGoalsByStatus() {
-
-
-        Mockito.when(goalRepository.findAllByUserId(anyString())).thenReturn(Flux.empty());
-        StepVerifier.create(goalService.fetchGoals(Optional.empty(), Optional.empty(), List.of("C", "D"), "abc"))
+    public void testFetchGoalPageAfterCursor() {
+        GoalCursor cursor = new GoalCursor(LocalDate.of(2020, 12, 23), "5f9a1c2e8b3e4a1d2c3b4a5e");
+        ArgumentCaptor<GoalQuery> queryCaptor = ArgumentCaptor.forClass(GoalQuery.class);
+
+        Mockito.when(goalRepository.findGoalPage(queryCaptor.capture(), any(Pageable.class), eq(CountMode.NONE)))
+                .thenReturn(Mono.just(new GoalResponse(List.of(), null)));
+        StepVerifier.create(goalService.fetchGoalPage(Optional.empty(), Optional.empty(),
+                Optional.of(GoalCursor.decode(cursor.encode())), List.of(), "abc", CountMode.NONE, false, 0L))
                 .expectSubscription()
-                .expectNextMatches(goalResponse -> goalResponse.getGoals().isEmpty())
+                .expectNextMatches(goalResponse -> goalResponse.getNextCursor() == null)
                 .verifyComplete();
+
+        assertEquals(cursor.getDueDate(), queryCaptor.getValue().getCursor().getDueDate());
+        assertEquals(cursor.getId(), queryCaptor.getValue().getCursor().getId());
+    }
+
+    @Test
+    public void testFetchGoalPageIsCachedPerUser() {
+        Mockito.when(goalRepository.findGoalPage(any(GoalQuery.class), any(Pageable.class), eq(CountMode.EXACT)))
+                .thenReturn(Mono.just(new GoalResponse(List.of(), 0L)));
+
+        StepVerifier.create(goalService.fetchGoalPage(Optional.empty(), Optional.empty(), Optional.empty(),
+                List.of(), "abc", CountMode.EXACT, false, 0L)).expectNextCount(1L).verifyComplete();
+        StepVerifier.create(goalService.fetchGoalPage(Optional.empty(), Optional.of(1), Optional.empty(),
+                List.of(), "abc", CountMode.EXACT, false, 0L)).expectNextCount(1L).verifyComplete();
+        StepVerifier.create(goalService.fetchGoalPage(Optional.empty(), Optional.empty(), Optional.empty(),
+                List.of(), "xyz", CountMode.EXACT, false, 0L)).expectNextCount(1L).verifyComplete();
+        // written since, possibly on another instance
+        StepVerifier.create(goalService.fetchGoalPage(Optional.empty(), Optional.empty(), Optional.empty(),
+                List.of(), "abc", CountMode.EXACT, false, 1L)).expectNextCount(1L).verifyComplete();
+
+        Mockito.verify(goalRepository, Mockito.times(3))
+                .findGoalPage(any(GoalQuery.class), any(Pageable.class), eq(CountMode.EXACT));
     }
 
     @Test
-    public void testFetchMultipleGoals() {
+    public void testUpdateGoalInvalidatesCachedPages() {
         Goal goal = new Goal();
         goal.setUserId("abc");
-        goal.setDescription(" a new goal");
         goal.setName("first goal");
-        goal.setStatus(GoalStatus.ACTIVE);
-        goal.setDueDate(LocalDate.now().plusDays(10L));
-        goal.setLevel(GoalLevel.EXTREME);
-        Goal goal1 = new Goal();
-        goal1.setUserId("abc");
-        goal1.setDescription(" another goal");
-        goal1.setName("second  goal");
-        goal1.setStatus(GoalStatus.ACTIVE);
-        goal1.setDueDate(LocalDate.now().plusDays(5L));
-        goal1.setLevel(GoalLevel.EASY);
-
-        Mockito.when(goalRepository.findAllByUserId(anyString())).thenReturn(Flux.fromIterable(List.of(goal, goal1)));
-        StepVerifier.create(goalService.fetchGoals(Optional.empty(), Optional.empty(), List.of(), "abc"))
-                .expectSubscription()
-                .expectNextMatches(goalResponse -> goalResponse.getGoals().size() == 2)
+        goal.setStatus(GoalStatus.DEFERRED);
+
+        Mockito.when(goalRepository.findGoalPage(any(GoalQuery.class), any(Pageable.class), eq(CountMode.EXACT)))
+                .thenReturn(Mono.just(new GoalResponse(List.of(goal), 1L)));
+        Mockito.when(goalRepository.updateProgress(any(Goal.class))).thenReturn(Mono.just(new GoalUpdate(goal, goal)));
+
+        for (int i = 0; i < 2; i++) {
+            StepVerifier.create(goalService.fetchGoalPage(Optional.empty(), Optional.empty(), Optional.empty(),
+                    List.of(), "abc", CountMode.EXACT, false, 0L)).expectNextCount(1L).verifyComplete();
+        }
+        StepVerifier.create(goalService.updateGoal(goal)).expectNextCount(1L).verifyComplete();
+        StepVerifier.create(goalService.fetchGoalPage(Optional.empty(), Optional.empty(), Optional.empty(),
+                List.of(), "abc", CountMode.EXACT, false, 0L)).expectNextCount(1L).verifyComplete();
+
+        Mockito.verify(goalRepository, Mockito.times(2))
+                .findGoalPage(any(GoalQuery.class), any(Pageable.class), eq(CountMode.EXACT));
+        Mockito.verify(goalQueryCache).invalidate("abc");
+    }
+
+    @Test
+    public void testStreamGoals() {
+        ArgumentCaptor<GoalQuery> queryCaptor = ArgumentCaptor.forClass(GoalQuery.class);
+
+        Mockito.when(goalRepository.streamGoals(queryCaptor.capture())).thenReturn(Flux.just(new Goal(), new Goal()));
+        StepVerifier.create(goalService.streamGoals(Optional.empty(), List.of("C"), "abc", false))
+                .expectNextCount(2L)
                 .verifyComplete();
+
+        assertEquals("abc", queryCaptor.getValue().getUserId());
+        assertNull(queryCaptor.getValue().getText());
+        assertEquals(List.of(GoalStatus.COMPLETED), queryCaptor.getValue().getStatuses());
     }
 
     @Test
@@ -131,18 +229,17 @@ class GoalServiceTest {
         goal.setDueDate(LocalDate.now().plusDays(10L));
         goal.setLevel(GoalLevel.EXTREME);
 
-        MessageChannel channel = mock(MessageChannel.class);
-
-        Mockito.when(goalRepository.findByNameAndUserId(anyString(), anyString())).thenReturn(Mono.empty());
-        Mockito.when(goalRepository.save(any(Goal.class))).thenReturn(Mono.just(goal));
-        Mockito.when(messageSources.outputGoals()).thenReturn(channel);
-        Mockito.when(channel.send(any(Message.class))).thenReturn(true);
+        Mockito.when(goalRepository.insert(any(Goal.class))).thenReturn(Mono.just(goal));
 
         StepVerifier.create(goalService.addGoal(goal))
                 .expectSubscription()
                 .expectNextMatches(goal1 -> goal1.getName().equalsIgnoreCase("first goal"))
                 .verifyComplete();
 
+        Mockito.verify(goalRepository, Mockito.never()).findByNameAndUserId(anyString(), anyString());
+        assertEquals(Event.Type.GOAL_ADDED, events.get(0).getEventType());
+        // the user reads their new goal from the primary
+        Mockito.verify(goalReadRouting).recordWrite("abc");
     }
 
     @Test
@@ -155,27 +252,18 @@ class GoalServiceTest {
         goal.setDueDate(LocalDate.now().plusDays(10L));
         goal.setLevel(GoalLevel.EXTREME);
 
-        MessageChannel channel = mock(MessageChannel.class);
-
-        Mockito.when(goalRepository.findByNameAndUserId(anyString(), anyString())).thenReturn(Mono.just(goal));
-        Mockito.when(goalRepository.save(any(Goal.class))).thenReturn(Mono.just(goal));
-        Mockito.when(messageSources.outputGoals()).thenReturn(channel);
-        Mockito.when(channel.send(any(Message.class))).thenReturn(true);
+        Mockito.when(goalRepository.insert(any(Goal.class)))
+                .thenReturn(Mono.error(new DuplicateKeyException("E11000 duplicate key error index: userId_name")));
 
         StepVerifier.create(goalService.addGoal(goal))
                 .expectSubscription()
-                .expectErrorMessage("Conflict!")
+                .expectErrorMatches(throwable -> throwable instanceof GoalException
+                        && ((GoalException) throwable).getStatus() == 409
+                        && throwable.getMessage().equals("Conflict!"))
                 .verify();
 
-    }
+        assertTrue(events.isEmpty());
 
-    @Test
-    public void testTotalGoalCount() {
-        Mockito.when(goalRepository.findTotalCount(anyString())).thenReturn(Mono.just(10L));
-        StepVerifier.create(goalService.findTotalGoalCount("abc"))
-                .expectSubscription()
-                .expectNextMatches(aLong -> aLong.equals(10L))
-                .verifyComplete();
     }
 
     @Test
@@ -187,14 +275,10 @@ class GoalServiceTest {
         goal.setStatus(GoalStatus.COMPLETED);
         goal.setDueDate(LocalDate.now().plusDays(10L));
         goal.setLevel(GoalLevel.EXTREME);
-        MessageChannel channel = mock(MessageChannel.class);
-
         ArgumentCaptor<Goal> argumentCaptor = ArgumentCaptor.forClass(Goal.class);
 
-        Mockito.when(goalRepository.save(argumentCaptor.capture())).thenReturn(Mono.just(goal));
-        Mockito.when(messageSources.outputGoals()).thenReturn(channel);
-        Mockito.when(channel.send(any(Message.class))).thenReturn(true);
-        Mockito.when(goalRepository.findByNameAndUserId(anyString(), anyString())).thenReturn(Mono.just(goal));
+        Mockito.when(goalRepository.updateProgress(argumentCaptor.capture()))
+                .thenReturn(Mono.just(new GoalUpdate(goal, goal)));
 
         StepVerifier.create(goalService.updateGoal(goal))
                 .expectSubscription()
@@ -202,7 +286,63 @@ class GoalServiceTest {
                 .verifyComplete();
 
         assertTrue(LocalDate.now().equals(argumentCaptor.getValue().getCompletedOn()));
+        assertEquals(3, argumentCaptor.getValue().getVotes());
+        Mockito.verify(goalRepository, Mockito.never()).save(any(Goal.class));
+
+    }
+
+    @Test
+    public void testUpdateGoalVersionConflict() {
+        Goal goal = new Goal();
+        goal.setUserId("abc");
+        goal.setName("first goal");
+        goal.setStatus(GoalStatus.DEFERRED);
+        goal.setVersion(2L);
+
+        Mockito.when(goalRepository.updateProgress(any(Goal.class))).thenReturn(Mono.empty());
+        Mockito.when(goalRepository.findByNameAndUserId("first goal", "abc")).thenReturn(Mono.just(goal));
 
+        StepVerifier.create(goalService.updateGoal(goal))
+                .expectSubscription()
+                .expectErrorMatches(throwable -> throwable instanceof GoalException
+                        && ((GoalException) throwable).getStatus() == 409)
+                .verify();
+    }
+
+    @Test
+    public void testUpdateGoalNotFound() {
+        Goal goal = new Goal();
+        goal.setUserId("abc");
+        goal.setName("first goal");
+        goal.setStatus(GoalStatus.DEFERRED);
+
+        Mockito.when(goalRepository.updateProgress(any(Goal.class))).thenReturn(Mono.empty());
+        Mockito.when(goalRepository.findByNameAndUserId(anyString(), anyString())).thenReturn(Mono.empty());
+        Mockito.when(goalRepository.existsArchived(anyString(), anyString())).thenReturn(Mono.just(false));
+
+        StepVerifier.create(goalService.updateGoal(goal))
+                .expectSubscription()
+                .verifyComplete();
+    }
+
+    @Test
+    public void testUpdateArchivedGoalIsAConflict() {
+        Goal goal = new Goal();
+        goal.setUserId("abc");
+        goal.setName("first goal");
+        goal.setStatus(GoalStatus.DEFERRED);
+
+        Mockito.when(goalRepository.updateProgress(any(Goal.class))).thenReturn(Mono.empty());
+        Mockito.when(goalRepository.findByNameAndUserId(anyString(), anyString())).thenReturn(Mono.empty());
+        Mockito.when(goalRepository.existsArchived("abc", "first goal")).thenReturn(Mono.just(true));
+
+        StepVerifier.create(goalService.updateGoal(goal))
+                .expectSubscription()
+                .expectErrorMatches(throwable -> throwable instanceof GoalException
+                        && ((GoalException) throwable).getStatus() == 409
+                        && throwable.getMessage().startsWith("Conflict"))
+                .verify();
+        assertTrue(events.isEmpty());
     }
 
     @Test
@@ -214,14 +354,10 @@ class GoalServiceTest {
         goal.setStatus(GoalStatus.DEFERRED);
         goal.setDueDate(LocalDate.now().plusDays(10L));
         goal.setLevel(GoalLevel.EXTREME);
-        MessageChannel channel = mock(MessageChannel.class);
-
         ArgumentCaptor<Goal> argumentCaptor = ArgumentCaptor.forClass(Goal.class);
 
-        Mockito.when(goalRepository.save(argumentCaptor.capture())).thenReturn(Mono.just(goal));
-        Mockito.when(messageSources.outputGoals()).thenReturn(channel);
-        Mockito.when(channel.send(any(Message.class))).thenReturn(true);
-        Mockito.when(goalRepository.findByNameAndUserId(anyString(), anyString())).thenReturn(Mono.just(goal));
+        Mockito.when(goalRepository.updateProgress(argumentCaptor.capture()))
+                .thenReturn(Mono.just(new GoalUpdate(goal, goal)));
 
         StepVerifier.create(goalService.updateGoal(goal))
                 .expectSubscription()
@@ -240,27 +376,182 @@ class GoalServiceTest {
         goal.setDueDate(LocalDate.now().plusDays(10L));
         goal.setLevel(GoalLevel.EXTREME);
         goal.setId("abcdef");
-        MessageChannel channel = mock(MessageChannel.class);
-
         ArgumentCaptor<Goal> argumentCaptor = ArgumentCaptor.forClass(Goal.class);
 
-        ArgumentCaptor<Message> eventArgumentCaptor = ArgumentCaptor.forClass(Message.class);
-
-        Mockito.when(goalRepository.save(argumentCaptor.capture())).thenReturn(Mono.just(goal));
-        Mockito.when(messageSources.outputGoals()).thenReturn(channel);
-        Mockito.when(channel.send(eventArgumentCaptor.capture())).thenReturn(true);
-        Mockito.when(goalRepository.findByNameAndUserId(anyString(), anyString())).thenReturn(Mono.just(goal));
+        Mockito.when(goalRepository.updateProgress(argumentCaptor.capture()))
+                .thenReturn(Mono.just(new GoalUpdate(goal, goal)));
 
         StepVerifier.create(goalService.updateGoal(goal))
                 .expectSubscription()
                 .expectNextMatches(goal1 -> goal1.getStatus().equals(GoalStatus.ACTIVE))
                 .verifyComplete();
 
-        Event event = (Event)eventArgumentCaptor.getValue().getPayload();
+        Event event = events.get(0);
 
         assertEquals("abcdef", event.getKey());
         assertEquals(Event.Type.GOAL_RESUMED, event.getEventType());
 
 
     }
+
+    @Test
+    public void testAddGoalsInChunks() {
+        goalService.setBulkChunkSize(2);
+        Mockito.when(goalEventOutbox.writeAll(any(List.class))).thenReturn(Mono.empty());
+        Mockito.when(goalRepository.insertGoals(any(List.class))).thenAnswer(invocation -> {
+            List<Goal> goals = invocation.getArgument(0);
+            List<BulkItemResult> results = new ArrayList<>();
+            goals.forEach(goal -> results.add(BulkItemResult.of(goal,
+                    goal.getName().equals("second goal") ? BulkOutcome.CONFLICT : BulkOutcome.CREATED)));
+            return Mono.just(results);
+        });
+
+        StepVerifier.create(goalService.addGoals(Flux.just(bulkGoal("first goal"), bulkGoal("second goal"),
+                bulkGoal(" "), bulkGoal("fourth goal")), "abc"))
+                .expectSubscription()
+                .expectNextMatches(result -> result.getIndex() == 0L && result.getOutcome() == BulkOutcome.CREATED)
+                .expectNextMatches(result -> result.getIndex() == 1L && result.getOutcome() == BulkOutcome.CONFLICT)
+                .expectNextMatches(result -> result.getIndex() == 2L && result.getOutcome() == BulkOutcome.INVALID)
+                .expectNextMatches(result -> result.getIndex() == 3L && result.getOutcome() == BulkOutcome.CREATED)
+                .verifyComplete();
+
+        // the invalid goal never reaches the database
+        Mockito.verify(goalRepository, Mockito.times(2)).insertGoals(any(List.class));
+        ArgumentCaptor<List<Event<String, Goal>>> eventCaptor = ArgumentCaptor.forClass(List.class);
+        Mockito.verify(goalEventOutbox, Mockito.times(2)).writeAll(eventCaptor.capture());
+        assertEquals(1, eventCaptor.getAllValues().get(0).size());
+        assertEquals(1, eventCaptor.getAllValues().get(1).size());
+        assertEquals(Event.Type.GOAL_ADDED, eventCaptor.getAllValues().get(1).get(0).getEventType());
+    }
+
+    @Test
+    public void testUpdateGoalStatuses() {
+        Mockito.when(goalEventOutbox.writeAll(any(List.class))).thenReturn(Mono.empty());
+        Mockito.when(goalRepository.updateStatuses(eq("abc"), any(List.class))).thenAnswer(invocation -> {
+            List<Goal> goals = invocation.getArgument(1);
+            return Mono.just(List.of(BulkItemResult.updated(bulkGoal("first goal"), goals.get(0)),
+                    BulkItemResult.of(goals.get(1), BulkOutcome.NOT_FOUND)));
+        });
+        Goal completed = bulkGoal("first goal");
+        completed.setStatus(GoalStatus.COMPLETED);
+
+        StepVerifier.create(goalService.updateGoalStatuses(Flux.just(completed, bulkGoal("missing goal")), "abc"))
+                .expectSubscription()
+                .expectNextMatches(result -> result.getOutcome() == BulkOutcome.UPDATED)
+                .expectNextMatches(result -> result.getOutcome() == BulkOutcome.NOT_FOUND)
+                .verifyComplete();
+
+        assertEquals(LocalDate.now(), completed.getCompletedOn());
+        ArgumentCaptor<List<Event<String, Goal>>> eventCaptor = ArgumentCaptor.forClass(List.class);
+        Mockito.verify(goalEventOutbox).writeAll(eventCaptor.capture());
+        assertEquals(1, eventCaptor.getValue().size());
+        assertEquals(Event.Type.GOAL_COMPLETED, eventCaptor.getValue().get(0).getEventType());
+    }
+
+    @Test
+    public void testAddGoalIncrementsStats() {
+        Goal goal = bulkGoal("first goal");
+        goal.setLevel(GoalLevel.EASY);
+        ArgumentCaptor<Map<String, Long>> incrementsCaptor = ArgumentCaptor.forClass(Map.class);
+        Mockito.when(goalRepository.insert(any(Goal.class))).thenReturn(Mono.just(goal));
+        Mockito.when(goalStatsRepository.increment(eq("abc"), incrementsCaptor.capture())).thenReturn(Mono.empty());
+
+        StepVerifier.create(goalService.addGoal(goal))
+                .expectNextCount(1L)
+                .verifyComplete();
+
+        assertEquals(Map.of("total", 1L, "byStatus.ACTIVE", 1L, "byLevel.EASY", 1L,
+                "openByDueDate." + goal.getDueDate(), 1L), incrementsCaptor.getValue());
+    }
+
+    @Test
+    public void testCompletingGoalMovesStatsCounts() {
+        Goal previous = bulkGoal("first goal");
+        previous.setLevel(GoalLevel.EASY);
+        Goal goal = bulkGoal("first goal");
+        goal.setLevel(GoalLevel.EASY);
+        goal.setStatus(GoalStatus.COMPLETED);
+        ArgumentCaptor<Map<String, Long>> incrementsCaptor = ArgumentCaptor.forClass(Map.class);
+        Mockito.when(goalRepository.updateProgress(any(Goal.class)))
+                .thenReturn(Mono.just(new GoalUpdate(previous, goal)));
+        Mockito.when(goalStatsRepository.increment(eq("abc"), incrementsCaptor.capture()))
+                .thenReturn(Mono.error(new RuntimeException("stats unavailable")));
+
+        // a failed increment does not fail the update
+        StepVerifier.create(goalService.updateGoal(goal))
+                .expectNextCount(1L)
+                .verifyComplete();
+
+        // the version alone is bumped again after the failed increment
+        assertEquals(Map.of("byStatus.ACTIVE", -1L, "byStatus.COMPLETED", 1L,
+                "openByDueDate." + goal.getDueDate(), -1L), incrementsCaptor.getAllValues().get(0));
+    }
+
+    @Test
+    public void testUpdateWithoutCountChangesBumpsVersion() {
+        Goal goal = bulkGoal("first goal");
+        Mockito.when(goalRepository.updateProgress(any(Goal.class)))
+                .thenReturn(Mono.just(new GoalUpdate(goal, goal)));
+
+        StepVerifier.create(goalService.updateGoal(goal))
+                .expectNextCount(1L)
+                .verifyComplete();
+
+        Mockito.verify(goalStatsRepository).increment("abc", Map.of());
+    }
+
+    @Test
+    public void testFetchGoalsVersion() {
+        Mockito.when(goalStatsRepository.findVersion("abc")).thenReturn(Mono.just(7L));
+        Mockito.when(goalStatsRepository.findVersion("xyz")).thenReturn(Mono.empty());
+
+        StepVerifier.create(goalService.fetchGoalsVersion("abc")).expectNext(7L).verifyComplete();
+        // never written
+        StepVerifier.create(goalService.fetchGoalsVersion("xyz")).expectNext(0L).verifyComplete();
+    }
+
+    @Test
+    public void testPagesOfUnknownVersionAreNotCached() {
+        Mockito.when(goalRepository.findGoalPage(any(GoalQuery.class), any(Pageable.class), any(CountMode.class)))
+                .thenReturn(Mono.just(new GoalResponse()));
+
+        for (int i = 0; i < 2; i++) {
+            StepVerifier.create(goalService.fetchGoalPage(Optional.empty(), Optional.empty(), Optional.empty(),
+                    List.of(), "abc", CountMode.EXACT, false, GoalVersions.UNKNOWN))
+                    .expectNextCount(1L)
+                    .verifyComplete();
+        }
+
+        Mockito.verify(goalRepository, Mockito.times(2))
+                .findGoalPage(any(GoalQuery.class), any(Pageable.class), any(CountMode.class));
+    }
+
+    @Test
+    public void testFetchStatsRebuildsNeverRebuiltStats() {
+        GoalStats partial = new GoalStats();
+        partial.setUserId("abc");
+        GoalStats rebuilt = new GoalStats("abc", 4L, Map.of("ACTIVE", 2L, "COMPLETED", 1L, "DEFERRED", 1L),
+                Map.of("EASY", 4L), Map.of(LocalDate.now().minusDays(1L).toString(), 2L,
+                LocalDate.now().toString(), 1L), 7L, LocalDateTime.now());
+        Mockito.when(goalStatsRepository.findStats("abc")).thenReturn(Mono.just(partial));
+        Mockito.when(goalStatsRepository.rebuild("abc")).thenReturn(Mono.just(rebuilt));
+
+        StepVerifier.create(goalService.fetchStats("abc"))
+                .expectNextMatches(stats -> stats.getTotalgoals() == 4L
+                        && stats.getByStatus().get("A") == 2L
+                        && stats.getByLevel().get("Easy") == 4L
+                        && stats.getByLevel().get("Extreme") == 0L
+                        && stats.getCompletionRate() == 0.25
+                        && stats.getOverdue() == 2L)
+                .verifyComplete();
+    }
+
+    private Goal bulkGoal(String name) {
+        Goal goal = new Goal();
+        goal.setUserId("abc");
+        goal.setName(name);
+        goal.setStatus(GoalStatus.ACTIVE);
+        goal.setDueDate(LocalDate.now().plusDays(10L));
+        return goal;
+    }
 }
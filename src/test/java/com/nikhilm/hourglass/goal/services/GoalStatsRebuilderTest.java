@@ -0,0 +1,71 @@
+package com.nikhilm.hourglass.goal.services;
+
+import com.nikhilm.hourglass.goal.model.GoalStats;
+import com.nikhilm.hourglass.goal.repositories.GoalStatsRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+
+class GoalStatsRebuilderTest {
+
+    GoalStatsRepository goalStatsRepository = mock(GoalStatsRepository.class);
+    MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    GoalStatsRebuilder goalStatsRebuilder = new GoalStatsRebuilder(goalStatsRepository, meterRegistry,
+            Duration.ofMinutes(1L), Duration.ofHours(1L), Duration.ZERO);
+
+    @Test
+    public void testCountsDriftOfPreviouslyRebuiltStats() {
+        Mockito.when(goalStatsRepository.findUserIds()).thenReturn(Flux.just("abc", "def", "ghi", "jkl"));
+        // abc drifted, def is accurate apart from a zero count, ghi was never rebuilt, jkl has no document
+        Mockito.when(goalStatsRepository.findById("abc")).thenReturn(Mono.just(stats("abc", 3L, LocalDateTime.now())));
+        GoalStats withZero = stats("def", 2L, LocalDateTime.now());
+        withZero.setByLevel(Map.of("EASY", 0L));
+        Mockito.when(goalStatsRepository.findById("def")).thenReturn(Mono.just(withZero));
+        Mockito.when(goalStatsRepository.findById("ghi")).thenReturn(Mono.just(stats("ghi", 5L, null)));
+        Mockito.when(goalStatsRepository.findById("jkl")).thenReturn(Mono.empty());
+        Mockito.when(goalStatsRepository.rebuild("abc")).thenReturn(Mono.just(stats("abc", 2L, LocalDateTime.now())));
+        Mockito.when(goalStatsRepository.rebuild("def")).thenReturn(Mono.just(stats("def", 2L, LocalDateTime.now())));
+        Mockito.when(goalStatsRepository.rebuild("ghi")).thenReturn(Mono.just(stats("ghi", 2L, LocalDateTime.now())));
+        Mockito.when(goalStatsRepository.rebuild("jkl")).thenReturn(Mono.just(stats("jkl", 2L, LocalDateTime.now())));
+
+        StepVerifier.create(goalStatsRebuilder.rebuildAll())
+                .expectNext(4L)
+                .verifyComplete();
+
+        assertEquals(4.0, meterRegistry.counter("goal.stats.rebuilt").count());
+        assertEquals(1.0, meterRegistry.counter("goal.stats.drifted").count());
+    }
+
+    @Test
+    public void testFailedUserDoesNotStopRebuild() {
+        Mockito.when(goalStatsRepository.findUserIds()).thenReturn(Flux.just("abc", "def"));
+        Mockito.when(goalStatsRepository.findById("abc")).thenReturn(Mono.error(new RuntimeException("timeout")));
+        Mockito.when(goalStatsRepository.findById("def")).thenReturn(Mono.empty());
+        Mockito.when(goalStatsRepository.rebuild("def")).thenReturn(Mono.just(stats("def", 1L, LocalDateTime.now())));
+
+        StepVerifier.create(goalStatsRebuilder.rebuildAll())
+                .expectNext(1L)
+                .verifyComplete();
+    }
+
+    private GoalStats stats(String userId, long active, LocalDateTime rebuiltAt) {
+        GoalStats stats = new GoalStats();
+        stats.setUserId(userId);
+        stats.setTotal(active);
+        stats.setByStatus(Map.of("ACTIVE", active));
+        stats.setRebuiltAt(rebuiltAt);
+        return stats;
+    }
+}
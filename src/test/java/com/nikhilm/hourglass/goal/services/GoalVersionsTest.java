@@ -0,0 +1,64 @@
+package com.nikhilm.hourglass.goal.services;
+
+import com.nikhilm.hourglass.goal.repositories.GoalStatsRepository;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.Map;
+
+import static org.mockito.Mockito.mock;
+
+class GoalVersionsTest {
+
+    GoalStatsRepository goalStatsRepository = mock(GoalStatsRepository.class);
+
+    GoalVersions goalVersions = new GoalVersions(goalStatsRepository, 2, Duration.ofMillis(1L));
+
+    @Test
+    public void testVersionIsUnknownUntilTheBumpIsRetried() {
+        Mockito.when(goalStatsRepository.findVersion("abc")).thenReturn(Mono.just(7L));
+        Mockito.when(goalStatsRepository.increment("abc", Map.of("total", 1L)))
+                .thenReturn(Mono.error(new RuntimeException("timeout")));
+        Mockito.when(goalStatsRepository.increment("abc", Map.of()))
+                .thenReturn(Mono.error(new RuntimeException("timeout")))
+                .thenReturn(Mono.empty());
+
+        // the goal is written, so the write does not fail
+        StepVerifier.create(goalVersions.increment("abc", Map.of("total", 1L))).verifyComplete();
+
+        StepVerifier.create(Mono.defer(() -> goalVersions.find("abc"))
+                .filter(version -> version != GoalVersions.UNKNOWN)
+                .repeatWhenEmpty(repeat -> repeat.delayElements(Duration.ofMillis(10L)))
+                .timeout(Duration.ofSeconds(1L)))
+                .expectNext(7L)
+                .verifyComplete();
+        // only the version is bumped again, the counts are left to the rebuild
+        Mockito.verify(goalStatsRepository, Mockito.times(2)).increment("abc", Map.of());
+        Mockito.verify(goalStatsRepository).increment("abc", Map.of("total", 1L));
+    }
+
+    @Test
+    public void testVersionStaysUnknownUntilAnIncrementSucceeds() {
+        Mockito.when(goalStatsRepository.findVersion("abc")).thenReturn(Mono.just(7L));
+        Mockito.when(goalStatsRepository.increment("abc", Map.of("total", 1L)))
+                .thenReturn(Mono.error(new RuntimeException("timeout")))
+                .thenReturn(Mono.empty());
+        Mockito.when(goalStatsRepository.increment("abc", Map.of()))
+                .thenReturn(Mono.error(new RuntimeException("timeout")));
+
+        StepVerifier.create(goalVersions.increment("abc", Map.of("total", 1L))).verifyComplete();
+        Mockito.verify(goalStatsRepository, Mockito.timeout(1000L).times(3)).increment("abc", Map.of());
+
+        Mockito.when(goalStatsRepository.findVersion("xyz")).thenReturn(Mono.empty());
+
+        StepVerifier.create(goalVersions.find("abc")).expectNext(GoalVersions.UNKNOWN).verifyComplete();
+        // other users keep their version
+        StepVerifier.create(goalVersions.find("xyz")).expectNext(0L).verifyComplete();
+
+        StepVerifier.create(goalVersions.increment("abc", Map.of("total", 1L))).verifyComplete();
+        StepVerifier.create(goalVersions.find("abc")).expectNext(7L).verifyComplete();
+    }
+}
@@ -0,0 +1,157 @@
+package com.nikhilm.hourglass.goal.services;
+
+import com.nikhilm.hourglass.goal.model.Event;
+import com.nikhilm.hourglass.goal.model.Goal;
+import com.nikhilm.hourglass.goal.model.OutboxEvent;
+import com.nikhilm.hourglass.goal.repositories.OutboxRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.data.domain.Pageable;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+
+class OutboxRelayTest {
+
+    OutboxRepository outboxRepository = mock(OutboxRepository.class);
+    GoalService.MessageSources messageSources = mock(GoalService.MessageSources.class);
+    MessageChannel channel = mock(MessageChannel.class);
+    MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    GoalSchedulers goalSchedulers = new GoalSchedulers(2, 10, 1, 10, 1);
+
+    OutboxRelay outboxRelay;
+
+    @BeforeEach
+    public void setup() {
+        Mockito.when(messageSources.outputGoals()).thenReturn(channel);
+        Mockito.when(outboxRepository.deleteByIdIn(any(Collection.class)))
+                .thenAnswer(invocation -> Mono.just((long) ((Collection) invocation.getArgument(0)).size()));
+        Mockito.when(outboxRepository.acquireRelayLease(anyString(), any(Duration.class))).thenReturn(Mono.just(true));
+        outboxRelay = relay(3);
+    }
+
+    @AfterEach
+    public void teardown() {
+        outboxRelay.stop();
+        goalSchedulers.dispose();
+    }
+
+    private OutboxRelay relay(int batchSize) {
+        return new OutboxRelay(outboxRepository, messageSources, meterRegistry, goalSchedulers, batchSize, 2,
+                Duration.ofSeconds(1L), Duration.ofSeconds(30L));
+    }
+
+    private OutboxEvent entry(String id, String key) {
+        Goal goal = new Goal();
+        goal.setName(id);
+        return new OutboxEvent(id, Event.Type.GOAL_ADDED, key, goal, LocalDateTime.now());
+    }
+
+    @Test
+    public void testRelaysAndDeletesSentEvents() {
+        Mockito.when(channel.send(any(Message.class))).thenReturn(true);
+        Mockito.when(outboxRepository.findAllByOrderByIdAsc(any(Pageable.class)))
+                .thenReturn(Flux.just(entry("1", "a"), entry("2", "b"), entry("3", "a")))
+                .thenReturn(Flux.just(entry("4", "b")));
+        ArgumentCaptor<Message> messageCaptor = ArgumentCaptor.forClass(Message.class);
+
+        StepVerifier.create(outboxRelay.drain())
+                .expectNext(4)
+                .verifyComplete();
+
+        Mockito.verify(channel, Mockito.times(4)).send(messageCaptor.capture());
+        // events of one goal keep their order
+        assertEquals(List.of("1", "3"), messageCaptor.getAllValues().stream()
+                .map(message -> (Event<String, Goal>) message.getPayload())
+                .filter(event -> event.getKey().equals("a"))
+                .map(event -> event.getData().getName())
+                .collect(Collectors.toList()));
+        Mockito.verify(outboxRepository, Mockito.times(2)).deleteByIdIn(any(Collection.class));
+        assertEquals(4.0, meterRegistry.counter("goal.outbox.relayed").count());
+    }
+
+    @Test
+    public void testFailedEventsStayInOutbox() {
+        Mockito.when(channel.send(any(Message.class)))
+                .thenReturn(true)
+                .thenThrow(new RuntimeException("broker down"));
+        Mockito.when(outboxRepository.findAllByOrderByIdAsc(any(Pageable.class)))
+                .thenReturn(Flux.just(entry("1", "a"), entry("2", "a")));
+        ArgumentCaptor<Collection> deletedCaptor = ArgumentCaptor.forClass(Collection.class);
+
+        StepVerifier.create(outboxRelay.relayBatch())
+                .expectNext(2)
+                .verifyComplete();
+
+        Mockito.verify(outboxRepository).deleteByIdIn(deletedCaptor.capture());
+        assertEquals(List.of("1"), List.copyOf(deletedCaptor.getValue()));
+        assertEquals(1.0, meterRegistry.counter("goal.outbox.failed").count());
+    }
+
+    @Test
+    public void testEmptyOutboxResetsLag() {
+        Mockito.when(outboxRepository.findAllByOrderByIdAsc(any(Pageable.class))).thenReturn(Flux.empty());
+
+        StepVerifier.create(outboxRelay.drain())
+                .expectNext(0)
+                .verifyComplete();
+
+        Mockito.verify(outboxRepository, Mockito.never()).deleteByIdIn(any(Collection.class));
+        assertEquals(0.0, meterRegistry.get("goal.outbox.lag.seconds").gauge().value());
+    }
+
+    @Test
+    public void testBatchWithMoreGoalsThanParallelismAndPrefetch() {
+        OutboxRelay large = relay(1000);
+        Mockito.when(channel.send(any(Message.class))).thenReturn(true);
+        // two events for each of 500 goals, above the 256 goals groupBy would hold open
+        Mockito.when(outboxRepository.findAllByOrderByIdAsc(any(Pageable.class)))
+                .thenReturn(Flux.fromStream(IntStream.range(0, 1000)
+                        .mapToObj(i -> entry(String.valueOf(i), String.valueOf(i % 500)))));
+        ArgumentCaptor<Message> messageCaptor = ArgumentCaptor.forClass(Message.class);
+
+        StepVerifier.create(large.relayBatch())
+                .expectNext(1000)
+                .expectComplete()
+                .verify(Duration.ofSeconds(10L));
+
+        Mockito.verify(channel, Mockito.times(1000)).send(messageCaptor.capture());
+        assertEquals(List.of("7", "507"), messageCaptor.getAllValues().stream()
+                .map(message -> (Event<String, Goal>) message.getPayload())
+                .filter(event -> event.getKey().equals("7"))
+                .map(event -> event.getData().getName())
+                .collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testNothingIsRelayedWithoutTheLease() {
+        Mockito.when(outboxRepository.acquireRelayLease(anyString(), any(Duration.class))).thenReturn(Mono.just(false));
+
+        StepVerifier.create(outboxRelay.drain())
+                .expectNext(0)
+                .verifyComplete();
+
+        Mockito.verify(outboxRepository, Mockito.never()).findAllByOrderByIdAsc(any(Pageable.class));
+        Mockito.verifyNoInteractions(channel);
+    }
+}